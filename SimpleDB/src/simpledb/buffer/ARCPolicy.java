@@ -0,0 +1,178 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ARC (Adaptive Replacement Cache) policy of Megiddo and Modha.
+ * Resident buffers are split between the list T1 of blocks
+ * referenced once and the list T2 of blocks referenced
+ * at least twice.
+ * The ghost lists B1 and B2 remember the blocks recently
+ * evicted from T1 and T2.
+ * A request for a block in B1 (resp. B2) increases (resp. decreases)
+ * the target size p of T1, so that the policy adapts between
+ * recency and frequency as the workload changes.
+ * Victims are taken from the least recently used end
+ * of T1 when T1 exceeds its target, and from T2 otherwise.
+ * <p>
+ * Each list orders its buffers by the time they were last referenced.
+ * Only unpinned buffers are kept in the lists:
+ * a buffer leaves its list when it is pinned, and returns
+ * at the place of its last reference when it is unpinned,
+ * so the head of a list is always a buffer that can be replaced.
+ */
+class ARCPolicy implements ReplacementPolicy {
+   private static final byte NONE = 0, T1 = 1, T2 = 2;
+   private byte[] list;
+   private long[] stamp;
+   private long clock = 0;
+   private boolean[] unreferenced; // prefetched, and not pinned since
+   private int t1Size = 0, t2Size = 0;  // including the pinned buffers
+   private TreeMap<Long,Buffer> t1 = new TreeMap<Long,Buffer>();
+   private TreeMap<Long,Buffer> t2 = new TreeMap<Long,Buffer>();
+   private LinkedHashSet<Block> b1 = new LinkedHashSet<Block>();
+   private LinkedHashSet<Block> b2 = new LinkedHashSet<Block>();
+   private int capacity;
+   private int p = 0;
+
+   /**
+    * Creates an ARC policy for a pool of the specified size.
+    * @param numbuffs the number of buffer slots in the pool
+    */
+   ARCPolicy(int numbuffs) {
+      list = new byte[numbuffs];
+      stamp = new long[numbuffs];
+      unreferenced = new boolean[numbuffs];
+      capacity = numbuffs;
+   }
+
+   public void onPin(Buffer buff) {
+      int f = buff.frame();
+      unlink(buff);
+      if (unreferenced[f]) {
+         // the first reference to a prefetched block
+         unreferenced[f] = false;
+         stamp[f] = ++clock;
+         return;
+      }
+      if (list[f] != NONE) {
+         // a hit: move to the most recently used end of T2
+         if (list[f] == T1) {
+            t1Size--;
+            t2Size++;
+         }
+         list[f] = T2;
+         stamp[f] = ++clock;
+         return;
+      }
+      Block blk = buff.block();
+      if (b1.remove(blk)) {
+         p = Math.min(capacity, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+         list[f] = T2;
+         t2Size++;
+      }
+      else if (b2.remove(blk)) {
+         p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+         list[f] = T2;
+         t2Size++;
+      }
+      else {
+         list[f] = T1;
+         t1Size++;
+         while (t1Size + b1.size() > capacity && !b1.isEmpty())
+            removeOldest(b1);
+      }
+      stamp[f] = ++clock;
+      while (t1Size + t2Size + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty())
+         removeOldest(b2);
+   }
+
+   public void onUnpin(Buffer buff) {
+      int f = buff.frame();
+      if (list[f] == NONE) {
+         // a prefetched block enters the pool without a pin
+         onPin(buff);
+         unreferenced[f] = true;
+      }
+      listOf(f).put(stamp[f], buff);
+   }
+
+   public void onSkip(Buffer buff) {
+      unlink(buff);
+   }
+
+   public void onEvict(Buffer buff) {
+      int f = buff.frame();
+      unlink(buff);
+      if (list[f] == T1) {
+         t1Size--;
+         b1.add(buff.block());
+      }
+      else if (list[f] == T2) {
+         t2Size--;
+         b2.add(buff.block());
+      }
+      list[f] = NONE;
+      unreferenced[f] = false;
+   }
+
+   public Buffer chooseVictim() {
+      Buffer victim;
+      if (t1Size > 0 && t1Size > p) {
+         victim = first(t1);
+         if (victim == null)
+            victim = first(t2);
+      }
+      else {
+         victim = first(t2);
+         if (victim == null)
+            victim = first(t1);
+      }
+      return victim;
+   }
+
+   public void resize(int numbuffs) {
+      if (numbuffs > list.length) {
+         list = Arrays.copyOf(list, numbuffs);
+         stamp = Arrays.copyOf(stamp, numbuffs);
+         unreferenced = Arrays.copyOf(unreferenced, numbuffs);
+      }
+      capacity = numbuffs;
+      p = Math.min(p, capacity);
+      while (b1.size() + b2.size() > capacity && !(b1.isEmpty() && b2.isEmpty()))
+         removeOldest(b1.size() >= b2.size() ? b1 : b2);
+   }
+
+   public int references(Buffer buff) {
+      return (list[buff.frame()] == T2) ? 2 : 1;
+   }
+
+   /**
+    * Takes a buffer out of the list of unpinned buffers it is in, if any.
+    */
+   private void unlink(Buffer buff) {
+      int f = buff.frame();
+      if (list[f] != NONE)
+         listOf(f).remove(stamp[f], buff);
+   }
+
+   private TreeMap<Long,Buffer> listOf(int f) {
+      return (list[f] == T2) ? t2 : t1;
+   }
+
+   private static Buffer first(TreeMap<Long,Buffer> q) {
+      Map.Entry<Long,Buffer> e = q.firstEntry();
+      return (e == null) ? null : e.getValue();
+   }
+
+   private void removeOldest(LinkedHashSet<Block> ghosts) {
+      Iterator<Block> iter = ghosts.iterator();
+      iter.next();
+      iter.remove();
+   }
+}
@@ -0,0 +1,78 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+/**
+ * The pins and unpins that the buffer manager has made without
+ * its replacement lock, waiting to be passed to the replacement policy.
+ * A pin of a buffer that is already in the pool, and an unpin,
+ * change the buffer's pin count atomically and record the buffer here;
+ * the buffer manager drains the records into the policy whenever
+ * it holds the replacement lock and is about to consult the policy.
+ * <p>
+ * The records are kept in stripes, chosen by thread,
+ * each guarded by its own monitor, so that threads seldom contend.
+ * A thread's records are drained in the order they were made.
+ * Since a buffer may have been reassigned since a record was made,
+ * each record also holds the block that the buffer held,
+ * and the buffer manager skips the records of reassigned buffers.
+ * A thread whose stripe is full drains the stripes itself,
+ * under the replacement lock.
+ */
+class AccessBuffer {
+   private static final int STRIPES = 16;   // a power of two
+   private static final int RECORDS = 64;   // the records of a stripe
+
+   private static class Stripe {
+      Buffer[] buffs = new Buffer[RECORDS];
+      Block[] blks = new Block[RECORDS];
+      boolean[] pins = new boolean[RECORDS];
+      int count = 0;
+   }
+
+   private Stripe[] stripes = new Stripe[STRIPES];
+
+   AccessBuffer() {
+      for (int i = 0; i < STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+
+   /**
+    * Records a pin or unpin of the specified buffer.
+    * @param buff the buffer
+    * @param blk the block that the buffer held
+    * @param pin true for a pin, false for an unpin that left the buffer unpinned
+    * @return false if the calling thread's stripe is full, and nothing was recorded
+    */
+   boolean record(Buffer buff, Block blk, boolean pin) {
+      Stripe s = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+      synchronized (s) {
+         if (s.count == RECORDS)
+            return false;
+         s.buffs[s.count] = buff;
+         s.blks[s.count] = blk;
+         s.pins[s.count] = pin;
+         s.count++;
+         return true;
+      }
+   }
+
+   /**
+    * Passes the recorded pins and unpins to the replacement policy,
+    * through {@link BasicBufferMgr#replay(Buffer, Block, boolean)}.
+    * Must be called with the replacement lock held.
+    * @param bufferMgr the buffer manager that made the records
+    */
+   void drain(BasicBufferMgr bufferMgr) {
+      for (Stripe s : stripes) {
+         synchronized (s) {
+            for (int i = 0; i < s.count; i++) {
+               bufferMgr.replay(s.buffs[i], s.blks[i], s.pins[i]);
+               s.buffs[i] = null;
+               s.blks[i] = null;
+            }
+            s.count = 0;
+         }
+      }
+   }
+}
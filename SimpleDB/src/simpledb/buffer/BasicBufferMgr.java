@@ -2,20 +2,80 @@ package simpledb.buffer;
 
 import simpledb.file.Block;
 import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * <p>
+ * The map from blocks to buffers is a concurrent hash map,
+ * so finding the buffer of a block takes no lock.
+ * The replacement policy and the choice of victims are guarded
+ * by a single replacement lock, which is held only for a few
+ * memory operations and never during disk I/O.
+ * Pinning a block that is in the pool, and unpinning,
+ * take no lock: the pin count is changed atomically,
+ * and the pin or unpin is recorded in an {@link AccessBuffer},
+ * which is passed to the policy the next time the lock is held
+ * and the policy is consulted.
+ * A victim is claimed by setting its pin count from 0 to -1,
+ * which no pin can increase, so a buffer that a thread has just
+ * pinned without the lock is never reassigned.
+ * A buffer that is being flushed or read is marked busy;
+ * a thread that wants its block waits on the buffer itself,
+ * so two threads never read the same block twice,
+ * and I/O on different blocks proceeds in parallel.
+ * Threads that find no available buffer wait on a condition
+ * of the replacement lock, and each unpin that frees a buffer
+ * wakes a single waiter, if there is one.
+ * <p>
+ * Misses are reported to a {@link Prefetcher}, which reads the
+ * following blocks of a sequentially-read file into unpinned buffers
+ * in the background.
  * @author Edward Sciore
  *
  */
 class BasicBufferMgr {
    private Map<Block, Buffer> bufferPoolMap;
-   private int numAvailable;
+   private ReplacementPolicy policy;
+   private ReentrantLock lock = new ReentrantLock();
+   private Condition bufferFreed = lock.newCondition();
+   private Deque<Buffer> freeBuffers = new ArrayDeque<>();
+   private DirtyPageTable dirtyPages = new DirtyPageTable();
+   private List<Buffer> buffers = new ArrayList<>();
+   private PageWriter pageWriter;
+   private Prefetcher prefetcher;
+   private volatile long evictionWrites = 0;
+   private AtomicInteger numAvailable = new AtomicInteger();
+   private AtomicInteger waiters = new AtomicInteger();
+   private AtomicLong releases = new AtomicLong();
    private int newBuffers;
+   private volatile int numbuffs;
+   private BitSet usedFrames = new BitSet();
+   private BufferArena arena;
+   private LongAdder hits = new LongAdder(), misses = new LongAdder();
+   private long accessClock = 0;   // guarded by the replacement lock
+   private AccessBuffer accesses = new AccessBuffer();
+   private static final int MAX_RUN = 64; // the most blocks moved by one I/O
+   private static final Logger log = Logger.getLogger(BasicBufferMgr.class.getName());
 
    /**
     * Creates a buffer manager having the specified number
@@ -28,64 +88,192 @@ class BasicBufferMgr {
     * Thus this constructor cannot be called until
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The pages of all buffers are allocated at once, in a single arena.
     * @param numbuffs the number of buffer slots to allocate
+    * @param policy the policy that chooses which buffer to replace
+    * @param arenafile the file to map the arena from, or null to use direct memory
     */
-   BasicBufferMgr(int numbuffs) {
+   BasicBufferMgr(int numbuffs, ReplacementPolicy policy, String arenafile) {
 
       /**
        * Initialize bufferPoolMap and set numAvailable and newBuffers into numbuffs
        * @author Guanxu Yu
        */
-      bufferPoolMap = new HashMap<>();
-      numAvailable = numbuffs;
+      bufferPoolMap = new ConcurrentHashMap<>();
+      this.policy = policy;
+      this.numbuffs = numbuffs;
+      numAvailable.set(numbuffs);
       newBuffers = numbuffs;
+      arena = new BufferArena(Page.DISK_BLOCK_SIZE, arenafile);
+      arena.ensureCapacity(numbuffs);
+      prefetcher = new Prefetcher(this, 0);
    }
 
    /**
     * Flushes the dirty buffers modified by the specified transaction.
+    * Only the buffers in the transaction's entry of the dirty page
+    * table are examined, and they are written in block order,
+    * with one I/O per run of consecutive blocks.
+    * Returns the files that the transaction's pages have been written to,
+    * by this flush or since the transaction's last flush,
+    * which must be forced before the transaction commits.
     * @param txnum the transaction's id number
+    * @return the names of the files written
     */
-   synchronized void flushAll(int txnum) {
+   Set<String> flushAll(int txnum) {
+      List<Buffer> dirty = dirtyPages.buffersModifiedBy(txnum);
+      dirty.removeIf(buff -> !buff.isModifiedBy(txnum));
+      flushInRuns(dirty);
+      return dirtyPages.filesWrittenBy(txnum);
+   }
 
-      /**
-       * Use bufferPoolMap to flush all dirty buffers
-       * @author Guanxu Yu
-       */
-      for (Map.Entry<Block, Buffer> entry : bufferPoolMap.entrySet()) {
-         Buffer buff = entry.getValue();
-         if (buff.isModifiedBy(txnum))
-            buff.flush();
+   /**
+    * Writes the specified buffers, which are sorted in file and
+    * block order, with one I/O per run of consecutive blocks.
+    * @param buffs the buffers to be written
+    */
+   private void flushInRuns(List<Buffer> buffs) {
+      int i = 0;
+      while (i < buffs.size()) {
+         Block first = buffs.get(i).block();
+         int n = 1;
+         while (first != null && i + n < buffs.size() && n < MAX_RUN
+                && new Block(first.fileName(), first.number() + n).equals(buffs.get(i + n).block()))
+            n++;
+         if (n == 1)
+            buffs.get(i).flush();
+         else
+            Buffer.flushRun(buffs.subList(i, i + n));
+         i += n;
+      }
+   }
+
+   /**
+    * Writes dirty unpinned buffers to disk, in file and block order,
+    * until at least the specified number of unpinned buffers are clean.
+    * Called by the {@link PageWriter}.
+    * @param target the number of clean unpinned buffers wanted
+    * @return the number of buffers written
+    */
+   int writeBehind(int target) {
+      List<Buffer> dirty = new ArrayList<>();
+      int clean;
+      lock.lock();
+      try {
+         for (Buffer buff : buffers)
+            if (!buff.isPinned() && !buff.isBusy() && buff.isDirty())
+               dirty.add(buff);
+         clean = numAvailable.get() - dirty.size();
+      }
+      finally {
+         lock.unlock();
       }
+      if (clean >= target || dirty.isEmpty())
+         return 0;
+      dirty.removeIf(buff -> buff.block() == null);
+      dirty.sort((b1, b2) -> {
+         Block blk1 = b1.block(), blk2 = b2.block();
+         if (blk1 == null || blk2 == null)
+            return 0;
+         int cmp = blk1.fileName().compareTo(blk2.fileName());
+         return (cmp != 0) ? cmp : Integer.compare(blk1.number(), blk2.number());
+      });
+      List<Buffer> chosen = new ArrayList<>();
+      for (Buffer buff : dirty) {
+         if (clean + chosen.size() >= target)
+            break;
+         // a buffer pinned meanwhile is left to its transaction
+         if (!buff.isPinned() && !buff.isBusy())
+            chosen.add(buff);
+      }
+      flushInRuns(chosen);
+      return chosen.size();
+   }
+
+   /**
+    * Starts a background page writer for this pool.
+    * @param interval the time between rounds, in milliseconds
+    * @param target the number of clean unpinned buffers to keep available
+    */
+   void startPageWriter(long interval, int target) {
+      pageWriter = new PageWriter(this, interval, target);
+      pageWriter.start();
+   }
+
+   /**
+    * Returns the background page writer, or null if there is none.
+    * @return the page writer
+    */
+   PageWriter pageWriter() {
+      return pageWriter;
+   }
+
+   /**
+    * Returns the number of dirty victims that a pin had to
+    * write to disk itself.
+    * @return the number of foreground eviction writes
+    */
+   long evictionWrites() {
+      return evictionWrites;
    }
 
    /**
     * Pins a buffer to the specified block.
     * If there is already a buffer assigned to that block
     * then that buffer is used;
-    * otherwise, an unpinned buffer from the pool is chosen.
+    * otherwise, an unpinned buffer is chosen,
+    * from the specified ring if there is one, else from the pool.
     * Returns a null value if there are no available buffers.
     * @param blk a reference to a disk block
+    * @param ring the ring of the calling scan, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pin(Block blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
+   Buffer pin(Block blk, BufferRing ring) {
+      while (true) {
+         Buffer buff = findExistingBuffer(blk);
+         if (buff != null) {
+            int pins = buff.tryPin();
+            if (pins < 0) {
+               // the buffer is being assigned to a block; look again when it is ready
+               buff.waitUntilReady();
+               continue;
+            }
+            if (pins == 0)
+               numAvailable.decrementAndGet();
+            // the buffer may have been reassigned between the lookup and the pin
+            if (!blk.equals(buff.block())) {
+               unpin(buff);
+               continue;
+            }
+            hits.increment();
+            if (buff.isPrefetched())
+               pinPrefetched(buff, blk, ring);
+            record(buff, blk, true);
+            return buff;
+         }
+
+         Block oldblk;
+         lock.lock();
+         try {
+            if (bufferPoolMap.containsKey(blk))
+               continue;
+            accesses.drain(this);
+            buff = chooseUnpinnedBuffer(ring);
+            if (buff == null)
+               return null;
+            oldblk = buff.block();
+            // other threads that want either block will wait until the read is done
+            bufferPoolMap.put(blk, buff);
+            misses.increment();
+         }
+         finally {
+            lock.unlock();
+         }
+         // start reading ahead before waiting for our own block
+         prefetcher.accessed(blk, ring);
+         load(buff, oldblk, blk, null, null, true, false);
+         return buff;
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-      /**
-       * put this mapping into bufferPoolMap
-       * update access time
-       * @author
-       */
-      bufferPoolMap.put(blk, buff);
-      buff.updateAccessTime();
-      return buff;
    }
 
    /**
@@ -95,30 +283,152 @@ class BasicBufferMgr {
     * there are no available buffers.
     * @param filename the name of the file
     * @param fmtr a pageformatter object, used to format the new block
+    * @param ring the ring of the calling scan, or null
     * @return the pinned buffer
     */
-   synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = chooseUnpinnedBuffer();
-      if (buff == null)
-         return null;
-      buff.assignToNew(filename, fmtr);
-      numAvailable--;
-      buff.pin();
-
-      bufferPoolMap.put(buff.block(), buff);
-      buff.updateAccessTime();
-
+   Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff;
+      Block oldblk;
+      lock.lock();
+      try {
+         accesses.drain(this);
+         buff = chooseUnpinnedBuffer(ring);
+         if (buff == null)
+            return null;
+         oldblk = buff.block();
+      }
+      finally {
+         lock.unlock();
+      }
+      load(buff, oldblk, null, filename, fmtr, true, false);
       return buff;
    }
 
+   /**
+    * Records the first pin of a prefetched buffer,
+    * and keeps the read-ahead of its file going.
+    */
+   private void pinPrefetched(Buffer buff, Block blk, BufferRing ring) {
+      boolean prefetched;
+      lock.lock();
+      try {
+         prefetched = buff.isPrefetched();
+         if (prefetched) {
+            buff.setPrefetched(false);
+            prefetcher.recordHit();
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      // a reader that consumes prefetched blocks keeps the read-ahead going
+      if (prefetched)
+         prefetcher.accessed(blk, ring);
+   }
+
    /**
     * Unpins the specified buffer.
+    * If its pin count drops to 0, one waiting thread is woken;
+    * the replacement lock is taken only if a thread is waiting.
     * @param buff the buffer to be unpinned
     */
-   synchronized void unpin(Buffer buff) {
-      buff.unpin();
-      if (!buff.isPinned())
-         numAvailable++;
+   void unpin(Buffer buff) {
+      // once unpinned, the buffer may be reassigned at any time
+      Block blk = buff.block();
+      if (buff.unpin() > 0)
+         return;
+      numAvailable.incrementAndGet();
+      record(buff, blk, false);
+      releases.incrementAndGet();
+      if (waiters.get() > 0) {
+         lock.lock();
+         try {
+            bufferFreed.signal();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Records a pin or unpin made without the replacement lock,
+    * for the replacement policy.
+    * If the thread's stripe of the access buffer is full,
+    * the records are passed to the policy at once.
+    */
+   private void record(Buffer buff, Block blk, boolean pin) {
+      if (accesses.record(buff, blk, pin))
+         return;
+      lock.lock();
+      try {
+         accesses.drain(this);
+         replay(buff, blk, pin);
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Passes a recorded pin or unpin of a buffer to the replacement policy.
+    * A pin is passed on as a reference even if the buffer has been
+    * unpinned since; a buffer that is unpinned when its record is
+    * passed on is then returned to the policy's unpinned buffers.
+    * The records of a buffer that has been claimed or reassigned
+    * since are skipped.
+    * Called by the {@link AccessBuffer}, with the replacement lock held.
+    * @param buff the buffer
+    * @param blk the block that the buffer held when the record was made
+    * @param pin true for a pin, false for an unpin
+    */
+   void replay(Buffer buff, Block blk, boolean pin) {
+      int pins = buff.pinCount();
+      if (pins < 0 || !blk.equals(buff.block()))
+         return;
+      if (pin) {
+         buff.setLastAccess(++accessClock);
+         policy.onPin(buff);
+      }
+      if (pins == 0)
+         policy.onUnpin(buff);
+   }
+
+   /**
+    * Returns the number of times a buffer has been released
+    * to the pool: unpinned, loaded without a pin, or added.
+    * A thread whose pin fails reads it before trying,
+    * and waits until it changes.
+    * @return the number of releases so far
+    */
+   long releases() {
+      return releases.get();
+   }
+
+   /**
+    * Waits until a buffer has been released to the pool
+    * since the specified count was read,
+    * or until the specified time has elapsed.
+    * A buffer may be counted as available and still not be claimable,
+    * for example while another thread is pinning it,
+    * so the count of available buffers is not what is waited on.
+    * @param seen the value of {@link #releases()} before the failed pin
+    * @param millis the maximum time to wait, in milliseconds
+    * @throws InterruptedException if the thread is interrupted while waiting
+    */
+   void awaitRelease(long seen, long millis) throws InterruptedException {
+      long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+      lock.lock();
+      // registered before the count is read, so an unpin that releases a buffer sees the waiter
+      waiters.incrementAndGet();
+      try {
+         while (releases.get() == seen && nanos > 0)
+            nanos = bufferFreed.awaitNanos(nanos);
+      }
+      finally {
+         waiters.decrementAndGet();
+         lock.unlock();
+      }
    }
 
    /**
@@ -128,7 +438,7 @@ class BasicBufferMgr {
     *   @return true if there is a mapping; false otherwise
     *   @author Guanxu Yu
     */
-   synchronized boolean containsMapping (Block blk) {
+   boolean containsMapping (Block blk) {
       return bufferPoolMap.containsKey(blk);
    }
 
@@ -138,7 +448,7 @@ class BasicBufferMgr {
     *   @return the buffer mapped to if there is a mapping; null otherwise
     *   @author Guanxu Yu
     */
-   synchronized Buffer getMapping (Block blk)   {
+   Buffer getMapping (Block blk)   {
       return bufferPoolMap.get(blk);
    }
 
@@ -147,7 +457,25 @@ class BasicBufferMgr {
     * @return the number of available buffers
     */
    int available() {
-      return numAvailable;
+      return numAvailable.get();
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * @return the number of buffer hits
+    */
+   long hits() {
+      return hits.sum();
+   }
+
+   /**
+    * Returns the number of pins that had to read their
+    * block into the pool.
+    * @return the number of buffer misses
+    */
+   long misses() {
+      return misses.sum();
    }
 
    /**
@@ -162,90 +490,576 @@ class BasicBufferMgr {
 
    /**
     *   Returns the buffer that is unpinned. Change function to work with map
-    *   and replace buffer based on LRU policy
+    *   and ask the replacement policy which buffer to replace.
+    *   If a ring is specified and full, one of its unpinned buffers
+    *   is reused instead; otherwise the chosen buffer joins the ring.
+    *   The chosen buffer is claimed, marked busy and counted as unavailable;
+    *   its old mapping stays in the map until it has been flushed.
+    *   Must be called with the replacement lock held,
+    *   after the recorded pins and unpins have been passed to the policy.
+    *   @param ring the ring of the calling scan, or null
     *   @return the replacing buffer
     *   @author Yuchen Sun
     */
-   private Buffer chooseUnpinnedBuffer() {
-
+   private Buffer chooseUnpinnedBuffer(BufferRing ring) {
+      Buffer buff = null;
+      if (ring != null && ring.isFull()) {
+         buff = ring.nextReusable();
+         if (buff != null && claim(buff))
+            evict(buff);
+         else
+            buff = null;
+      }
+      // free and new buffers are already claimed
+      if (buff == null)
+         buff = freeBuffers.poll();
       // If there is a buffer slot available, return this buffer
-      if (newBuffers > 0) {
+      if (buff == null && newBuffers > 0) {
          newBuffers--;
-         return new Buffer();
+         // reuse the lowest frame number that a shrink has released
+         int frame = usedFrames.nextClearBit(0);
+         usedFrames.set(frame);
+         buff = new Buffer(frame, dirtyPages, arena);
+         buffers.add(buff);
       }
 
       // No slot available, replace a unpinned buffer
-      ArrayList<Block> unpinnedBufferBlockList = new ArrayList<>();
-      for (Map.Entry<Block, Buffer> entry : bufferPoolMap.entrySet()) {
-         Buffer buff = entry.getValue();
-         if (!buff.isPinned()) {
-            unpinnedBufferBlockList.add(entry.getKey());
+      if (buff == null && numAvailable.get() > 0) {
+         buff = claimVictim();
+         if (buff != null) {
+            if (log.isLoggable(Level.FINE))
+               log.fine("Replace the buffer contains block " + buff.block().number() + " in " + buff.block().fileName());
+            evict(buff);
+            if (buff.ring() != null)
+               buff.ring().remove(buff);
          }
       }
       // No unpinned buffer
-      if (unpinnedBufferBlockList.size() == 0) {
+      if (buff == null)
          return null;
-      }
-      Block tmp = LRU2(unpinnedBufferBlockList);
-      System.out.println("Replace the buffer contains block " + tmp.number() + " in " + tmp.fileName());
-      Buffer buff = bufferPoolMap.get(tmp);
-      buff.resetAccessTime();
-      bufferPoolMap.remove(tmp);
+      if (ring != null && buff.ring() == null && !ring.isFull())
+         ring.add(buff);
+      buff.setBusy(true);
+      numAvailable.decrementAndGet();
       return buff;
    }
 
    /**
-    * Add a function LRU2()
-    * Choose replacing buffer by using LRU(K=2)
-    * @param unpinnedBufferBlockList list of blocks that mapping unpinned buffers
-    * @return block that mapping the chosen buffer
-    * @author Yuchen Sun
+    * Claims the victim chosen by the replacement policy.
+    * A victim that a thread has pinned since the pins were
+    * passed to the policy is skipped, and another is chosen;
+    * the pin is passed to the policy with the other recorded pins.
+    * Must be called with the replacement lock held.
+    * @return the claimed victim, or null if the policy has none
+    */
+   private Buffer claimVictim() {
+      while (true) {
+         Buffer buff = policy.chooseVictim();
+         if (buff == null || claim(buff))
+            return buff;
+         policy.onSkip(buff);
+      }
+   }
+
+   /**
+    * Claims an unpinned buffer of the pool.
+    * The buffer is marked busy first, so that a thread that finds it
+    * claimed waits for it instead of spinning.
+    * @return false if the buffer has been pinned meanwhile
+    */
+   private boolean claim(Buffer buff) {
+      buff.setBusy(true);
+      if (buff.claim())
+         return true;
+      buff.setBusy(false);
+      return false;
+   }
+
+   /**
+    * Tells the replacement policy and the page writer
+    * that the specified buffer is about to be reassigned.
+    * Must be called with the replacement lock held.
+    */
+   private void evict(Buffer buff) {
+      policy.onEvict(buff);
+      if (buff.isPrefetched()) {
+         buff.setPrefetched(false);
+         prefetcher.recordWaste();
+      }
+      if (buff.isDirty()) {
+         evictionWrites++;
+         if (pageWriter != null)
+            pageWriter.wakeUp();
+      }
+   }
+
+   /**
+    * Returns the buffers of the specified ring to the pool.
+    * @param ring the ring to be released
+    */
+   void release(BufferRing ring) {
+      lock.lock();
+      try {
+         ring.clear();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Empties the buffers that hold blocks of the specified file,
+    * discarding their modifications, and returns them to the free list.
+    * Buffers that are being read or written are waited for first.
+    * Called when a temporary file is deleted, so no scan pins its blocks.
+    * @param filename the name of the file
+    */
+   void discard(String filename) {
+      List<Buffer> held = new ArrayList<>();
+      lock.lock();
+      try {
+         for (Buffer buff : buffers) {
+            Block blk = buff.block();
+            if (blk != null && blk.fileName().equals(filename))
+               held.add(buff);
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      for (Buffer buff : held)
+         buff.waitUntilReady();
+      lock.lock();
+      try {
+         accesses.drain(this);
+         for (Buffer buff : held) {
+            Block blk = buff.block();
+            if (blk == null || !blk.fileName().equals(filename) || buff.isBusy() || !buff.claim())
+               continue;
+            policy.onEvict(buff);
+            buff.setPrefetched(false);
+            if (buff.ring() != null)
+               buff.ring().remove(buff);
+            bufferPoolMap.remove(blk, buff);
+            buff.clear();
+            // the buffer stays claimed, and was already counted as available
+            freeBuffers.push(buff);
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      prefetcher.forget(filename);
+   }
+
+   /**
+    * Flushes the chosen buffer and assigns it to its new block,
+    * without holding the replacement lock.
+    * If blk is null, a new block is appended to the specified file.
+    * When the buffer is ready, its old mapping is removed,
+    * and the threads waiting for it are woken.
+    * A buffer that is loaded for a pin is pinned;
+    * a prefetched buffer is left unpinned, as a candidate for replacement,
+    * and is marked as read ahead if so specified.
+    * If the I/O fails, the buffer is returned to the free list.
+    */
+   private void load(Buffer buff, Block oldblk, Block blk, String filename, PageFormatter fmtr,
+                     boolean pin, boolean readAhead) {
+      try {
+         if (blk != null)
+            buff.assignToBlock(blk);
+         else {
+            buff.assignToNew(filename, fmtr);
+            blk = buff.block();
+            bufferPoolMap.put(blk, buff);
+         }
+      }
+      catch (RuntimeException e) {
+         abandon(buff, oldblk, blk);
+         throw e;
+      }
+      finishLoad(buff, oldblk, pin, readAhead);
+   }
+
+   /**
+    * Returns a buffer that could not be loaded to the free list.
+    */
+   private void abandon(Buffer buff, Block oldblk, Block blk) {
+      lock.lock();
+      try {
+         if (blk != null)
+            bufferPoolMap.remove(blk, buff);
+         if (oldblk != null)
+            bufferPoolMap.remove(oldblk, buff);
+         buff.clear();
+         if (buff.ring() != null)
+            buff.ring().remove(buff);
+         // the buffer stays claimed
+         freeBuffers.push(buff);
+         numAvailable.incrementAndGet();
+         // still under the lock, so that the buffer is not claimed again first
+         buff.setBusy(false);
+         releases.incrementAndGet();
+         bufferFreed.signal();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Makes a loaded buffer ready: removes its old mapping, ends its claim
+    * with the buffer pinned or unpinned, and wakes the threads waiting for it.
+    */
+   private void finishLoad(Buffer buff, Block oldblk, boolean pin, boolean readAhead) {
+      lock.lock();
+      try {
+         if (oldblk != null)
+            bufferPoolMap.remove(oldblk, buff);
+         if (pin) {
+            buff.setLastAccess(++accessClock);
+            policy.onPin(buff);
+            buff.unclaim(1);
+         }
+         else {
+            buff.setLastAccess(0);
+            buff.setPrefetched(readAhead);
+            policy.onUnpin(buff);
+            buff.unclaim(0);
+            numAvailable.incrementAndGet();
+            releases.incrementAndGet();
+            bufferFreed.signal();
+         }
+         buff.setBusy(false);
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * The blocks that a prefetch has claimed buffers for,
+    * together with the blocks those buffers held before.
     */
-   private Block LRU2(ArrayList<Block> unpinnedBufferBlockList) {
-      int infiCount = 0;
-      long minLastAccTime = Long.MAX_VALUE;
-      long minSecLastAccTime = Long.MAX_VALUE;
-      int LRU2Index = -1;
-      int LRUIndex = -1;
+   static class ReadRequest {
+      private List<Buffer> buffs = new ArrayList<>();
+      private List<Block> oldblks = new ArrayList<>();
+      private List<Block> blks = new ArrayList<>();
+      boolean readAhead = true; // false for blocks reloaded at startup
 
-      for (int i = 0; i < unpinnedBufferBlockList.size(); i++) {
-         Buffer buff = bufferPoolMap.get(unpinnedBufferBlockList.get(i));
-         if (buff.getSecLastAccessTime() <= minSecLastAccTime) {
-            minSecLastAccTime = buff.getSecLastAccessTime();
-            LRU2Index = i;
+      int size() {
+         return buffs.size();
+      }
+   }
+
+   /**
+    * Claims unpinned buffers for the specified blocks of a file,
+    * in preparation for reading them ahead.
+    * Blocks that are already in the pool, and blocks beyond
+    * the end of the file, are skipped.
+    * The claimed buffers are mapped to their new blocks and marked busy,
+    * so a thread that pins one of them waits for the read to finish.
+    * The last available buffer is never claimed,
+    * so that prefetching cannot make a pin wait.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    * @param ring the ring of the scan that will read the blocks, or null
+    * @return the claimed buffers, or null if none were claimed
+    */
+   ReadRequest claimForPrefetch(String filename, int blknum, int count, BufferRing ring) {
+      count = Math.min(count, SimpleDB.fileMgr().size(filename) - blknum);
+      if (count <= 0)
+         return null;
+      ReadRequest req = new ReadRequest();
+      lock.lock();
+      try {
+         accesses.drain(this);
+         for (int i = 0; i < count && numAvailable.get() > 1; i++) {
+            Block blk = new Block(filename, blknum + i);
+            if (bufferPoolMap.containsKey(blk))
+               continue;
+            Buffer buff = chooseUnpinnedBuffer(ring);
+            if (buff == null)
+               break;
+            req.oldblks.add(buff.block());
+            req.buffs.add(buff);
+            req.blks.add(blk);
+            bufferPoolMap.put(blk, buff);
          }
-         if (buff.getSecLastAccessTime() == Long.MAX_VALUE) {
-            infiCount++;
-            if (buff.getLastAccessTime() < minLastAccTime) {
-               minLastAccTime = buff.getLastAccessTime();
-               LRUIndex = i;
+      }
+      finally {
+         lock.unlock();
+      }
+      return (req.size() == 0) ? null : req;
+   }
+
+   /**
+    * Starts reading the blocks of a prefetch request into their buffers,
+    * leaving the buffers unpinned.
+    * Each run of consecutive blocks is read with a single
+    * asynchronous I/O, so the caller does not wait for the reads,
+    * and the runs of a request are in flight together.
+    * When a run completes, its buffers are released to the pool.
+    * A block that cannot be read is skipped;
+    * a later pin of that block will report the error.
+    * @param req the claimed buffers
+    * @return a future that completes when every run has been read or abandoned
+    */
+   CompletableFuture<Void> loadPrefetched(ReadRequest req) {
+      List<CompletableFuture<Void>> runs = new ArrayList<>();
+      int i = 0;
+      while (i < req.size()) {
+         Block first = req.blks.get(i);
+         int n = 1;
+         while (i + n < req.size() && n < MAX_RUN
+                && new Block(first.fileName(), first.number() + n).equals(req.blks.get(i + n)))
+            n++;
+         runs.add(loadRun(req, i, n));
+         i += n;
+      }
+      return CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0]));
+   }
+
+   private CompletableFuture<Void> loadRun(ReadRequest req, int start, int n) {
+      CompletableFuture<Void> read;
+      try {
+         read = Buffer.assignToBlocksAsync(req.buffs.subList(start, start + n), req.blks.get(start));
+      }
+      catch (RuntimeException e) {
+         read = new CompletableFuture<>();
+         read.completeExceptionally(e);
+      }
+      return read.handle((v, e) -> {
+         for (int i = start; i < start + n; i++) {
+            if (e != null)
+               abandon(req.buffs.get(i), req.oldblks.get(i), req.blks.get(i));
+            else
+               finishLoad(req.buffs.get(i), req.oldblks.get(i), false, req.readAhead);
+         }
+         return null;
+      });
+   }
+
+   /**
+    * Returns the blocks held by the unpinned and pinned buffers of the pool,
+    * with their access history.
+    * Buffers that are being read or written are skipped.
+    * @return the resident blocks, in no particular order
+    */
+   List<WarmStart.Entry> residentBlocks() {
+      List<WarmStart.Entry> entries = new ArrayList<>();
+      lock.lock();
+      try {
+         accesses.drain(this);
+         for (Buffer buff : buffers) {
+            Block blk = buff.block();
+            if (blk != null && !buff.isBusy())
+               entries.add(new WarmStart.Entry(blk, policy.references(buff), buff.lastAccess()));
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      return entries;
+   }
+
+   /**
+    * Replays the access history of blocks reloaded by a warm start
+    * to the replacement policy, in the specified order.
+    * Blocks that have been pinned or replaced since they were read are skipped.
+    * @param entries the reloaded blocks, from the least to the most recently used
+    * @return the number of blocks whose history was restored
+    */
+   int restoreHistory(List<WarmStart.Entry> entries) {
+      int count = 0;
+      lock.lock();
+      try {
+         accesses.drain(this);
+         for (WarmStart.Entry e : entries) {
+            Buffer buff = bufferPoolMap.get(e.blk);
+            if (buff == null || buff.isPinned() || buff.isBusy()
+                  || !e.blk.equals(buff.block()) || buff.lastAccess() != 0)
+               continue;
+            policy.restore(buff, e.refs);
+            buff.setLastAccess(++accessClock);
+            count++;
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      return count;
+   }
+
+   /**
+    * Reads the specified blocks of a file into the pool asynchronously.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    * @param ring the ring of the scan that will read the blocks, or null
+    */
+   void prefetch(String filename, int blknum, int count, BufferRing ring) {
+      prefetcher.prefetch(filename, blknum, count, ring);
+   }
+
+   /**
+    * Returns the prefetcher of this pool.
+    * @return the prefetcher
+    */
+   Prefetcher prefetcher() {
+      return prefetcher;
+   }
+
+   /**
+    * Returns the number of buffer slots in the pool.
+    * @return the size of the pool
+    */
+   int size() {
+      return numbuffs;
+   }
+
+   /**
+    * Changes the number of buffer slots in the pool.
+    * Growing the pool adds empty slots, and wakes the
+    * threads waiting for a buffer.
+    * Shrinking the pool removes empty slots first,
+    * then buffers that hold no block,
+    * and then unpinned buffers chosen by the replacement policy,
+    * which are written to disk if they are dirty.
+    * Pinned buffers are never removed, so the pool
+    * may remain larger than requested.
+    * If a buffer cannot be written, it and the buffers
+    * not yet written stay in the pool, and the exception is rethrown.
+    * @param size the requested number of buffer slots
+    * @return the resulting number of buffer slots
+    */
+   int resize(int size) {
+      size = Math.max(1, size);
+      List<Buffer> removed = new ArrayList<>();
+      int result;
+      lock.lock();
+      try {
+         if (size >= numbuffs) {
+            int added = size - numbuffs;
+            numbuffs = size;
+            newBuffers += added;
+            numAvailable.addAndGet(added);
+            arena.ensureCapacity(size);
+            policy.resize(size);
+            releases.incrementAndGet();
+            bufferFreed.signalAll();
+            return numbuffs;
+         }
+         accesses.drain(this);
+         int excess = Math.min(numbuffs - size, newBuffers);
+         newBuffers -= excess;
+         numAvailable.addAndGet(-excess);
+         numbuffs -= excess;
+         while (numbuffs > size && !freeBuffers.isEmpty()) {
+            retire(freeBuffers.poll());
+            numAvailable.decrementAndGet();
+            numbuffs--;
+         }
+         while (numbuffs > size && numAvailable.get() > 0) {
+            Buffer buff = claimVictim();
+            if (buff == null)
+               break;
+            policy.onEvict(buff);
+            if (buff.isPrefetched()) {
+               buff.setPrefetched(false);
+               prefetcher.recordWaste();
             }
+            if (buff.ring() != null)
+               buff.ring().remove(buff);
+            // the buffer keeps its mapping until it has been written
+            numAvailable.decrementAndGet();
+            numbuffs--;
+            removed.add(buff);
+         }
+         policy.resize(numbuffs);
+         result = numbuffs;
+      }
+      finally {
+         lock.unlock();
+      }
+      for (int i = 0; i < removed.size(); i++) {
+         Buffer buff = removed.get(i);
+         try {
+            buff.flush();
+         }
+         catch (RuntimeException e) {
+            // the buffers not yet written stay in the pool, with their blocks
+            restore(removed.subList(i, removed.size()));
+            throw e;
+         }
+         lock.lock();
+         try {
+            bufferPoolMap.remove(buff.block(), buff);
+            buff.clear();
+            retire(buff);
+            // waiting threads find that the buffer no longer holds their block
+            buff.setBusy(false);
+         }
+         finally {
+            lock.unlock();
          }
       }
-      Block res;
-      if (infiCount >= 1) {
-         res = unpinnedBufferBlockList.get(LRUIndex);
+      return result;
+   }
+
+   /**
+    * Returns buffers that a shrinking of the pool could not write
+    * to the pool, as unpinned buffers that still hold their blocks,
+    * and wakes the threads waiting for them.
+    */
+   private void restore(List<Buffer> buffs) {
+      lock.lock();
+      try {
+         for (Buffer buff : buffs) {
+            numbuffs++;
+            policy.onUnpin(buff);
+            buff.unclaim(0);
+            numAvailable.incrementAndGet();
+            buff.setBusy(false);
+         }
+         policy.resize(numbuffs);
+         releases.incrementAndGet();
+         bufferFreed.signalAll();
       }
-      else {
-         res = unpinnedBufferBlockList.get(LRU2Index);
+      finally {
+         lock.unlock();
       }
-      return res;
+   }
+
+   /**
+    * Removes the specified buffer from the pool,
+    * releasing its frame number.
+    * Must be called with the replacement lock held.
+    */
+   private void retire(Buffer buff) {
+      buffers.remove(buff);
+      usedFrames.clear(buff.frame());
    }
 
 
    /**
-    * Used to for testing. Just show all blocks in the buffer pool.
+    * Used to for testing. Just show all blocks in the buffer pool,
+    * in the log at level FINE.
     * @author Guanxu Yu
     */
 
-   public synchronized void showBuffer() {
-      for (Block blk : bufferPoolMap.keySet()) {
+   public void showBuffer() {
+      if (!log.isLoggable(Level.FINE))
+         return;
+      for (Map.Entry<Block, Buffer> entry : bufferPoolMap.entrySet()) {
+         Block blk = entry.getKey();
 
-         System.out.println("=======================");
-         System.out.println("Show block in buffer");
-         System.out.println("Filename: " + blk.fileName());
-         System.out.println("Block Num: " + blk.number());
-         System.out.println("Is pinned? : " + bufferPoolMap.get(blk).isPinned());
+         log.fine("=======================\n"
+                  + "Show block in buffer\n"
+                  + "Filename: " + blk.fileName() + "\n"
+                  + "Block Num: " + blk.number() + "\n"
+                  + "Is pinned? : " + entry.getValue().isPinned());
       }
    }
 }
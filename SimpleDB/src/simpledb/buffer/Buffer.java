@@ -2,7 +2,9 @@ package simpledb.buffer;
 
 import simpledb.server.SimpleDB;
 import simpledb.file.*;
-import java.nio.ByteBuffer;
+import simpledb.log.LogWriter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * An individual buffer.
@@ -12,27 +14,28 @@ import java.nio.ByteBuffer;
  * whether the contents of the page have been modified,
  * and if so, the id of the modifying transaction and
  * the LSN of the corresponding log record.
+ * The page is a view of the buffer's frame in the pool's
+ * {@link BufferArena arena}, which also holds the pin count,
+ * the modifying transaction and the LSN of the frame.
  * @author Edward Sciore
  */
 public class Buffer {
-   private Page contents = new Page();
+   private Page contents;
    private Block blk = null;
-   private int pins = 0;
-   private int modifiedBy = -1;  // negative means not modified
-   private int logSequenceNumber = -1; // negative means no corresponding log record
-   /**
-    * Add two variables to record last/second last access time,
-    * initialized to infinity
-    * @author Yuchen Sun
-    */
-   private long lastAccessTime = Long.MAX_VALUE;
-   private long secLastAccessTime = Long.MAX_VALUE;
+   private int frame;
+   private BufferArena.Slab slab; // holds the pin count, modifier and LSN of the frame
+   private int index;             // the position of the frame in its slab
+   private DirtyPageTable dirtyPages;
+   private volatile boolean busy = false; // true while the page is being flushed or read
+   private volatile boolean prefetched = false; // true until a prefetched page is first pinned
+   private BufferRing ring = null; // the scan-private ring that the buffer belongs to
 
    /**
     * Creates a new buffer, wrapping a new 
     * {@link simpledb.file.Page page}.  
     * This constructor is called exclusively by the 
-    * class {@link BasicBufferMgr}.   
+    * class {@link BasicBufferMgr}, which numbers
+    * its buffers from 0.   
     * It depends on  the 
     * {@link simpledb.log.LogMgr LogMgr} object 
     * that it gets from the class
@@ -41,8 +44,22 @@ public class Buffer {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The page of the buffer is a view of its frame in the arena.
+    * The new buffer is claimed by the caller (see {@link #claim()}).
+    * @param frame the number of the buffer slot in the pool
+    * @param dirtyPages the pool's table of dirty buffers
+    * @param arena the memory of the pool
     */
-   public Buffer() {}
+   Buffer(int frame, DirtyPageTable dirtyPages, BufferArena arena) {
+      this.frame = frame;
+      this.dirtyPages = dirtyPages;
+      slab = arena.slab(frame);
+      index = frame - slab.first;
+      slab.pins.set(index, -1);
+      slab.modifiedBy.set(index, -1);
+      slab.lsn[index] = -1;
+      contents = new Page(arena.frameMemory(slab, frame));
+   }
    
    /**
     * Returns the integer value at the specified offset of the
@@ -68,6 +85,63 @@ public class Buffer {
       return contents.getString(offset);
    }
 
+   /**
+    * Returns the number of bytes taken by the string at the
+    * specified offset of the buffer's page.
+    * @param offset the byte offset of the page
+    * @return the size of the stored string
+    * @see Page#stringSize(int)
+    */
+   public int stringSize(int offset) {
+      return contents.stringSize(offset);
+   }
+
+   /**
+    * Writes the string at the specified offset of the buffer's page
+    * to a log record, copying its bytes without decoding it.
+    * @param offset the byte offset of the page
+    * @param w the writer of the log record
+    */
+   public void writeString(int offset, LogWriter w) {
+      w.writeString(contents, offset);
+   }
+
+   /**
+    * Compares the string at the specified offset of the
+    * buffer's page with a string of another buffer's page,
+    * without decoding them if possible.
+    * @param offset the byte offset of the page
+    * @param other the other buffer, which may be this buffer
+    * @param otheroffset the byte offset of the other buffer's page
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    * @see Page#compareString(int, Page, int)
+    */
+   public int compareString(int offset, Buffer other, int otheroffset) {
+      return contents.compareString(offset, other.contents, otheroffset);
+   }
+
+   /**
+    * Compares the string at the specified offset of the
+    * buffer's page with an encoded string.
+    * @param offset the byte offset of the page
+    * @param encoded a string encoded by {@link Page#encode(String)}
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    */
+   public int compareString(int offset, byte[] encoded) {
+      return contents.compareString(offset, encoded);
+   }
+
+   /**
+    * Returns true if the string at the specified offset of the
+    * buffer's page equals an encoded string.
+    * @param offset the byte offset of the page
+    * @param encoded a string encoded by {@link Page#encode(String)}
+    * @return true if the strings are equal
+    */
+   public boolean stringEquals(int offset, byte[] encoded) {
+      return contents.stringEquals(offset, encoded);
+   }
+
    /**
     * Writes an integer to the specified offset of the
     * buffer's page.
@@ -82,10 +156,10 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setInt(int offset, int val, int txnum, int lsn) {
-      modifiedBy = txnum;
+   public synchronized void setInt(int offset, int val, int txnum, long lsn) {
+      setModifiedBy(txnum);
       if (lsn >= 0)
-	      logSequenceNumber = lsn;
+	      slab.lsn[index] = lsn;
       contents.setInt(offset, val);
    }
 
@@ -103,10 +177,10 @@ public class Buffer {
     * @param txnum the id of the transaction performing the modification
     * @param lsn the LSN of the corresponding log record
     */
-   public void setString(int offset, String val, int txnum, int lsn) {
-      modifiedBy = txnum;
+   public synchronized void setString(int offset, String val, int txnum, long lsn) {
+      setModifiedBy(txnum);
       if (lsn >= 0)
-	      logSequenceNumber = lsn;
+	      slab.lsn[index] = lsn;
       contents.setString(offset, val);
    }
 
@@ -125,27 +199,189 @@ public class Buffer {
     * The method ensures that the corresponding log
     * record has been written to disk prior to writing
     * the page to disk.
+    * The log is flushed without holding the buffer's lock,
+    * since flushing the log may itself flush other buffers.
+    * An unpinned buffer may be pinned and modified meanwhile,
+    * so if its LSN has grown by the time the lock is taken again,
+    * the log is flushed again before the page is written.
     */
    void flush() {
-      if (modifiedBy >= 0) {
-         SimpleDB.logMgr().flush(logSequenceNumber);
-         contents.write(blk);
-         modifiedBy = -1;
+      long lsn = -1;
+      while (true) {
+         synchronized (this) {
+            if (slab.modifiedBy.get(index) < 0)
+               return;
+            if (slab.lsn[index] <= lsn) {
+               contents.write(blk);
+               setWritten();
+               return;
+            }
+            lsn = slab.lsn[index];
+         }
+         SimpleDB.logMgr().flush(lsn);
+      }
+   }
+
+   /**
+    * Starts writing the page to its disk block if the page is dirty,
+    * without waiting for the write to complete.
+    * As with {@link #flush()}, the log is first flushed to the
+    * page's LSN.  The file manager writes a copy of the page,
+    * so the buffer can be reassigned at once; until the write
+    * completes, a read of the block waits for it,
+    * and so does forcing the file.
+    */
+   void writeBack() {
+      long lsn = -1;
+      while (true) {
+         synchronized (this) {
+            if (slab.modifiedBy.get(index) < 0)
+               return;
+            if (slab.lsn[index] <= lsn) {
+               contents.writeAsync(blk);
+               setWritten();
+               return;
+            }
+            lsn = slab.lsn[index];
+         }
+         SimpleDB.logMgr().flush(lsn);
+      }
+   }
+
+   /**
+    * Writes buffers that hold consecutive blocks of a file
+    * to disk with a single I/O.
+    * The buffers are locked in block order, so that two threads
+    * writing overlapping runs cannot deadlock, and the log is
+    * flushed to the largest LSN of the run first.
+    * A buffer that has been cleaned, or reassigned to another block,
+    * since the run was formed is skipped, which splits the run.
+    * @param run dirty buffers, in increasing block order
+    */
+   static void flushRun(List<Buffer> run) {
+      Block first = run.get(0).blk;
+      if (first != null)
+         lockAndWrite(run, 0, first);
+   }
+
+   private static void lockAndWrite(List<Buffer> run, int i, Block first) {
+      if (i < run.size()) {
+         synchronized (run.get(i)) {
+            lockAndWrite(run, i + 1, first);
+         }
+         return;
+      }
+      // every buffer of the run is locked
+      long lsn = -1;
+      for (Buffer buff : run)
+         lsn = Math.max(lsn, buff.slab.lsn[buff.index]);
+      // the log manager does not use the buffer pool, so this cannot deadlock
+      SimpleDB.logMgr().flush(lsn);
+      int start = 0;
+      for (int j = 0; j <= run.size(); j++) {
+         boolean inRun = j < run.size() && run.get(j).isDirty()
+               && new Block(first.fileName(), first.number() + j).equals(run.get(j).blk);
+         if (inRun)
+            continue;
+         if (j > start) {
+            Page[] pages = new Page[j - start];
+            for (int k = start; k < j; k++)
+               pages[k - start] = run.get(k).contents;
+            Page.writeBlocks(run.get(start).blk, pages);
+            for (int k = start; k < j; k++)
+               run.get(k).setWritten();
+         }
+         start = j + 1;
       }
    }
 
    /**
-    * Increases the buffer's pin count.
+    * Reads consecutive blocks of a file into the specified buffers
+    * with a single I/O.
+    * Each buffer that is dirty is first written back to its old block.
+    * The buffers must be busy, so that no other thread uses them.
+    * @param buffs the buffers, one per block
+    * @param first a reference to the block read into the first buffer
     */
-   void pin() {
-      pins++;
+   static void assignToBlocks(List<Buffer> buffs, Block first) {
+      Page.readBlocks(first, detachAll(buffs, first));
+   }
+
+   /**
+    * Starts reading consecutive blocks of a file into the specified
+    * buffers with a single I/O, as {@link #assignToBlocks} does,
+    * without waiting for the read to complete.
+    * The buffers must stay busy until the returned future completes.
+    * @param buffs the buffers, one per block
+    * @param first a reference to the block read into the first buffer
+    * @return a future that completes when the blocks have been read
+    */
+   static CompletableFuture<Void> assignToBlocksAsync(List<Buffer> buffs, Block first) {
+      return Page.readBlocksAsync(first, detachAll(buffs, first));
+   }
+
+   private static Page[] detachAll(List<Buffer> buffs, Block first) {
+      Page[] pages = new Page[buffs.size()];
+      for (int i = 0; i < pages.length; i++) {
+         Buffer buff = buffs.get(i);
+         buff.writeBack();
+         synchronized (buff) {
+            buff.blk = new Block(first.fileName(), first.number() + i);
+         }
+         pages[i] = buff.contents;
+      }
+      return pages;
+   }
+
+   /**
+    * Increases the buffer's pin count, unless the buffer is claimed.
+    * A buffer that is already in the pool is pinned this way,
+    * without the replacement lock.
+    * @return the previous pin count, or -1 if the buffer is claimed
+    */
+   int tryPin() {
+      while (true) {
+         int pins = slab.pins.get(index);
+         if (pins < 0)
+            return -1;
+         if (slab.pins.compareAndSet(index, pins, pins + 1))
+            return pins;
+      }
    }
 
    /**
     * Decreases the buffer's pin count.
+    * @return the new pin count
     */
-   void unpin() {
-      pins--;
+   int unpin() {
+      return slab.pins.decrementAndGet(index);
+   }
+
+   /**
+    * Claims an unpinned buffer, so that it can be reassigned:
+    * its pin count becomes -1, which no pin can increase.
+    * A free buffer, and one that is being assigned to a block,
+    * stay claimed until {@link #unclaim(int)} is called.
+    * @return false if the buffer is pinned or already claimed
+    */
+   boolean claim() {
+      return slab.pins.compareAndSet(index, 0, -1);
+   }
+
+   /**
+    * Ends the claim on a buffer that has been assigned to its block.
+    * @param pins the pin count of the buffer: 1 if it was loaded for a pin, else 0
+    */
+   void unclaim(int pins) {
+      slab.pins.set(index, pins);
+   }
+
+   /**
+    * Returns the pin count of the buffer, or -1 if it is claimed.
+    * @return the pin count
+    */
+   int pinCount() {
+      return slab.pins.get(index);
    }
 
    /**
@@ -153,8 +389,89 @@ public class Buffer {
     * (that is, if it has a nonzero pin count).
     * @return true if the buffer is pinned
     */
-   boolean isPinned() {
-      return pins > 0;
+   public boolean isPinned() {
+      return slab.pins.get(index) > 0;
+   }
+
+   /**
+    * Returns true if the buffer is being assigned to a block,
+    * in which case its page cannot be used yet.
+    * @return true if the buffer is busy
+    */
+   boolean isBusy() {
+      return busy;
+   }
+
+   /**
+    * Marks the buffer as busy or ready.
+    * When the buffer becomes ready, the threads
+    * waiting for it are woken.
+    * @param busy true if the buffer is being assigned to a block
+    */
+   synchronized void setBusy(boolean busy) {
+      this.busy = busy;
+      if (!busy)
+         notifyAll();
+   }
+
+   /**
+    * Waits until the buffer is no longer busy.
+    */
+   synchronized void waitUntilReady() {
+      try {
+         while (busy)
+            wait();
+      }
+      catch (InterruptedException e) {
+         throw new BufferAbortException();
+      }
+   }
+
+   /**
+    * Returns true if the buffer was read ahead by the
+    * {@link Prefetcher} and has not been pinned since.
+    * Set and cleared with the buffer manager's replacement lock held.
+    * @return true if the buffer holds an unused prefetched page
+    */
+   boolean isPrefetched() {
+      return prefetched;
+   }
+
+   /**
+    * Marks the buffer as holding a prefetched page that
+    * has not been pinned yet, or clears that mark.
+    * @param prefetched true if the page has just been read ahead
+    */
+   void setPrefetched(boolean prefetched) {
+      this.prefetched = prefetched;
+   }
+
+   /**
+    * Returns the time at which the buffer was last pinned,
+    * according to the buffer manager's logical clock,
+    * as of the last time the pins were passed to the replacement policy.
+    * Guarded by the buffer manager's replacement lock.
+    * @return the last access time, or 0 if the block has not been pinned
+    */
+   long lastAccess() {
+      return slab.lastAccess[index];
+   }
+
+   void setLastAccess(long time) {
+      slab.lastAccess[index] = time;
+   }
+
+   /**
+    * Returns the ring that the buffer belongs to.
+    * Guarded by the buffer manager's replacement lock.
+    * @return the buffer's ring, or null if it belongs only to the shared pool
+    */
+   BufferRing ring() {
+      return ring;
+   }
+
+   void setRing(BufferRing ring) {
+      this.ring = ring;
    }
 
    /**
@@ -164,76 +481,98 @@ public class Buffer {
     * @return true if the transaction modified the buffer
     */
    boolean isModifiedBy(int txnum) {
-      return txnum == modifiedBy;
+      return txnum == slab.modifiedBy.get(index);
+   }
+
+   /**
+    * Returns true if the buffer has been modified
+    * since it was last written to disk.
+    * @return true if the buffer is dirty
+    */
+   boolean isDirty() {
+      return slab.modifiedBy.get(index) >= 0;
    }
 
    /**
     * Reads the contents of the specified block into
     * the buffer's page.
     * If the buffer was dirty, then the contents
-    * of the previous page are first written to disk.
+    * of the previous page are first written back to disk,
+    * overlapping with the read.
     * @param b a reference to the data block
     */
    void assignToBlock(Block b) {
-      flush();
-      blk = b;
-      contents.read(blk);
-      pins = 0;
+      writeBack();
+      synchronized (this) {
+         blk = b;
+         contents.read(blk);
+      }
    }
 
    /**
     * Initializes the buffer's page according to the specified formatter,
     * and appends the page to the specified file.
     * If the buffer was dirty, then the contents
-    * of the previous page are first written to disk.
+    * of the previous page are first written back to disk.
     * @param filename the name of the file
     * @param fmtr a page formatter, used to initialize the page
     */
    void assignToNew(String filename, PageFormatter fmtr) {
-      flush();
-      fmtr.format(contents);
-      blk = contents.append(filename);
-      pins = 0;
+      writeBack();
+      synchronized (this) {
+         fmtr.format(contents);
+         blk = contents.append(filename);
+      }
    }
 
    /**
-    * Add a function updateAccessTime()
-    * Update access time when a buffer is pinned
-    * @author Yuchen Sun
+    * Detaches the buffer from its block,
+    * discarding any modifications.
+    * Called when the buffer could not be assigned to a new block.
     */
-   void updateAccessTime() {
-      //long timestamp = System.currentTimeMillis();
-      long timestamp = System.nanoTime();
-      secLastAccessTime = lastAccessTime;
-      lastAccessTime = timestamp;
+   synchronized void clear() {
+      blk = null;
+      setModifiedBy(-1);
+      slab.lsn[index] = -1;
    }
 
    /**
-    * Add a function getLastAccessTime()
-    * get lastAccessTime
-    * @author Yuchen Sun
+    * Records the transaction that modified the buffer,
+    * and keeps the pool's dirty page table up to date.
+    * @param txnum the id of the transaction, or -1 if the buffer is clean
     */
-   long getLastAccessTime() {
-      return lastAccessTime;
+   private void setModifiedBy(int txnum) {
+      int modifiedBy = slab.modifiedBy.get(index);
+      if (txnum == modifiedBy)
+         return;
+      if (txnum < 0)
+         dirtyPages.markClean(this, modifiedBy);
+      else
+         dirtyPages.markDirty(this, modifiedBy, txnum);
+      slab.modifiedBy.set(index, txnum);
    }
 
    /**
-    * Add a function getSecLastAccessTime()
-    * get secLastAccessTime
-    * @author Yuchen Sun
+    * Records that the page has been written to its block,
+    * so that the transaction that modified it forces the block's file.
+    * Called with the buffer's lock held.
     */
-   long getSecLastAccessTime() {
-      return secLastAccessTime;
+   private void setWritten() {
+      int modifiedBy = slab.modifiedBy.get(index);
+      if (modifiedBy < 0)
+         return;
+      dirtyPages.markWritten(this, blk, modifiedBy);
+      slab.modifiedBy.set(index, -1);
    }
 
    /**
-    * Add a function resetAccessTime()
-    * Reset access time to MAX_VALUE
-    * @author Yuchen Sun
+    * Returns the number of the buffer slot in the pool.
+    * Replacement policies use this number to index
+    * their per-buffer state.
+    * @return the frame number of the buffer
     */
-   void resetAccessTime() {
-      lastAccessTime = Long.MAX_VALUE;
-      secLastAccessTime = Long.MAX_VALUE;
+   public int frame() {
+      return frame;
    }
 
    /**
@@ -241,15 +580,8 @@ public class Buffer {
     * Returns the number of pins in the buffer
     */
    public int getPins() {
-      return pins;
-   }
-    /**
-     * DUSTIN WROTE THIS
-     * Returns contents of the page
-     */
-    public ByteBuffer getContents(){
-        return contents.getContents();
-    }
+      return Math.max(0, slab.pins.get(index));
+   }
 
 
 }
\ No newline at end of file
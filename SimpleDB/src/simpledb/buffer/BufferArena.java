@@ -0,0 +1,164 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The memory of the buffer pool.
+ * Instead of giving each buffer its own direct byte buffer,
+ * the pages of all buffers are carved out of a few large
+ * off-heap slabs, and each {@link simpledb.file.Page Page}
+ * of the pool is a view of one frame of a slab.
+ * A slab also holds the metadata of its frames
+ * (pin counts, modifying transactions, LSNs and access times)
+ * in parallel primitive arrays.
+ * <p>
+ * The arena grows by adding a slab when the pool grows;
+ * existing slabs never move, so a buffer can keep
+ * a reference to its slab.
+ * Slabs are not released when the pool shrinks;
+ * their frames are reused when it grows again.
+ * <p>
+ * By default the slabs are direct byte buffers.
+ * If a file is specified, the slabs are instead mapped from
+ * that file, which can be placed on a huge-page file system
+ * (such as hugetlbfs) so that the pool is backed by huge pages.
+ * The file is scratch space: it is truncated when the arena is
+ * created and deleted when the server exits.
+ */
+class BufferArena {
+   private static final long MAP_ALIGNMENT = 2 * 1024 * 1024; // the usual huge page size
+   private int frameSize;
+   private List<Slab> slabs = new ArrayList<>();
+   private int capacity = 0;
+   private FileChannel mapfile = null;
+   private long mapped = 0;
+
+   /**
+    * A contiguous region of the arena, holding the pages
+    * and metadata of consecutive frames.
+    */
+   static class Slab {
+      final int first;
+      final int count;
+      final ByteBuffer memory;
+      final AtomicIntegerArray pins;       // -1 while the frame is claimed or free
+      final AtomicIntegerArray modifiedBy; // negative means not modified
+      final long[] lsn;                    // guarded by the buffer's lock
+      final long[] lastAccess;             // guarded by the replacement lock
+
+      Slab(int first, int count, ByteBuffer memory) {
+         this.first = first;
+         this.count = count;
+         this.memory = memory;
+         pins = new AtomicIntegerArray(count);
+         modifiedBy = new AtomicIntegerArray(count);
+         lsn = new long[count];
+         lastAccess = new long[count];
+         for (int i = 0; i < count; i++) {
+            modifiedBy.set(i, -1);
+            lsn[i] = -1;
+         }
+      }
+   }
+
+   /**
+    * Creates an empty arena for frames of the specified size.
+    * @param frameSize the size of a page, in bytes
+    * @param filename the file to map the slabs from, or null to use direct memory
+    */
+   BufferArena(int frameSize, String filename) {
+      this.frameSize = frameSize;
+      if (filename != null && !filename.isEmpty()) {
+         try {
+            File f = new File(filename);
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            raf.setLength(0);
+            f.deleteOnExit();
+            mapfile = raf.getChannel();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot open buffer arena file " + filename);
+         }
+      }
+   }
+
+   /**
+    * Adds a slab if necessary, so that the arena
+    * has at least the specified number of frames.
+    * @param numframes the number of frames needed
+    * @return the number of frames in the arena
+    */
+   synchronized int ensureCapacity(int numframes) {
+      if (numframes <= capacity)
+         return capacity;
+      int count = numframes - capacity;
+      // a direct byte buffer cannot exceed 2GB
+      count = Math.min(count, Integer.MAX_VALUE / frameSize);
+      ByteBuffer memory;
+      if (mapfile == null)
+         memory = ByteBuffer.allocateDirect(count * frameSize);
+      else {
+         long size = roundUp((long) count * frameSize);
+         if (size > Integer.MAX_VALUE)
+            size -= MAP_ALIGNMENT;
+         try {
+            memory = mapfile.map(FileChannel.MapMode.READ_WRITE, mapped, size);
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot map the buffer arena");
+         }
+         mapped += size;
+         count = (int) (size / frameSize);
+      }
+      slabs.add(new Slab(capacity, count, memory));
+      capacity += count;
+      return (numframes > capacity) ? ensureCapacity(numframes) : capacity;
+   }
+
+   /**
+    * Returns the slab that holds the specified frame.
+    * @param frame the frame number
+    * @return the frame's slab
+    */
+   synchronized Slab slab(int frame) {
+      for (Slab s : slabs)
+         if (frame < s.first + s.count)
+            return s;
+      throw new IllegalArgumentException("frame " + frame + " is not in the arena");
+   }
+
+   /**
+    * Returns a view of the memory of the specified frame.
+    * The view has its own position and limit,
+    * but shares its contents with the slab.
+    * @param slab the frame's slab
+    * @param frame the frame number
+    * @return the frame's memory
+    */
+   ByteBuffer frameMemory(Slab slab, int frame) {
+      ByteBuffer bb = slab.memory.duplicate();
+      int offset = (frame - slab.first) * frameSize;
+      bb.position(offset);
+      bb.limit(offset + frameSize);
+      return bb.slice();
+   }
+
+   /**
+    * Returns the number of frames in the arena.
+    * @return the capacity of the arena
+    */
+   synchronized int capacity() {
+      return capacity;
+   }
+
+   private static long roundUp(long size) {
+      return (size + MAP_ALIGNMENT - 1) / MAP_ALIGNMENT * MAP_ALIGNMENT;
+   }
+}
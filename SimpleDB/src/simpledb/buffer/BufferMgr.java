@@ -1,6 +1,10 @@
 package simpledb.buffer;
 
 import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+import java.io.File;
+import java.util.Set;
 
 /**
  * The publicly-accessible buffer manager.
@@ -11,8 +15,10 @@ import simpledb.file.*;
  * will never return null.
  * If no buffers are currently available, then the
  * calling thread will be placed on a waiting list.
- * The waiting threads are removed from the list when 
- * a buffer becomes available.
+ * Each time a buffer becomes available, one waiting
+ * thread is removed from the list.
+ * None of the methods lock the whole buffer manager,
+ * so threads that pin different blocks do not wait for each other.
  * If a thread has been waiting for a buffer for an
  * excessive amount of time (currently, 10 seconds)
  * then a {@link BufferAbortException} is thrown.
@@ -21,6 +27,7 @@ import simpledb.file.*;
 public class BufferMgr {
    private static final long MAX_TIME = 10000; // 10 seconds
    private BasicBufferMgr bufferMgr;
+   private WarmStart warmStart;
    
    /**
     * Creates a new buffer manager having the specified 
@@ -33,10 +40,37 @@ public class BufferMgr {
     * Thus this constructor cannot be called until 
     * {@link simpledb.server.SimpleDB#initFileAndLogMgr(String)} or
     * is called first.
+    * The buffers are replaced according to the LRU(K=2) policy.
     * @param numbuffers the number of buffer slots to allocate
     */
    public BufferMgr(int numbuffers) {
-      bufferMgr = new BasicBufferMgr(numbuffers);
+      this(numbuffers, "lru2");
+   }
+
+   /**
+    * Creates a new buffer manager having the specified
+    * number of buffers and replacement policy.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @see ReplacementPolicy#create(String, int)
+    */
+   public BufferMgr(int numbuffers, String policyname) {
+      this(numbuffers, policyname, null);
+   }
+
+   /**
+    * Creates a new buffer manager whose pages are mapped
+    * from the specified file rather than allocated in direct memory.
+    * Placing the file on a huge-page file system
+    * backs the buffer pool with huge pages.
+    * @param numbuffers the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param arenafile the file to map the pages from, or null
+    * @see BufferArena
+    */
+   public BufferMgr(int numbuffers, String policyname, String arenafile) {
+      ReplacementPolicy policy = ReplacementPolicy.create(policyname, numbuffers);
+      bufferMgr = new BasicBufferMgr(numbuffers, policy, arenafile);
    }
    
    /**
@@ -47,13 +81,30 @@ public class BufferMgr {
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(Block blk) {
+   public Buffer pin(Block blk) {
+      return pin(blk, null);
+   }
+
+   /**
+    * Pins a buffer to the specified block on behalf of a scan
+    * that has a buffer ring.
+    * If the block is not in the pool, it is read into
+    * a buffer of the ring when the ring is full.
+    * @param blk a reference to a disk block
+    * @param ring the scan's ring, or null to use the shared pool
+    * @return the buffer pinned to that block
+    * @see BufferRing
+    */
+   public Buffer pin(Block blk, BufferRing ring) {
       try {
          long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pin(blk);
+         long released = bufferMgr.releases();
+         Buffer buff = bufferMgr.pin(blk, ring);
          while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pin(blk);
+            // wait for a release whenever the pin fails, even if buffers are counted available
+            bufferMgr.awaitRelease(released, remainingTime(timestamp));
+            released = bufferMgr.releases();
+            buff = bufferMgr.pin(blk, ring);
          }
          if (buff == null)
             throw new BufferAbortException();
@@ -73,13 +124,29 @@ public class BufferMgr {
     * @param fmtr the formatter used to initialize the page
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pinNew(String filename, PageFormatter fmtr) {
+   public Buffer pinNew(String filename, PageFormatter fmtr) {
+      return pinNew(filename, fmtr, null);
+   }
+
+   /**
+    * Pins a buffer to a new block in the specified file
+    * on behalf of a scan that has a buffer ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the page
+    * @param ring the scan's ring, or null to use the shared pool
+    * @return the buffer pinned to that block
+    * @see BufferRing
+    */
+   public Buffer pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
       try {
          long timestamp = System.currentTimeMillis();
-         Buffer buff = bufferMgr.pinNew(filename, fmtr);
+         long released = bufferMgr.releases();
+         Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
          while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = bufferMgr.pinNew(filename, fmtr);
+            // wait for a release whenever the pin fails, even if buffers are counted available
+            bufferMgr.awaitRelease(released, remainingTime(timestamp));
+            released = bufferMgr.releases();
+            buff = bufferMgr.pinNew(filename, fmtr, ring);
          }
          if (buff == null)
             throw new BufferAbortException();
@@ -93,22 +160,21 @@ public class BufferMgr {
    /**
     * Unpins the specified buffer. 
     * If the buffer's pin count becomes 0,
-    * then the threads on the wait list are notified.
+    * then one thread on the wait list is notified.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
+   public void unpin(Buffer buff) {
       bufferMgr.unpin(buff);
-      if (!buff.isPinned())
-         notifyAll();
    }
 
 
    /**
     *  This function is used for testing. It shows all blocks in the buffer pool
+    *  in the log, at level FINE
     *
     *  @author Guanxu Yu
     */
-   public synchronized void showBuffer() {
+   public void showBuffer() {
       bufferMgr.showBuffer();
    }
 
@@ -119,7 +185,7 @@ public class BufferMgr {
     *   @paramblk the block to use as a key
     *   @return true if there is a mapping;   false otherwise
     */
-   public synchronized boolean containsMapping (Block blk) {
+   public boolean containsMapping (Block blk) {
       return bufferMgr.containsMapping(blk);
    }
 
@@ -137,11 +203,32 @@ public class BufferMgr {
    /**
     * Flushes the dirty buffers modified by the specified transaction.
     * @param txnum the transaction's id number
+    * @return the files that the transaction's pages have been written to,
+    *         and that must be forced before it commits
     */
-   public void flushAll(int txnum) {
-      bufferMgr.flushAll(txnum);
+   public Set<String> flushAll(int txnum) {
+      return bufferMgr.flushAll(txnum);
+   }
+
+   /**
+    * Writes the specified buffer to disk, if it has been modified.
+    * @param buff a buffer of the pool
+    */
+   public void flush(Buffer buff) {
+      buff.flush();
    }
    
+   /**
+    * Empties the buffers that hold blocks of the specified file,
+    * without writing them to disk.
+    * Called before a temporary file is deleted;
+    * no block of the file may be pinned.
+    * @param filename the name of the file
+    */
+   public void discard(String filename) {
+      bufferMgr.discard(filename);
+   }
+
    /**
     * Returns the number of available (ie unpinned) buffers.
     * @return the number of available buffers
@@ -149,8 +236,243 @@ public class BufferMgr {
    public int available() {
       return bufferMgr.available();
    }
+
+   /**
+    * Starts a background thread that writes dirty unpinned
+    * buffers to disk, so that pins seldom have to write
+    * a dirty victim themselves.
+    * @param interval the time between rounds of the writer, in milliseconds
+    * @param target the number of clean unpinned buffers to keep available
+    * @see PageWriter
+    */
+   public void startPageWriter(long interval, int target) {
+      bufferMgr.startPageWriter(interval, target);
+   }
+
+   /**
+    * Returns the number of pages written by the background page writer.
+    * @return the number of pages written, or 0 if there is no writer
+    */
+   public long backgroundWrites() {
+      PageWriter pw = bufferMgr.pageWriter();
+      return (pw == null) ? 0 : pw.pagesWritten();
+   }
+
+   /**
+    * Returns the average number of pages per second written
+    * by the background page writer.
+    * @return the write rate, or 0 if there is no writer
+    */
+   public double backgroundWriteRate() {
+      PageWriter pw = bufferMgr.pageWriter();
+      return (pw == null) ? 0.0 : pw.writeRate();
+   }
+
+   /**
+    * Returns the number of dirty victims that a pin had
+    * to write to disk itself.
+    * @return the number of foreground eviction writes
+    */
+   public long evictionWrites() {
+      return bufferMgr.evictionWrites();
+   }
+
+   /**
+    * Reads the specified blocks of a file into the pool
+    * in the background, so that a scan which is about to
+    * pin them finds them already there.
+    * Only unpinned buffers are used, blocks beyond the end
+    * of the file are ignored, and nothing is read if
+    * prefetching is disabled.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    */
+   public void prefetch(String filename, int blknum, int count) {
+      bufferMgr.prefetch(filename, blknum, count, null);
+   }
+
+   /**
+    * Reads the specified blocks of a file in the background
+    * into the ring of the scan that is about to pin them.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    * @param ring the scan's ring, or null to use the shared pool
+    */
+   public void prefetch(String filename, int blknum, int count, BufferRing ring) {
+      bufferMgr.prefetch(filename, blknum, count, ring);
+   }
+
+   /**
+    * Creates an empty buffer ring of the specified capacity.
+    * @param capacity the maximum number of buffers in the ring
+    * @return the new ring
+    */
+   public BufferRing newRing(int capacity) {
+      return new BufferRing(bufferMgr, capacity);
+   }
+
+   /**
+    * Returns a buffer ring for a scan of the specified
+    * number of blocks, or null if the scan is small enough
+    * to go through the shared pool.
+    * A ring is used when the scan is larger than
+    * {@link SimpleDB#RING_THRESHOLD} percent of the pool;
+    * it holds {@link SimpleDB#RING_SIZE} buffers,
+    * but never more than a quarter of the pool.
+    * @param numblocks the estimated number of blocks the scan reads or writes
+    * @return a new ring, or null
+    */
+   public BufferRing scanRing(int numblocks) {
+      int poolsize = bufferMgr.size();
+      if (SimpleDB.RING_THRESHOLD <= 0 || numblocks * 100L <= (long) poolsize * SimpleDB.RING_THRESHOLD)
+         return null;
+      return newRing(Math.max(1, Math.min(SimpleDB.RING_SIZE, poolsize / 4)));
+   }
+
+   /**
+    * Sets the maximum number of blocks that are read ahead
+    * of a sequential scan.
+    * At most a quarter of the pool is used for read-ahead,
+    * whatever the window.
+    * @param window the prefetch window, or 0 to disable prefetching
+    * @see Prefetcher
+    */
+   public void setPrefetchWindow(int window) {
+      bufferMgr.prefetcher().setWindow(window);
+   }
+
+   /**
+    * Returns the number of blocks that have been read ahead.
+    * @return the number of prefetched blocks
+    */
+   public long prefetchesIssued() {
+      return bufferMgr.prefetcher().issued();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * pinned before being replaced.
+    * @return the number of prefetch hits
+    */
+   public long prefetchHits() {
+      return bufferMgr.prefetcher().hits();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * replaced without ever being pinned.
+    * @return the number of wasted prefetches
+    */
+   public long prefetchesWasted() {
+      return bufferMgr.prefetcher().wasted();
+   }
+
+   /**
+    * Returns the number of buffer slots in the pool.
+    * @return the size of the pool
+    */
+   public int size() {
+      return bufferMgr.size();
+   }
+
+   /**
+    * Grows or shrinks the pool to the specified number of buffers,
+    * while the system is running.
+    * Only unpinned buffers are removed when the pool shrinks;
+    * dirty ones are written to disk first.
+    * If too many buffers are pinned, the pool stays
+    * larger than requested, and the method can be called
+    * again once they have been unpinned.
+    * @param numbuffers the requested number of buffers
+    * @return the resulting number of buffers
+    */
+   public int resize(int numbuffers) {
+      return bufferMgr.resize(numbuffers);
+   }
+
+   /**
+    * Resizes the pool so that its pages occupy at most
+    * the specified number of bytes (but at least one page).
+    * @param bytes the memory budget of the pool
+    * @return the resulting number of buffers
+    * @see #resize(int)
+    */
+   public int setMemoryBudget(long bytes) {
+      return resize((int) Math.min(Integer.MAX_VALUE, bytes / Page.DISK_BLOCK_SIZE));
+   }
+
+   /**
+    * Changes the number of clean unpinned buffers
+    * that the background page writer keeps available.
+    * @param target the new target
+    */
+   public void setPageWriterTarget(int target) {
+      PageWriter pw = bufferMgr.pageWriter();
+      if (pw != null)
+         pw.setTarget(target);
+   }
+
+   /**
+    * Reloads the blocks that were resident in the pool when
+    * it was last dumped to the specified file, and then keeps
+    * dumping the pool to that file periodically and at exit.
+    * Should be called once, after recovery.
+    * @param dumpfile the file that holds the dump
+    * @param interval the time between dumps, in seconds; 0 dumps only at exit
+    * @return the number of blocks reloaded
+    * @see WarmStart
+    */
+   public int warmStart(File dumpfile, int interval) {
+      warmStart = new WarmStart(bufferMgr, dumpfile);
+      int count = warmStart.load();
+      warmStart.start(interval);
+      return count;
+   }
+
+   /**
+    * Dumps the resident blocks of the pool immediately.
+    * Does nothing unless {@link #warmStart(File, int)} has been called.
+    * @return the number of blocks saved
+    */
+   public int dumpResidentBlocks() {
+      return (warmStart == null) ? 0 : warmStart.dump();
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      return bufferMgr.hits();
+   }
+
+   /**
+    * Returns the number of pins that had to read their
+    * block into the pool.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      return bufferMgr.misses();
+   }
+
+   /**
+    * Returns the fraction of pins that found their block
+    * already in the pool.
+    * @return the buffer hit ratio
+    */
+   public double hitRatio() {
+      long h = hits(), m = misses();
+      return (h + m == 0) ? 0.0 : (double) h / (h + m);
+   }
    
    private boolean waitingTooLong(long starttime) {
       return System.currentTimeMillis() - starttime > MAX_TIME;
    }
+
+   private long remainingTime(long starttime) {
+      return Math.max(1, MAX_TIME - (System.currentTimeMillis() - starttime));
+   }
 }
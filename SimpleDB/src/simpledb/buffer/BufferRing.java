@@ -0,0 +1,106 @@
+package simpledb.buffer;
+
+/**
+ * A small private set of buffers, used by a large sequential
+ * scan or a bulk write so that it does not flood the shared pool.
+ * While the ring has fewer buffers than its capacity,
+ * a miss takes a buffer from the pool as usual and adds it to the ring.
+ * Once the ring is full, a miss reuses the next unpinned buffer
+ * of the ring, in round-robin order, so the scan keeps
+ * recycling the same few buffers instead of evicting the
+ * hot pages of other transactions.
+ * If every buffer of the ring is pinned, the miss is
+ * served by the pool's replacement policy.
+ * <p>
+ * A buffer of the ring remains part of the pool:
+ * other transactions can pin it, and the replacement policy
+ * can choose it as a victim, in which case it leaves the ring.
+ * All methods except {@link #release()} and {@link #capacity()}
+ * are called with the buffer manager's replacement lock held.
+ */
+public class BufferRing {
+   private BasicBufferMgr bufferMgr;
+   private Buffer[] members;
+   private int count = 0;
+   private int next = 0;
+
+   /**
+    * Creates an empty ring of the specified capacity.
+    * @param bufferMgr the buffer pool that the ring belongs to
+    * @param capacity the maximum number of buffers in the ring
+    */
+   BufferRing(BasicBufferMgr bufferMgr, int capacity) {
+      this.bufferMgr = bufferMgr;
+      members = new Buffer[Math.max(1, capacity)];
+   }
+
+   /**
+    * Returns the maximum number of buffers in the ring.
+    * @return the capacity of the ring
+    */
+   public int capacity() {
+      return members.length;
+   }
+
+   /**
+    * Returns the buffers of the ring to the shared pool.
+    * The blocks they hold stay in the pool.
+    * A scan releases its ring when it is closed.
+    */
+   public void release() {
+      bufferMgr.release(this);
+   }
+
+   boolean isFull() {
+      return count == members.length;
+   }
+
+   void add(Buffer buff) {
+      members[count++] = buff;
+      buff.setRing(this);
+   }
+
+   /**
+    * Removes the specified buffer from the ring,
+    * when the pool takes it for another block.
+    * @param buff a buffer of the ring
+    */
+   void remove(Buffer buff) {
+      for (int i = 0; i < count; i++)
+         if (members[i] == buff) {
+            members[i] = members[--count];
+            members[count] = null;
+            break;
+         }
+      buff.setRing(null);
+   }
+
+   /**
+    * Returns the next buffer of the ring that can be reassigned,
+    * or null if every buffer is pinned or busy.
+    * A prefetched page that has not been read yet is not reused,
+    * since the scan is about to pin it.
+    * @return an unpinned buffer of the ring
+    */
+   Buffer nextReusable() {
+      for (int i = 0; i < count; i++) {
+         Buffer buff = members[next];
+         next = (next + 1) % count;
+         if (!buff.isPinned() && !buff.isBusy() && !buff.isPrefetched())
+            return buff;
+      }
+      return null;
+   }
+
+   /**
+    * Removes every buffer from the ring.
+    */
+   void clear() {
+      for (int i = 0; i < count; i++) {
+         members[i].setRing(null);
+         members[i] = null;
+      }
+      count = 0;
+      next = 0;
+   }
+}
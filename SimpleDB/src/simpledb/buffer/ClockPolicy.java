@@ -0,0 +1,79 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * The CLOCK (second chance) replacement policy.
+ * Each buffer has a reference bit, which is set whenever
+ * the buffer is pinned.
+ * To choose a victim, a clock hand sweeps over the buffers,
+ * skipping pinned and busy buffers and clearing the reference bit of
+ * each unpinned buffer it passes;
+ * the first unpinned buffer whose bit is already clear is chosen.
+ */
+class ClockPolicy implements ReplacementPolicy {
+   private Buffer[] frames;
+   private boolean[] referenced;
+   private int hand = 0;
+
+   /**
+    * Creates a CLOCK policy for a pool of the specified size.
+    * @param numbuffs the number of buffer slots in the pool
+    */
+   ClockPolicy(int numbuffs) {
+      frames = new Buffer[numbuffs];
+      referenced = new boolean[numbuffs];
+   }
+
+   public void onPin(Buffer buff) {
+      frames[buff.frame()] = buff;
+      referenced[buff.frame()] = true;
+   }
+
+   public void onUnpin(Buffer buff) {
+      // a prefetched buffer may not have been pinned yet
+      frames[buff.frame()] = buff;
+   }
+
+   public void onSkip(Buffer buff) {
+      // the sweep passes over pinned buffers, and the pin sets the reference bit
+   }
+
+   public void onEvict(Buffer buff) {
+      // the buffer is registered again when it is next pinned or prefetched
+      frames[buff.frame()] = null;
+      referenced[buff.frame()] = false;
+   }
+
+   public Buffer chooseVictim() {
+      // two sweeps suffice: the first one clears every reference bit
+      for (int i = 0; i < 2 * frames.length; i++) {
+         Buffer buff = frames[hand];
+         int f = hand;
+         hand = (hand + 1) % frames.length;
+         // a busy buffer has already been chosen, and is being reassigned
+         if (buff == null || buff.isPinned() || buff.isBusy())
+            continue;
+         if (!referenced[f])
+            return buff;
+         referenced[f] = false;
+      }
+      return null;
+   }
+
+   public int references(Buffer buff) {
+      return referenced[buff.frame()] ? 2 : 1;
+   }
+
+   public void restore(Buffer buff, int refs) {
+      frames[buff.frame()] = buff;
+      referenced[buff.frame()] = refs > 1;
+   }
+
+   public void resize(int numbuffs) {
+      if (numbuffs <= frames.length)
+         return;
+      frames = Arrays.copyOf(frames, numbuffs);
+      referenced = Arrays.copyOf(referenced, numbuffs);
+   }
+}
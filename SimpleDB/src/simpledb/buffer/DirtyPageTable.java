@@ -0,0 +1,112 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table of dirty buffers, indexed by the transaction
+ * that modified them.
+ * A buffer is entered into the table when a transaction
+ * modifies it, moved when a different transaction modifies it,
+ * and removed when it is flushed (in particular, when it is evicted).
+ * Thus flushing the buffers of a transaction touches only the
+ * buffers that the transaction dirtied,
+ * instead of every buffer in the pool.
+ * The table also remembers the files that the pages of each
+ * transaction were written to, whether by the transaction's own flush
+ * or earlier, when a buffer was evicted or written by the page writer,
+ * so that a commit forces only those files.
+ */
+class DirtyPageTable {
+   private Map<Integer, Set<Buffer>> dirtyBuffers = new ConcurrentHashMap<>();
+   private Map<Integer, Set<String>> writtenFiles = new ConcurrentHashMap<>();
+
+   /**
+    * Records that the specified transaction has modified the buffer.
+    * @param buff the modified buffer
+    * @param oldtxnum the transaction that previously modified the buffer, or -1
+    * @param txnum the transaction that modified the buffer
+    */
+   void markDirty(Buffer buff, int oldtxnum, int txnum) {
+      if (oldtxnum == txnum)
+         return;
+      if (oldtxnum >= 0)
+         markClean(buff, oldtxnum);
+      dirtyBuffers.compute(txnum, (k, buffs) -> {
+         if (buffs == null)
+            buffs = new HashSet<Buffer>();
+         buffs.add(buff);
+         return buffs;
+      });
+   }
+
+   /**
+    * Records that the buffer is no longer dirty.
+    * @param buff the flushed buffer
+    * @param txnum the transaction that had modified the buffer
+    */
+   void markClean(Buffer buff, int txnum) {
+      dirtyBuffers.computeIfPresent(txnum, (k, buffs) -> {
+         buffs.remove(buff);
+         return buffs.isEmpty() ? null : buffs;
+      });
+   }
+
+   /**
+    * Records that the buffer has been written to the specified block,
+    * and is no longer dirty.
+    * @param buff the written buffer
+    * @param blk the block that the buffer was written to
+    * @param txnum the transaction that had modified the buffer
+    */
+   void markWritten(Buffer buff, Block blk, int txnum) {
+      markClean(buff, txnum);
+      writtenFiles.compute(txnum, (k, files) -> {
+         if (files == null)
+            files = new HashSet<String>();
+         files.add(blk.fileName());
+         return files;
+      });
+   }
+
+   /**
+    * Returns the files that the pages modified by the specified
+    * transaction have been written to since the last call,
+    * and forgets them.
+    * @param txnum the id of the transaction
+    * @return the names of the written files
+    */
+   Set<String> filesWrittenBy(int txnum) {
+      Set<String> files = writtenFiles.remove(txnum);
+      return (files == null) ? new HashSet<String>() : files;
+   }
+
+   /**
+    * Returns the buffers modified by the specified transaction,
+    * sorted by file name and then by block number,
+    * so that flushing them in order writes each file sequentially.
+    * @param txnum the id of the transaction
+    * @return the list of dirty buffers
+    */
+   List<Buffer> buffersModifiedBy(int txnum) {
+      List<Buffer> result = new ArrayList<Buffer>();
+      dirtyBuffers.computeIfPresent(txnum, (k, buffs) -> {
+         result.addAll(buffs);
+         return buffs;
+      });
+      if (result.size() < 2)
+         return result;
+      // sort on the blocks as they are now, since a buffer may be reassigned meanwhile
+      Map<Buffer, Block> blocks = new IdentityHashMap<Buffer, Block>();
+      for (Buffer buff : result)
+         blocks.put(buff, buff.block());
+      result.removeIf(buff -> blocks.get(buff) == null);
+      result.sort((b1, b2) -> {
+         Block blk1 = blocks.get(b1), blk2 = blocks.get(b2);
+         int cmp = blk1.fileName().compareTo(blk2.fileName());
+         return (cmp != 0) ? cmp : Integer.compare(blk1.number(), blk2.number());
+      });
+      return result;
+   }
+}
@@ -0,0 +1,150 @@
+package simpledb.buffer;
+
+import java.util.Arrays;
+
+/**
+ * The LRU(K=2) replacement policy.
+ * The policy records the last and second-last access time
+ * of each buffer, using a logical clock that ticks on every pin.
+ * The unpinned buffers are kept in an intrusive binary heap,
+ * so that a victim is found, and a re-pinned buffer removed,
+ * in O(log n) time.
+ * A buffer whose second-last access time is infinite
+ * (i.e. it has been accessed only once) always precedes
+ * a buffer with a finite backward K-distance;
+ * among such buffers the least recently used one comes first.
+ * The remaining buffers are ordered by their second-last access time.
+ */
+class LRU2Policy implements ReplacementPolicy {
+   private long accessClock = 0;
+   private long[] lastAccessTime;
+   private long[] secLastAccessTime;
+   private int[] heapPosition; // negative means not in the heap
+   private Buffer[] heap;
+   private int size = 0;
+
+   /**
+    * Creates an LRU(K=2) policy for a pool of the specified size.
+    * @param numbuffs the number of buffer slots in the pool
+    */
+   LRU2Policy(int numbuffs) {
+      lastAccessTime = new long[numbuffs];
+      secLastAccessTime = new long[numbuffs];
+      heapPosition = new int[numbuffs];
+      heap = new Buffer[numbuffs];
+      Arrays.fill(lastAccessTime, Long.MAX_VALUE);
+      Arrays.fill(secLastAccessTime, Long.MAX_VALUE);
+      Arrays.fill(heapPosition, -1);
+   }
+
+   public void onPin(Buffer buff) {
+      int f = buff.frame();
+      remove(f);
+      secLastAccessTime[f] = lastAccessTime[f];
+      lastAccessTime[f] = ++accessClock;
+   }
+
+   public void onUnpin(Buffer buff) {
+      int f = buff.frame();
+      if (heapPosition[f] >= 0)
+         return;
+      heap[size] = buff;
+      heapPosition[f] = size;
+      size++;
+      siftUp(size - 1);
+   }
+
+   public void onSkip(Buffer buff) {
+      remove(buff.frame());
+   }
+
+   public void onEvict(Buffer buff) {
+      int f = buff.frame();
+      remove(f);
+      lastAccessTime[f] = Long.MAX_VALUE;
+      secLastAccessTime[f] = Long.MAX_VALUE;
+   }
+
+   public Buffer chooseVictim() {
+      return (size == 0) ? null : heap[0];
+   }
+
+   public void resize(int numbuffs) {
+      int oldlen = heap.length;
+      if (numbuffs <= oldlen)
+         return;
+      lastAccessTime = Arrays.copyOf(lastAccessTime, numbuffs);
+      secLastAccessTime = Arrays.copyOf(secLastAccessTime, numbuffs);
+      heapPosition = Arrays.copyOf(heapPosition, numbuffs);
+      heap = Arrays.copyOf(heap, numbuffs);
+      Arrays.fill(lastAccessTime, oldlen, numbuffs, Long.MAX_VALUE);
+      Arrays.fill(secLastAccessTime, oldlen, numbuffs, Long.MAX_VALUE);
+      Arrays.fill(heapPosition, oldlen, numbuffs, -1);
+   }
+
+   public int references(Buffer buff) {
+      return (secLastAccessTime[buff.frame()] == Long.MAX_VALUE) ? 1 : 2;
+   }
+
+   private void remove(int f) {
+      int pos = heapPosition[f];
+      if (pos < 0)
+         return;
+      size--;
+      Buffer last = heap[size];
+      heap[size] = null;
+      heapPosition[f] = -1;
+      if (pos < size) {
+         place(last, pos);
+         siftDown(pos);
+         siftUp(heapPosition[last.frame()]);
+      }
+   }
+
+   private void siftUp(int pos) {
+      Buffer buff = heap[pos];
+      while (pos > 0) {
+         int parent = (pos - 1) / 2;
+         if (!precedes(buff, heap[parent]))
+            break;
+         place(heap[parent], pos);
+         pos = parent;
+      }
+      place(buff, pos);
+   }
+
+   private void siftDown(int pos) {
+      Buffer buff = heap[pos];
+      while (true) {
+         int child = 2 * pos + 1;
+         if (child >= size)
+            break;
+         if (child + 1 < size && precedes(heap[child + 1], heap[child]))
+            child++;
+         if (!precedes(heap[child], buff))
+            break;
+         place(heap[child], pos);
+         pos = child;
+      }
+      place(buff, pos);
+   }
+
+   private void place(Buffer buff, int pos) {
+      heap[pos] = buff;
+      heapPosition[buff.frame()] = pos;
+   }
+
+   /**
+    * Returns true if buffer b1 should be replaced before buffer b2.
+    */
+   private boolean precedes(Buffer b1, Buffer b2) {
+      int f1 = b1.frame(), f2 = b2.frame();
+      boolean inf1 = secLastAccessTime[f1] == Long.MAX_VALUE;
+      boolean inf2 = secLastAccessTime[f2] == Long.MAX_VALUE;
+      if (inf1 != inf2)
+         return inf1;
+      if (inf1)
+         return lastAccessTime[f1] < lastAccessTime[f2];
+      return secLastAccessTime[f1] < secLastAccessTime[f2];
+   }
+}
@@ -0,0 +1,105 @@
+package simpledb.buffer;
+
+/**
+ * The background page writer.
+ * The writer wakes up periodically, and whenever a pin had to
+ * write a dirty victim to disk itself.
+ * If fewer than the target number of unpinned buffers are clean,
+ * it writes dirty unpinned buffers to disk, in file and block order,
+ * until the target is met.
+ * Each write first flushes the log up to the buffer's LSN,
+ * so the write-ahead rule is respected.
+ * Thus a pin that needs a victim usually finds a clean one,
+ * and does not pay for the write.
+ */
+class PageWriter implements Runnable {
+   private BasicBufferMgr bufferMgr;
+   private long interval;
+   private volatile int target;
+   private volatile long rounds = 0, pagesWritten = 0;
+   private long starttime = System.currentTimeMillis();
+
+   /**
+    * Creates a page writer for the specified pool.
+    * @param bufferMgr the pool
+    * @param interval the time between rounds, in milliseconds
+    * @param target the number of clean unpinned buffers to keep available
+    */
+   PageWriter(BasicBufferMgr bufferMgr, long interval, int target) {
+      this.bufferMgr = bufferMgr;
+      this.interval = interval;
+      this.target = target;
+   }
+
+   /**
+    * Changes the number of clean unpinned buffers to keep available,
+    * as when the pool is resized.
+    * @param target the new target
+    */
+   void setTarget(int target) {
+      this.target = target;
+   }
+
+   /**
+    * Starts the page writer in a daemon thread.
+    */
+   void start() {
+      Thread t = new Thread(this, "simpledb-pagewriter");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   public void run() {
+      while (true) {
+         synchronized (this) {
+            try {
+               wait(interval);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+         }
+         try {
+            pagesWritten += bufferMgr.writeBehind(target);
+            rounds++;
+         }
+         catch (RuntimeException e) {
+            // the next round will try again
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Starts a round immediately.
+    */
+   synchronized void wakeUp() {
+      notify();
+   }
+
+   /**
+    * Returns the number of rounds the writer has made.
+    * @return the number of rounds
+    */
+   long rounds() {
+      return rounds;
+   }
+
+   /**
+    * Returns the number of pages the writer has written.
+    * @return the number of pages written
+    */
+   long pagesWritten() {
+      return pagesWritten;
+   }
+
+   /**
+    * Returns the average number of pages written per second
+    * since the writer was created.
+    * @return the write rate, in pages per second
+    */
+   double writeRate() {
+      long elapsed = Math.max(1, System.currentTimeMillis() - starttime);
+      return pagesWritten * 1000.0 / elapsed;
+   }
+}
@@ -0,0 +1,175 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads blocks into the buffer pool ahead of a sequential reader.
+ * The buffer manager reports each miss, and each pin of a
+ * prefetched block, to the prefetcher.
+ * When two consecutive blocks of a file have been requested,
+ * the file is assumed to be read sequentially, and the next
+ * blocks of the file (up to the prefetch window) are read
+ * asynchronously into unpinned buffers, through the file manager's
+ * I/O engine, so the requesting thread does not wait for them.
+ * A scan that knows which blocks it will read can instead
+ * ask for them explicitly.
+ * <p>
+ * The prefetcher remembers a single run per file,
+ * so two interleaved scans of the same file defeat the detection;
+ * they are then served by ordinary misses.
+ */
+class Prefetcher {
+   private BasicBufferMgr bufferMgr;
+   private volatile int window;
+   private Map<String, Run> runs = new ConcurrentHashMap<>();
+   private AtomicLong issued = new AtomicLong();
+   private AtomicLong hits = new AtomicLong();
+   private AtomicLong wasted = new AtomicLong();
+
+   /**
+    * The sequential run that was last observed in a file.
+    */
+   private static class Run {
+      int last = -1;        // the block most recently requested
+      int length = 0;       // the number of consecutive blocks requested
+      int prefetchedTo = -1; // the last block that has been prefetched
+   }
+
+   /**
+    * Creates a prefetcher for the specified buffer pool.
+    * @param bufferMgr the buffer pool
+    * @param window the maximum number of blocks to read ahead, or 0 to disable
+    */
+   Prefetcher(BasicBufferMgr bufferMgr, int window) {
+      this.bufferMgr = bufferMgr;
+      this.window = window;
+   }
+
+   /**
+    * Records that the specified block has been requested,
+    * and reads ahead if the request continues a sequential run.
+    * The blocks of a scan that has a ring are read into the ring,
+    * and the window is reduced to fit in it.
+    * @param blk the requested block
+    * @param ring the ring of the requesting scan, or null
+    */
+   void accessed(Block blk, BufferRing ring) {
+      // never let a single scan claim more than a quarter of the pool
+      int w = Math.min(window, bufferMgr.size() / 4);
+      if (ring != null)
+         w = Math.min(w, ring.capacity() - 1);
+      if (w <= 0)
+         return;
+      Run run = runs.computeIfAbsent(blk.fileName(), f -> new Run());
+      int start, end;
+      synchronized (run) {
+         int n = blk.number();
+         if (n == run.last + 1)
+            run.length++;
+         else {
+            run.length = 1;
+            run.prefetchedTo = n;
+         }
+         run.last = n;
+         // read the next window once half of the previous one has been consumed
+         if (run.length < 2 || run.prefetchedTo - n > w / 2)
+            return;
+         start = Math.max(run.prefetchedTo, n) + 1;
+         end = n + w;
+         run.prefetchedTo = end;
+      }
+      submit(blk.fileName(), start, end - start + 1, ring);
+   }
+
+   /**
+    * Reads the specified blocks of a file asynchronously.
+    * A subsequent sequential read beyond these blocks
+    * continues the read-ahead.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    * @param ring the ring of the scan that will read the blocks, or null
+    */
+   void prefetch(String filename, int blknum, int count, BufferRing ring) {
+      if (window <= 0 || count <= 0)
+         return;
+      Run run = runs.computeIfAbsent(filename, f -> new Run());
+      synchronized (run) {
+         run.last = blknum - 1;
+         run.length = 1;
+         run.prefetchedTo = blknum + count - 1;
+      }
+      submit(filename, blknum, count, ring);
+   }
+
+   private void submit(String filename, int blknum, int count, BufferRing ring) {
+      BasicBufferMgr.ReadRequest req = bufferMgr.claimForPrefetch(filename, blknum, count, ring);
+      if (req == null)
+         return;
+      issued.addAndGet(req.size());
+      bufferMgr.loadPrefetched(req);
+   }
+
+   /**
+    * Forgets the sequential run of the specified file,
+    * which has been deleted.
+    * @param filename the name of the file
+    */
+   void forget(String filename) {
+      runs.remove(filename);
+   }
+
+   /**
+    * Sets the maximum number of blocks to read ahead.
+    * @param window the prefetch window, or 0 to disable prefetching
+    */
+   void setWindow(int window) {
+      this.window = window;
+   }
+
+   /**
+    * Returns the maximum number of blocks to read ahead.
+    * @return the prefetch window
+    */
+   int window() {
+      return window;
+   }
+
+   void recordHit() {
+      hits.incrementAndGet();
+   }
+
+   void recordWaste() {
+      wasted.incrementAndGet();
+   }
+
+   /**
+    * Returns the number of blocks read ahead.
+    * @return the number of prefetched blocks
+    */
+   long issued() {
+      return issued.get();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * pinned before being replaced.
+    * @return the number of prefetch hits
+    */
+   long hits() {
+      return hits.get();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * replaced without ever being pinned.
+    * @return the number of wasted prefetches
+    */
+   long wasted() {
+      return wasted.get();
+   }
+}
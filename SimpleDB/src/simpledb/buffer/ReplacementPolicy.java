@@ -0,0 +1,142 @@
+package simpledb.buffer;
+
+/**
+ * The interface implemented by buffer replacement policies.
+ * The buffer manager tells the policy about every pin,
+ * every unpin that leaves a buffer with a pin count of 0,
+ * and every eviction,
+ * and asks the policy to choose a victim when a block
+ * needs to be read into a full pool.
+ * Each buffer is identified by its frame number,
+ * which lies between 0 and the size of the pool;
+ * a policy may therefore keep its per-buffer state
+ * in arrays indexed by frame.
+ * <p>
+ * The policy used by the server is named by
+ * {@link simpledb.server.SimpleDB#BUFFER_POLICY}.
+ * The names "lru2", "clock", "2q" and "arc" denote the built-in policies;
+ * any other name is taken to be the name of a class that implements
+ * this interface and has a public constructor taking the pool size.
+ */
+public interface ReplacementPolicy {
+
+   /**
+    * Called whenever a buffer is pinned,
+    * after the buffer has been assigned to its block.
+    * @param buff the pinned buffer
+    */
+   void onPin(Buffer buff);
+
+   /**
+    * Called when the pin count of a buffer drops to 0,
+    * which makes the buffer a candidate for replacement.
+    * It is also called for a buffer whose block has been
+    * read ahead without being pinned;
+    * such a buffer has not been passed to {@link #onPin(Buffer)}
+    * since it was assigned to its block,
+    * and the read does not count as a reference to the block.
+    * @param buff the unpinned buffer
+    */
+   void onUnpin(Buffer buff);
+
+   /**
+    * Called when a buffer is about to be reassigned
+    * to a different block.
+    * The buffer still refers to its old block.
+    * @param buff the evicted buffer
+    */
+   void onEvict(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be replaced.
+    * The policy must not return a pinned buffer,
+    * nor a busy one that has already been chosen and
+    * is still being reassigned.
+    * @return the victim buffer, or null if every buffer is pinned
+    */
+   Buffer chooseVictim();
+
+   /**
+    * Called when a buffer returned by {@link #chooseVictim()}
+    * turns out to have been pinned since the policy last heard of it,
+    * so that the policy does not choose it again.
+    * The pin itself is passed to {@link #onPin(Buffer)} later,
+    * so this call must not count as a reference to the block.
+    * The default calls {@link #onPin(Buffer)}, which takes the buffer
+    * out of the candidates but may count the reference twice.
+    * @param buff the buffer that could not be replaced
+    */
+   default void onSkip(Buffer buff) {
+      onPin(buff);
+   }
+
+   /**
+    * Called when the size of the pool changes.
+    * Frame numbers always lie below the largest size
+    * that the pool has had, so a policy that keeps
+    * per-frame arrays grows them when the pool grows
+    * and need not shrink them.
+    * A buffer that is removed from a shrinking pool is
+    * first passed to {@link #onEvict(Buffer)}.
+    * @param numbuffs the new number of buffer slots in the pool
+    */
+   void resize(int numbuffs);
+
+   /**
+    * Returns a summary of the access history of a buffer,
+    * which is saved when the pool's resident blocks are dumped
+    * for a warm restart:
+    * 1 if the policy has seen one reference to its block,
+    * 2 if it has seen more (i.e. considers the block hot).
+    * The default returns 1.
+    * @param buff a resident buffer
+    * @return the number of references that the policy remembers
+    */
+   default int references(Buffer buff) {
+      return 1;
+   }
+
+   /**
+    * Re-creates the access history of a buffer whose block
+    * has been reloaded during a warm restart.
+    * The block has been read without a pin, and so has already
+    * been passed to {@link #onUnpin(Buffer)}.
+    * Buffers are restored from the least to the most recently used.
+    * The default replays the specified number of pins.
+    * @param buff the reloaded buffer, which is not pinned
+    * @param refs the number of references, as returned by {@link #references(Buffer)}
+    */
+   default void restore(Buffer buff, int refs) {
+      for (int i = 0; i < refs; i++)
+         onPin(buff);
+      onUnpin(buff);
+   }
+
+   /**
+    * Creates the replacement policy having the specified name,
+    * for a pool of the specified size.
+    * @param name the name of a built-in policy, or a class name
+    * @param numbuffs the number of buffer slots in the pool
+    * @return the new replacement policy
+    */
+   static ReplacementPolicy create(String name, int numbuffs) {
+      switch (name.toLowerCase()) {
+         case "lru2":
+            return new LRU2Policy(numbuffs);
+         case "clock":
+            return new ClockPolicy(numbuffs);
+         case "2q":
+            return new TwoQPolicy(numbuffs);
+         case "arc":
+            return new ARCPolicy(numbuffs);
+         default:
+            try {
+               Class<?> c = Class.forName(name);
+               return (ReplacementPolicy) c.getConstructor(int.class).newInstance(numbuffs);
+            }
+            catch (ReflectiveOperationException | ClassCastException e) {
+               throw new IllegalArgumentException("unknown buffer replacement policy " + name);
+            }
+      }
+   }
+}
@@ -7,7 +7,11 @@ import org.junit.Test;
 import simpledb.file.Block;
 import simpledb.server.SimpleDB;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
 
 
 /**
@@ -48,7 +52,7 @@ public class TestBufferMgr {
 
         BufferMgr bufferMgr = new SimpleDB().bufferMgr();
 
-        int allAvailableBufNum = 7;
+        int allAvailableBufNum = 8;
 
         int blocklen = 10;
 
@@ -58,8 +62,8 @@ public class TestBufferMgr {
         }
 
         System.out.println("================== Start Test Available buffer numbers =========================");
-        // After initialization stage, logMgr occupies one buffer from buffer pool. So there should be 7 buffers available.
-        assertEquals(7, bufferMgr.available());
+        // The log manager has its own log buffer, so after initialization all 8 buffers are available.
+        assertEquals(8, bufferMgr.available());
         System.out.println("Now available buffer number is: " + bufferMgr.available());
         System.out.println("================== End Test Available buffer numbers =========================");
         System.out.println();
@@ -158,4 +162,90 @@ public class TestBufferMgr {
         System.out.println("================== End Test Replacement Policy =========================");
     }
 
+    /**
+     * Pinning a block that is in the pool again is a hit:
+     * it returns the same buffer and reads nothing.
+     */
+    @Test
+    public void testPinHit() {
+        BufferMgr bufferMgr = new BufferMgr(4);
+        Block blk = new Block("testFile", 0);
+        Buffer buff = bufferMgr.pin(blk);
+        bufferMgr.unpin(buff);
+        assertEquals(1, bufferMgr.misses());
+        assertEquals(4, bufferMgr.available());
+
+        assertSame(buff, bufferMgr.pin(blk));
+        assertSame(buff, bufferMgr.pin(blk));
+        assertEquals(1, bufferMgr.misses());
+        assertEquals(2, bufferMgr.hits());
+        assertEquals(3, bufferMgr.available());
+        bufferMgr.unpin(buff);
+        bufferMgr.unpin(buff);
+        assertEquals(4, bufferMgr.available());
+    }
+
+    /**
+     * Threads pin and unpin more blocks than the pool holds, so that hits
+     * without the lock race with replacements.  A pinned buffer must keep
+     * its block until it is unpinned, and every buffer must be available
+     * at the end.
+     */
+    @Test
+    public void testConcurrentPins() throws InterruptedException {
+        BufferMgr bufferMgr = new BufferMgr(4);
+        AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int stride = 2 * t + 1;
+            threads[t] = new Thread(() -> {
+                int i = 0;
+                for (int j = 0; j < 20000; j++) {
+                    Block blk = new Block("testFile", i);
+                    Buffer buff = bufferMgr.pin(blk);
+                    if (!blk.equals(buff.block()))
+                        errors.incrementAndGet();
+                    Thread.yield();
+                    if (!blk.equals(buff.block()))
+                        errors.incrementAndGet();
+                    bufferMgr.unpin(buff);
+                    i = (i + stride) % 6;
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, errors.get());
+        assertEquals(4, bufferMgr.available());
+        assertTrue(bufferMgr.hits() > 0);
+    }
+
+    /**
+     * A pin that finds every buffer pinned waits, and is woken by the unpin
+     * that frees one.
+     */
+    @Test
+    public void testPinWaitsForUnpin() throws InterruptedException {
+        BufferMgr bufferMgr = new BufferMgr(2);
+        Buffer buff0 = bufferMgr.pin(new Block("testFile", 0));
+        bufferMgr.pin(new Block("testFile", 1));
+        Thread unpinner = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+            bufferMgr.unpin(buff0);
+        });
+        long start = System.currentTimeMillis();
+        unpinner.start();
+        Buffer buff = bufferMgr.pin(new Block("testFile", 2));
+        long elapsed = System.currentTimeMillis() - start;
+        unpinner.join();
+        assertSame(buff0, buff);
+        assertTrue(elapsed >= 200 && elapsed < 5000);
+    }
 }
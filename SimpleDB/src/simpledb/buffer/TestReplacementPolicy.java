@@ -0,0 +1,182 @@
+package simpledb.buffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the victim order of the replacement policies.
+ *
+ * The policies are driven directly, as the buffer manager drives them:
+ * a pin is passed to onPin and, when the pin count drops to 0, to onUnpin.
+ * The buffers are not assigned to blocks, so no database is needed.
+ *
+ * Each policy is also checked for the case where the buffer manager
+ * finds that the chosen victim has been pinned without the lock:
+ * onSkip must take the buffer out of the candidates without counting
+ * a reference, since the pin itself is passed to onPin later.
+ */
+public class TestReplacementPolicy {
+    private static final int POOL_SIZE = 4;
+    private Buffer[] buffs;
+
+    @Before
+    public void setUp() {
+        BufferArena arena = new BufferArena(400, null);
+        arena.ensureCapacity(POOL_SIZE);
+        DirtyPageTable dirtyPages = new DirtyPageTable();
+        buffs = new Buffer[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            buffs[i] = new Buffer(i, dirtyPages, arena);
+            buffs[i].unclaim(0);
+        }
+    }
+
+    /**
+     * Blocks referenced once are replaced first, least recently used first;
+     * then blocks by the time of their second-last reference.
+     */
+    @Test
+    public void testLRU2VictimOrder() {
+        ReplacementPolicy policy = new LRU2Policy(POOL_SIZE);
+        access(policy, 0, 1, 2, 3, 2, 1);
+        assertVictims(policy, 0, 3, 1, 2);
+    }
+
+    /**
+     * Buffer 0 is referenced once and buffer 1 twice, so 0 is the victim.
+     * It is pinned before it can be claimed, and is skipped.
+     * After the pin, 0 has been referenced at times 1 and 4, and 1 at 2 and 3,
+     * so 0 is again the victim; had the skip counted as a reference,
+     * 0 would look hotter than 1.
+     */
+    @Test
+    public void testLRU2Skip() {
+        ReplacementPolicy policy = new LRU2Policy(POOL_SIZE);
+        access(policy, 0, 1, 1);
+        assertSame(buffs[0], policy.chooseVictim());
+        skipAndPin(policy, 0);
+        assertSame(buffs[1], policy.chooseVictim());
+        unpin(policy, 0);
+        assertEquals(2, policy.references(buffs[0]));
+        assertVictims(policy, 0, 1);
+    }
+
+    /**
+     * A1in holds a quarter of the pool, so once it holds more,
+     * its oldest block is replaced before a hot block in Am.
+     */
+    @Test
+    public void testTwoQVictimOrder() {
+        ReplacementPolicy policy = new TwoQPolicy(POOL_SIZE);
+        makeHot(policy, 0);
+        access(policy, 1, 2, 3);
+        assertVictims(policy, 1, 2, 0, 3);
+    }
+
+    @Test
+    public void testTwoQSkip() {
+        ReplacementPolicy policy = new TwoQPolicy(POOL_SIZE);
+        access(policy, 0, 1);
+        assertSame(buffs[0], policy.chooseVictim());
+        skipAndPin(policy, 0);
+        assertSame(buffs[1], policy.chooseVictim());
+        unpin(policy, 0);
+        // a repeated reference in A1in is correlated, and leaves the buffer in place
+        assertEquals(1, policy.references(buffs[0]));
+        assertVictims(policy, 0, 1);
+    }
+
+    /**
+     * With no history, blocks referenced once (T1) are replaced
+     * before blocks referenced again (T2).
+     */
+    @Test
+    public void testARCVictimOrder() {
+        ReplacementPolicy policy = new ARCPolicy(POOL_SIZE);
+        access(policy, 0, 1, 2, 0, 3);
+        assertVictims(policy, 1, 2, 3, 0);
+    }
+
+    /**
+     * A read-ahead block that is pinned for the first time while it is being
+     * chosen has been referenced once, and stays in T1.
+     */
+    @Test
+    public void testARCSkip() {
+        ReplacementPolicy policy = new ARCPolicy(POOL_SIZE);
+        policy.onUnpin(buffs[0]);
+        assertSame(buffs[0], policy.chooseVictim());
+        skipAndPin(policy, 0);
+        assertNull(policy.chooseVictim());
+        unpin(policy, 0);
+        assertEquals(1, policy.references(buffs[0]));
+    }
+
+    /**
+     * The hand clears the reference bits as it passes,
+     * and skips pinned buffers.
+     */
+    @Test
+    public void testClockVictimOrder() {
+        ReplacementPolicy policy = new ClockPolicy(POOL_SIZE);
+        access(policy, 0, 1, 2, 3);
+        assertSame(buffs[0], policy.chooseVictim());
+        policy.onEvict(buffs[0]);
+        access(policy, 0);
+        buffs[1].tryPin();
+        policy.onSkip(buffs[1]);
+        assertSame(buffs[2], policy.chooseVictim());
+        buffs[1].unpin();
+    }
+
+    /**
+     * Pins and unpins the specified buffers in turn.
+     */
+    private void access(ReplacementPolicy policy, int... frames) {
+        for (int f : frames) {
+            policy.onPin(buffs[f]);
+            policy.onUnpin(buffs[f]);
+        }
+    }
+
+    /**
+     * Makes a buffer hot, as a warm start does.
+     */
+    private void makeHot(ReplacementPolicy policy, int f) {
+        policy.onUnpin(buffs[f]);
+        policy.restore(buffs[f], 2);
+    }
+
+    /**
+     * Does what the buffer manager does when a thread pins
+     * the chosen victim before it is claimed:
+     * the buffer is skipped, and the pin is passed to the policy later.
+     */
+    private void skipAndPin(ReplacementPolicy policy, int f) {
+        buffs[f].tryPin();
+        policy.onSkip(buffs[f]);
+        policy.onPin(buffs[f]);
+    }
+
+    private void unpin(ReplacementPolicy policy, int f) {
+        buffs[f].unpin();
+        policy.onUnpin(buffs[f]);
+    }
+
+    /**
+     * Checks that the policy chooses the specified victims in order,
+     * evicting each one, and then has no victim left.
+     */
+    private void assertVictims(ReplacementPolicy policy, int... frames) {
+        for (int f : frames) {
+            Buffer victim = policy.chooseVictim();
+            assertSame(buffs[f], victim);
+            policy.onEvict(victim);
+        }
+        assertNull(policy.chooseVictim());
+    }
+}
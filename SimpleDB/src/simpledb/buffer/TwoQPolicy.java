@@ -0,0 +1,174 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The 2Q replacement policy of Johnson and Shasha.
+ * A block that is read into the pool goes into the FIFO queue A1in.
+ * When a buffer leaves A1in, its block is remembered in the
+ * ghost queue A1out; if the block is requested again while it
+ * is remembered, it goes into the LRU queue Am of hot blocks.
+ * Thus a block referenced only once (such as a block of a
+ * large scan) never displaces the hot blocks in Am.
+ * A1in holds about a quarter of the pool, and A1out remembers
+ * about half as many blocks as the pool holds.
+ * <p>
+ * Each queue orders its buffers by a stamp: the time a buffer
+ * entered A1in, or the time it was last referenced in Am.
+ * Only unpinned buffers are kept in the queues:
+ * a buffer leaves its queue when it is pinned, and returns
+ * at the place of its stamp when it is unpinned,
+ * so the head of a queue is always a buffer that can be replaced.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+   private static final byte NONE = 0, A1IN = 1, AM = 2;
+   private byte[] queue;
+   private long[] stamp;
+   private long clock = 0;
+   private int a1inSize = 0, amSize = 0;   // including the pinned buffers
+   private TreeMap<Long,Buffer> a1in = new TreeMap<Long,Buffer>();
+   private TreeMap<Long,Buffer> am = new TreeMap<Long,Buffer>();
+   private LinkedHashSet<Block> a1out = new LinkedHashSet<Block>();
+   private int kin, kout;
+
+   /**
+    * Creates a 2Q policy for a pool of the specified size.
+    * @param numbuffs the number of buffer slots in the pool
+    */
+   TwoQPolicy(int numbuffs) {
+      queue = new byte[numbuffs];
+      stamp = new long[numbuffs];
+      kin = Math.max(1, numbuffs / 4);
+      kout = Math.max(1, numbuffs / 2);
+   }
+
+   public void onPin(Buffer buff) {
+      int f = buff.frame();
+      unlink(buff);
+      if (queue[f] == AM)
+         // move to the most recently used end
+         stamp[f] = ++clock;
+      else if (queue[f] == NONE)
+         enter(buff);
+      // a repeated reference while in A1in is treated as correlated
+   }
+
+   public void onUnpin(Buffer buff) {
+      int f = buff.frame();
+      // a prefetched block enters the pool without a pin;
+      // its first pin is then a correlated reference in A1in
+      if (queue[f] == NONE)
+         enter(buff);
+      queueOf(f).put(stamp[f], buff);
+   }
+
+   public void onSkip(Buffer buff) {
+      unlink(buff);
+   }
+
+   public void onEvict(Buffer buff) {
+      int f = buff.frame();
+      unlink(buff);
+      if (queue[f] == A1IN) {
+         a1inSize--;
+         a1out.add(buff.block());
+         if (a1out.size() > kout) {
+            Iterator<Block> iter = a1out.iterator();
+            iter.next();
+            iter.remove();
+         }
+      }
+      else if (queue[f] == AM)
+         amSize--;
+      queue[f] = NONE;
+   }
+
+   public Buffer chooseVictim() {
+      Buffer victim;
+      if (a1inSize > kin) {
+         victim = first(a1in);
+         if (victim == null)
+            victim = first(am);
+      }
+      else {
+         victim = first(am);
+         if (victim == null)
+            victim = first(a1in);
+      }
+      return victim;
+   }
+
+   public void resize(int numbuffs) {
+      if (numbuffs > queue.length) {
+         queue = Arrays.copyOf(queue, numbuffs);
+         stamp = Arrays.copyOf(stamp, numbuffs);
+      }
+      kin = Math.max(1, numbuffs / 4);
+      kout = Math.max(1, numbuffs / 2);
+      while (a1out.size() > kout) {
+         Iterator<Block> iter = a1out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+
+   public int references(Buffer buff) {
+      return (queue[buff.frame()] == AM) ? 2 : 1;
+   }
+
+   public void restore(Buffer buff, int refs) {
+      int f = buff.frame();
+      unlink(buff);
+      if (queue[f] == NONE)
+         enter(buff);
+      if (refs > 1 && queue[f] == A1IN) {
+         // the block was hot before the restart
+         a1inSize--;
+         amSize++;
+         queue[f] = AM;
+      }
+      // move to the most recent end of its queue
+      stamp[f] = ++clock;
+      queueOf(f).put(stamp[f], buff);
+   }
+
+   /**
+    * Adds a buffer that is in no queue to A1in,
+    * or to Am if its block is remembered in A1out.
+    */
+   private void enter(Buffer buff) {
+      int f = buff.frame();
+      if (a1out.remove(buff.block())) {
+         queue[f] = AM;
+         amSize++;
+      }
+      else {
+         queue[f] = A1IN;
+         a1inSize++;
+      }
+      stamp[f] = ++clock;
+   }
+
+   /**
+    * Takes a buffer out of the queue of unpinned buffers it is in, if any.
+    */
+   private void unlink(Buffer buff) {
+      int f = buff.frame();
+      if (queue[f] != NONE)
+         queueOf(f).remove(stamp[f], buff);
+   }
+
+   private TreeMap<Long,Buffer> queueOf(int f) {
+      return (queue[f] == AM) ? am : a1in;
+   }
+
+   private static Buffer first(TreeMap<Long,Buffer> q) {
+      Map.Entry<Long,Buffer> e = q.firstEntry();
+      return (e == null) ? null : e.getValue();
+   }
+}
@@ -0,0 +1,204 @@
+package simpledb.buffer;
+
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the set of resident blocks of the buffer pool,
+ * and reloads it when the server restarts,
+ * so that the pool does not start cold.
+ * <p>
+ * A dump lists the resident blocks of the pool, from the least
+ * to the most recently used, together with the number of references
+ * that the replacement policy remembers for each block.
+ * Blocks of temporary tables are not saved.
+ * The dump is written to a scratch file and then renamed,
+ * so that a crash during a dump leaves the previous one intact.
+ * <p>
+ * On startup, the most recently used blocks that fit in the pool
+ * are sorted by file and block number, grouped into runs of
+ * consecutive blocks, and read asynchronously, all runs at once,
+ * without pinning them.
+ * Once every block has been read, the access history of the blocks
+ * is replayed to the replacement policy in the order of the dump,
+ * so that hot blocks are again protected from scans.
+ * Blocks that have been pinned meanwhile keep their new history.
+ */
+class WarmStart {
+   private static final int MAX_RUN = 32;
+   private BasicBufferMgr bufferMgr;
+   private File dumpfile;
+   private Thread dumper;
+
+   /**
+    * A resident block, as recorded in a dump.
+    */
+   static class Entry {
+      final Block blk;
+      final int refs;
+      final long lastAccess;
+
+      Entry(Block blk, int refs, long lastAccess) {
+         this.blk = blk;
+         this.refs = refs;
+         this.lastAccess = lastAccess;
+      }
+   }
+
+   /**
+    * Creates a warm-start manager for the specified pool.
+    * @param bufferMgr the buffer pool
+    * @param dumpfile the file that holds the dump
+    */
+   WarmStart(BasicBufferMgr bufferMgr, File dumpfile) {
+      this.bufferMgr = bufferMgr;
+      this.dumpfile = dumpfile;
+   }
+
+   /**
+    * Writes the resident blocks of the pool to the dump file.
+    * @return the number of blocks saved
+    */
+   synchronized int dump() {
+      List<Entry> entries = bufferMgr.residentBlocks();
+      entries.removeIf(e -> e.blk.fileName().startsWith("temp"));
+      entries.sort(Comparator.comparingLong(e -> e.lastAccess));
+      File tmp = new File(dumpfile.getPath() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)))) {
+         out.writeInt(entries.size());
+         for (Entry e : entries) {
+            out.writeUTF(e.blk.fileName());
+            out.writeInt(e.blk.number());
+            out.writeByte(e.refs);
+         }
+      }
+      catch (IOException e) {
+         tmp.delete();
+         throw new RuntimeException("cannot write buffer pool dump " + tmp);
+      }
+      try {
+         Files.move(tmp.toPath(), dumpfile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot replace buffer pool dump " + dumpfile);
+      }
+      return entries.size();
+   }
+
+   /**
+    * Reads the blocks listed in the dump file into the pool,
+    * and restores their access history.
+    * Blocks of files that no longer exist, or that lie beyond
+    * the end of their file, are skipped.
+    * A missing or unreadable dump is ignored.
+    * @return the number of blocks reloaded
+    */
+   int load() {
+      List<Entry> entries = read();
+      // keep the hottest blocks, and leave a buffer for the first pin
+      int max = bufferMgr.size() - 1;
+      if (entries.size() > max)
+         entries = new ArrayList<>(entries.subList(entries.size() - Math.max(max, 0), entries.size()));
+      File dbdir = SimpleDB.fileMgr().directory();
+      entries.removeIf(e -> !new File(dbdir, e.blk.fileName()).exists()
+                            || e.blk.number() >= SimpleDB.fileMgr().size(e.blk.fileName()));
+      if (entries.isEmpty())
+         return 0;
+
+      List<Entry> sorted = new ArrayList<>(entries);
+      sorted.sort((e1, e2) -> {
+         int cmp = e1.blk.fileName().compareTo(e2.blk.fileName());
+         return (cmp != 0) ? cmp : Integer.compare(e1.blk.number(), e2.blk.number());
+      });
+      List<CompletableFuture<Void>> loads = new ArrayList<>();
+      int i = 0;
+      while (i < sorted.size()) {
+         Block first = sorted.get(i).blk;
+         int count = 1;
+         while (i + count < sorted.size() && count < MAX_RUN
+                && sorted.get(i + count).blk.fileName().equals(first.fileName())
+                && sorted.get(i + count).blk.number() == first.number() + count)
+            count++;
+         BasicBufferMgr.ReadRequest req =
+               bufferMgr.claimForPrefetch(first.fileName(), first.number(), count, null);
+         if (req != null) {
+            req.readAhead = false;
+            loads.add(bufferMgr.loadPrefetched(req));
+         }
+         i += count;
+      }
+      CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+      return bufferMgr.restoreHistory(entries);
+   }
+
+   /**
+    * Dumps the pool periodically, and when the server exits.
+    * @param interval the time between dumps, in seconds; 0 dumps only at exit
+    */
+   void start(int interval) {
+      Runtime.getRuntime().addShutdownHook(new Thread(this::dumpQuietly, "simpledb-pooldump-exit"));
+      if (interval <= 0)
+         return;
+      dumper = new Thread(() -> {
+         while (true) {
+            try {
+               Thread.sleep(TimeUnit.SECONDS.toMillis(interval));
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+            dumpQuietly();
+         }
+      }, "simpledb-pooldump");
+      dumper.setDaemon(true);
+      dumper.start();
+   }
+
+   private void dumpQuietly() {
+      try {
+         dump();
+      }
+      catch (RuntimeException e) {
+         // a failed dump only costs a cold start
+      }
+   }
+
+   private List<Entry> read() {
+      List<Entry> entries = new ArrayList<>();
+      if (!dumpfile.exists())
+         return entries;
+      try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(dumpfile)))) {
+         int n = in.readInt();
+         for (int i = 0; i < n; i++) {
+            String filename = in.readUTF();
+            int blknum = in.readInt();
+            int refs = in.readByte();
+            entries.add(new Entry(new Block(filename, blknum), refs, i));
+         }
+      }
+      catch (IOException e) {
+         // a truncated or corrupt dump is ignored
+         entries.clear();
+      }
+      return entries;
+   }
+}
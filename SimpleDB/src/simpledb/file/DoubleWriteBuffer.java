@@ -0,0 +1,425 @@
+package simpledb.file;
+
+import static simpledb.file.Page.BLOCK_SIZE;
+import static simpledb.file.Page.DISK_BLOCK_SIZE;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * The double-write buffer of a database that has checksums.
+ * Before blocks are written in place, copies of them are written
+ * to the file {@link #FILE} and forced to disk.
+ * If the system crashes while a block is being written in place,
+ * leaving it torn (partly old and partly new),
+ * its checksum no longer matches, and the block is restored
+ * from its copy when the database is next opened.
+ * <p>
+ * The file is divided into a fixed number of slots of
+ * {@link #SLOT_UNITS} blocks each.
+ * A write of a run of up to {@link #SLOT_BLOCKS} consecutive blocks
+ * adds an entry to the current slot: a header block that names the
+ * blocks and holds their checksums, followed by the copies.
+ * The writers that add entries at the same time share one force
+ * of the file, and then write their blocks in place.
+ * An in-place write is not durable until its file is forced,
+ * so an entry is kept until the file manager has forced its file;
+ * a slot is reused once all its entries have been released.
+ * When every slot is in use, the writer that needs one forces
+ * the files of the kept entries itself.
+ * <p>
+ * Each entry has a sequence number, so that when several entries
+ * hold copies of the same block, the newest one is used.
+ * A copy is only used to restore a block whose checksum is wrong,
+ * so the copies of blocks that were written completely are ignored.
+ * The entries are found by looking for headers at every block of a slot,
+ * so an entry is found even if the one before it was torn;
+ * an old header whose copies have since been overwritten
+ * is recognized by their checksums.
+ */
+class DoubleWriteBuffer {
+   static final String FILE = "simpledb.dblwr";
+   static final int SLOTS = 8;
+   static final int SLOT_BLOCKS = 32;
+   static final int SLOT_UNITS = 64;
+   private static final int MAGIC = 0x44425732;
+
+   /**
+    * The copies of a run of blocks, staged by {@link #stage}.
+    */
+   static class Entry {
+      final Slot slot;
+      final int unit;      // the first block of the entry in the slot
+      final String filename;
+
+      Entry(Slot slot, int unit, String filename) {
+         this.slot = slot;
+         this.unit = unit;
+         this.filename = filename;
+      }
+   }
+
+   private static class Slot {
+      final int index;
+      int used;            // the blocks of the slot taken by entries
+      int staging;         // the entries whose blocks are not yet written in place
+      // the entries written in place whose files have not been forced, per file
+      Map<String,Integer> unforced = new HashMap<String,Integer>();
+      boolean free = true;
+
+      Slot(int index) {
+         this.index = index;
+      }
+
+      boolean isIdle() {
+         return staging == 0 && unforced.isEmpty();
+      }
+   }
+
+   private FileMgr fileMgr;
+   private File dbDirectory;
+   private FileChannel fc;
+   private long slotSize;
+   private Slot[] slots = new Slot[SLOTS];
+   private Deque<Slot> freeSlots = new ArrayDeque<Slot>();
+   private Slot current;                 // the slot that entries are added to
+   private AtomicLong sequence = new AtomicLong();
+   private long written = 0;             // the number of entries whose copies have been written
+   private volatile long durable = 0;    // the entries up to this number are on disk
+   private final Object forceLock = new Object();
+   private AtomicLong forces = new AtomicLong();
+
+   /**
+    * Opens the double-write buffer of the specified database,
+    * creating it if necessary.
+    * @param fileMgr the file manager of the database
+    * @param dbDirectory the database directory
+    */
+   DoubleWriteBuffer(FileMgr fileMgr, File dbDirectory) {
+      this.fileMgr = fileMgr;
+      this.dbDirectory = dbDirectory;
+      slotSize = (long) SLOT_UNITS * DISK_BLOCK_SIZE;
+      try {
+         fc = new RandomAccessFile(new File(dbDirectory, FILE), "rw").getChannel();
+         if (fc.size() < SLOTS * slotSize) {
+            // preallocate the slots, so that forcing an entry never changes the file's size
+            ByteBuffer zeros = ByteBuffer.allocate((int) slotSize);
+            for (int slot = 0; slot < SLOTS; slot++) {
+               zeros.clear();
+               writeFully(zeros, slot * slotSize);
+            }
+            fc.force(true);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot open double-write buffer " + FILE);
+      }
+      for (int slot = 0; slot < SLOTS; slot++) {
+         slots[slot] = new Slot(slot);
+         freeSlots.add(slots[slot]);
+      }
+   }
+
+   /**
+    * Restores the torn blocks of the database from their copies.
+    * Called when the database is opened, before any block is read.
+    * @return the number of blocks restored
+    */
+   int recover() {
+      Map<Block,ByteBuffer> copies = new HashMap<Block,ByteBuffer>();
+      Map<Block,Long> versions = new HashMap<Block,Long>();
+      try {
+         ByteBuffer contents = ByteBuffer.allocate((int) slotSize);
+         for (int slot = 0; slot < SLOTS; slot++) {
+            contents.clear();
+            readFully(contents, slot * slotSize);
+            for (int unit = 0; unit < SLOT_UNITS; unit++) {
+               ByteBuffer header = unit(contents, unit);
+               if (header.getInt() != MAGIC)
+                  continue;
+               long seq = header.getLong();
+               int count = header.getInt();
+               int blknum = header.getInt();
+               int namelen = header.getShort();
+               if (count < 1 || count > SLOT_BLOCKS || unit + count >= SLOT_UNITS
+                     || namelen < 0 || 22 + namelen + 4 * count + 4 > DISK_BLOCK_SIZE)
+                  continue;
+               byte[] name = new byte[namelen];
+               header.get(name);
+               int[] sums = new int[count];
+               for (int i = 0; i < count; i++)
+                  sums[i] = header.getInt();
+               int end = header.position();
+               if (header.getInt() != checksum(header, end))
+                  continue;  // the header itself was torn
+               sequence.set(Math.max(sequence.get(), seq));
+               String filename = new String(name, StandardCharsets.UTF_8);
+               for (int i = 0; i < count; i++) {
+                  Block blk = new Block(filename, blknum + i);
+                  Long newest = versions.get(blk);
+                  if (newest != null && newest > seq)
+                     continue;
+                  ByteBuffer copy = unit(contents, unit + 1 + i);
+                  // a copy that has been overwritten by a later entry has another checksum
+                  if (FileMgr.isIntact(copy) && copy.getInt(BLOCK_SIZE) == sums[i]) {
+                     copies.put(blk, ByteBuffer.allocate(DISK_BLOCK_SIZE).put(copy));
+                     versions.put(blk, seq);
+                  }
+               }
+            }
+         }
+         int restored = 0;
+         ByteBuffer home = ByteBuffer.allocate(DISK_BLOCK_SIZE);
+         for (Map.Entry<Block,ByteBuffer> e : copies.entrySet()) {
+            Block blk = e.getKey();
+            if (!new File(dbDirectory, blk.fileName()).exists())
+               continue;
+            home.clear();
+            fileMgr.readFromChannel(blk, home);
+            if (FileMgr.isIntact(home))
+               continue;
+            fileMgr.writeToChannel(blk, e.getValue());
+            restored++;
+         }
+         if (restored > 0)
+            fileMgr.forceAll();
+         return restored;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot recover from double-write buffer " + FILE);
+      }
+   }
+
+   /**
+    * Writes copies of consecutive blocks to the buffer, and waits until they are on disk.
+    * The caller must then write the blocks in place,
+    * and call {@link #written(Entry)}, even if that write fails.
+    * @param start a reference to the first block
+    * @param blocks the contents of the blocks, with their checksums;
+    * at most {@link #SLOT_BLOCKS} of them
+    * @return the entry that holds the copies
+    */
+   Entry stage(Block start, ByteBuffer[] blocks) {
+      byte[] name = start.fileName().getBytes(StandardCharsets.UTF_8);
+      if (22 + name.length + 4 * blocks.length + 4 > DISK_BLOCK_SIZE)
+         throw new RuntimeException("cannot write " + start + " to the double-write buffer");
+      int units = blocks.length + 1;
+      Entry e = reserve(start.fileName(), units);
+      long ticket;
+      try {
+         long pos = e.slot.index * slotSize + (long) e.unit * DISK_BLOCK_SIZE;
+         ByteBuffer header = ByteBuffer.allocate(DISK_BLOCK_SIZE);
+         header.putInt(MAGIC);
+         header.putLong(sequence.incrementAndGet());
+         header.putInt(blocks.length);
+         header.putInt(start.number());
+         header.putShort((short) name.length);
+         header.put(name);
+         for (ByteBuffer bb : blocks)
+            header.putInt(bb.getInt(BLOCK_SIZE));
+         header.putInt(checksum(header, header.position()));
+         header.clear();
+         writeFully(header, pos);
+         for (int i = 0; i < blocks.length; i++) {
+            ByteBuffer copy = blocks[i].duplicate();
+            copy.clear();
+            writeFully(copy, pos + (long) (i + 1) * DISK_BLOCK_SIZE);
+         }
+         synchronized (this) {
+            ticket = ++written;
+         }
+         force(ticket);
+         return e;
+      }
+      catch (IOException | RuntimeException ex) {
+         discard(e);
+         throw new RuntimeException("cannot write " + start + " to the double-write buffer");
+      }
+   }
+
+   /**
+    * Records that the blocks of an entry have been written in place.
+    * The entry is kept until its file has been forced.
+    * @param e the entry returned by {@link #stage}
+    */
+   synchronized void written(Entry e) {
+      e.slot.staging--;
+      e.slot.unforced.merge(e.filename, 1, Integer::sum);
+      notifyAll();
+   }
+
+   /**
+    * Returns the number of entries of the specified file whose blocks
+    * have been written in place, per slot.
+    * The file manager calls this method before it forces the file,
+    * and passes the result to {@link #forced} after the force.
+    * @param filename the name of the file
+    * @return the numbers of entries, or null if there are none
+    */
+   synchronized int[] writtenEntries(String filename) {
+      int[] counts = null;
+      for (Slot s : slots) {
+         Integer n = s.unforced.get(filename);
+         if (n != null) {
+            if (counts == null)
+               counts = new int[SLOTS];
+            counts[s.index] = n;
+         }
+      }
+      return counts;
+   }
+
+   /**
+    * Releases the entries of a file that has been forced.
+    * @param filename the name of the file
+    * @param counts the numbers of entries returned by {@link #writtenEntries}
+    * before the force
+    */
+   synchronized void forced(String filename, int[] counts) {
+      for (Slot s : slots) {
+         Integer kept = s.unforced.get(filename);
+         if (counts[s.index] == 0 || kept == null)
+            continue;
+         int n = kept - counts[s.index];
+         if (n > 0)
+            s.unforced.put(filename, n);
+         else
+            s.unforced.remove(filename);
+         recycle(s);
+      }
+      notifyAll();
+   }
+
+   /**
+    * Returns the number of times the buffer has been forced.
+    * @return the number of forces
+    */
+   long forces() {
+      return forces.get();
+   }
+
+   /**
+    * Takes space for an entry of the specified number of blocks
+    * in the current slot, moving to a free slot if the current one is full.
+    * If no slot is free, the files whose entries are kept are forced,
+    * which releases them; if there are none, the method waits
+    * for the entries being written.
+    */
+   private Entry reserve(String filename, int units) {
+      while (true) {
+         Set<String> files = new LinkedHashSet<String>();
+         synchronized (this) {
+            if ((current == null || current.used + units > SLOT_UNITS) && !freeSlots.isEmpty()) {
+               Slot previous = current;
+               current = freeSlots.poll();
+               current.free = false;
+               current.used = 0;
+               if (previous != null)
+                  recycle(previous);
+            }
+            if (current != null && current.used + units <= SLOT_UNITS) {
+               Entry e = new Entry(current, current.used, filename);
+               current.used += units;
+               current.staging++;
+               return e;
+            }
+            for (Slot s : slots)
+               files.addAll(s.unforced.keySet());
+            if (files.isEmpty()) {
+               try {
+                  wait();
+               }
+               catch (InterruptedException e) {
+                  throw new RuntimeException("interrupted while writing " + filename);
+               }
+               continue;
+            }
+         }
+         for (String f : new ArrayList<String>(files))
+            fileMgr.forceFile(f);
+      }
+   }
+
+   /**
+    * Gives up an entry whose copies could not be written.
+    */
+   private synchronized void discard(Entry e) {
+      e.slot.staging--;
+      recycle(e.slot);
+      notifyAll();
+   }
+
+   /**
+    * Frees a slot whose entries have all been released.
+    * The current slot is instead reused from its start.
+    */
+   private void recycle(Slot s) {
+      if (!s.isIdle() || s.free)
+         return;
+      if (s == current)
+         s.used = 0;
+      else {
+         s.free = true;
+         freeSlots.add(s);
+      }
+   }
+
+   /**
+    * Forces the buffer to disk, unless a force made while this
+    * thread waited has covered the specified entry.
+    * The entries whose copies were written before the force began
+    * are then on disk.
+    */
+   private void force(long ticket) throws IOException {
+      synchronized (forceLock) {
+         if (ticket <= durable)
+            return;
+         long upto;
+         synchronized (this) {
+            upto = written;
+         }
+         fc.force(false);
+         forces.incrementAndGet();
+         durable = upto;
+      }
+   }
+
+   private static ByteBuffer unit(ByteBuffer contents, int unit) {
+      ByteBuffer bb = contents.duplicate();
+      bb.position(unit * DISK_BLOCK_SIZE);
+      bb.limit((unit + 1) * DISK_BLOCK_SIZE);
+      return bb.slice();
+   }
+
+   private void readFully(ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining())
+         if (fc.read(bb, pos + bb.position()) < 0)
+            break;
+   }
+
+   private void writeFully(ByteBuffer bb, long pos) throws IOException {
+      while (bb.hasRemaining())
+         fc.write(bb, pos + bb.position());
+   }
+
+   private static int checksum(ByteBuffer bb, int end) {
+      CRC32C crc = new CRC32C();
+      ByteBuffer data = bb.duplicate();
+      data.position(0);
+      data.limit(end);
+      crc.update(data);
+      return (int) crc.getValue();
+   }
+}
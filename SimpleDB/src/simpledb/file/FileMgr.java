@@ -1,10 +1,17 @@
 package simpledb.file;
 
 import static simpledb.file.Page.BLOCK_SIZE;
+import static simpledb.file.Page.DISK_BLOCK_SIZE;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
 
 /**
  * The SimpleDB file manager.
@@ -19,12 +26,147 @@ import java.util.*;
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * <p>
+ * Reads and writes use positional I/O on a shared file channel,
+ * which is thread-safe, so they take no lock and threads
+ * reading or writing different blocks proceed in parallel.
+ * <p>
+ * A database can have thousands of files (a hash index alone has
+ * one file per bucket), so the number of open files is bounded
+ * (see {@link #setMaxOpenFiles(int)}).
+ * Each open file counts the threads that are using its channel;
+ * when opening a file exceeds the bound, the least recently used
+ * files that are not in use are closed.
+ * Files that have writes not yet forced are closed last,
+ * and are forced before they are closed.
+ * A closed file is simply opened again when it is next used.
+ * A temporary table is deleted as soon as it is no longer needed
+ * (see {@link #deleteTempFile(String)}), which also closes its file.
+ * <p>
+ * Files grow in extents of several blocks (see {@link #setExtentSize(int)}).
+ * A small file grows by an eighth of its size, so that small tables
+ * are not padded to a whole extent.
+ * When an append reaches the end of the file's current extent,
+ * the next extent is written as zero-filled blocks with a single write;
+ * each append then only claims the next free block of the extent,
+ * which is a short critical section per file, and writes it outside that section.
+ * A zero-filled block is a valid empty block for the files that grow this way
+ * (record pages whose slots are all empty, free-space map entries that are unknown),
+ * so after a restart the unused blocks of the last extent simply
+ * belong to the file.  The log, whose end is found from its size,
+ * grows one block at a time (see {@link #disableExtents(String)}).
+ * <p>
+ * Files are not opened in synchronous mode, so a write
+ * may sit in the operating system's cache.
+ * The file manager remembers which files have been written
+ * since they were last forced, and the methods
+ * {@link #force(String) force} and {@link #forceAll() forceAll}
+ * force them to disk; the log manager and the recovery manager
+ * call them at log flushes, commits and checkpoints.
+ * Temporary files are never forced.
+ * <p>
+ * The block size of a database is chosen when the database is created,
+ * and is recorded in the header file {@link #HEADER_FILE}
+ * of the database directory.
+ * The file manager reads it when the database is opened,
+ * and sets {@link Page#BLOCK_SIZE} accordingly.
+ * <p>
+ * A new database has page checksums, also recorded in its header.
+ * The last {@link Page#CHECKSUM_SIZE} bytes of each block then hold
+ * a CRC32C checksum of the rest of the block, which pages do not use;
+ * it is computed when a block is written and verified when it is read,
+ * and a block whose checksum does not match cannot be read.
+ * (A block of zeros, such as a preallocated block, is accepted.)
+ * To protect blocks from torn writes, blocks are first copied to a
+ * {@link DoubleWriteBuffer}, from which the blocks that a crash
+ * left torn are restored when the database is opened.
+ * <p>
+ * Selected files can be read through a memory mapping instead of a
+ * read system call per block (see {@link #setMappedFiles(String)}).
+ * A block is then copied from the mapping into the page.
+ * Writes and appends still go through the file channel;
+ * the operating system keeps the mapping coherent with them,
+ * and a file is remapped when a block beyond the end of its
+ * mapping is read after the file has grown.
+ * The buffer pool never reads a block that it holds a dirty copy of,
+ * so a mapping never needs to reflect unwritten changes.
+ * <p>
+ * Reads and writes can also be issued asynchronously, through an
+ * {@link IOEngine}; they return futures that complete when the I/O is done.
  * @author Edward Sciore
  */
 public class FileMgr {
+   public static final String HEADER_FILE = "simpledb.header";
    private File dbDirectory;
    private boolean isNew;
-   private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
+   private Map<String,OpenFile> openFiles = new ConcurrentHashMap<String,OpenFile>();
+   private volatile int maxOpenFiles = 256;
+   private AtomicLong fileOpens = new AtomicLong(), fileCloses = new AtomicLong();
+   // the files written since they were last forced; true if their size changed
+   private Map<String,Boolean> unforced = new ConcurrentHashMap<String,Boolean>();
+   private volatile List<String> mapPatterns = Collections.emptyList();
+   private Map<String,Boolean> mapDecisions = new ConcurrentHashMap<String,Boolean>();
+   private Map<String,MappedByteBuffer> mappings = new ConcurrentHashMap<String,MappedByteBuffer>();
+   private IOEngine io = new IOEngine(this, 4);
+   private Map<String,Allocation> allocations = new ConcurrentHashMap<String,Allocation>();
+   private Set<String> noExtents = ConcurrentHashMap.newKeySet();
+   private Set<String> noDoubleWrite = ConcurrentHashMap.newKeySet();
+   private volatile int extentBlocks = 1;
+   private boolean checksums;
+   private DoubleWriteBuffer doubleWrites;      // null if the database has no checksums
+   private volatile boolean doubleWrite = true;
+
+   /**
+    * An open file, with the number of threads using its channel.
+    * The count is -1 once the file has been closed,
+    * after which the file cannot be used until it is opened again.
+    */
+   private static class OpenFile {
+      final FileChannel fc;
+      final AtomicInteger users = new AtomicInteger();
+      volatile long lastUse;
+
+      OpenFile(FileChannel fc) {
+         this.fc = fc;
+      }
+
+      boolean retain() {
+         for (int n = users.get(); n >= 0; n = users.get())
+            if (users.compareAndSet(n, n + 1))
+               return true;
+         return false;
+      }
+
+      void release() {
+         users.decrementAndGet();
+      }
+
+      /**
+       * Marks the file as closed if no thread is using it,
+       * so that no thread can use it any more.
+       */
+      boolean claim() {
+         return users.compareAndSet(0, -1);
+      }
+
+      void close() {
+         try {
+            fc.close();
+         }
+         catch (IOException e) {
+            // the file has been forced, or is temporary
+         }
+      }
+   }
+
+   /**
+    * The blocks of a file that have been claimed, and the blocks
+    * that have been preallocated for it.
+    */
+   private static class Allocation {
+      int size;     // the number of blocks claimed by appends
+      int capacity; // the number of blocks written to the file
+   }
 
    /**
     * Creates a file manager for the specified database.
@@ -33,12 +175,45 @@ public class FileMgr {
     * If the folder does not exist, then a folder containing
     * an empty database is created automatically.
     * Files for all temporary tables (i.e. tables beginning with "temp") are deleted.
+    * A new database has blocks of {@link Page#DEFAULT_BLOCK_SIZE} bytes,
+    * with checksums.
     * @param dbname the name of the directory that holds the database
     */
    public FileMgr(String dbname) {
-      String homedir = System.getProperty("user.home");
-      dbDirectory = new File(homedir, dbname);
+      this(dbname, Page.DEFAULT_BLOCK_SIZE, true);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * which has blocks of the specified size, with checksums, if it is new.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database
+    */
+   public FileMgr(String dbname, int blocksize) {
+      this(dbname, blocksize, true);
+   }
+
+   /**
+    * Creates a file manager for the specified database,
+    * which has blocks of the specified size if it is new,
+    * and checksums if so specified.
+    * An existing database keeps the block size and checksum setting
+    * recorded in its header;
+    * an existing database without a header was created with
+    * {@link Page#LEGACY_BLOCK_SIZE}-byte blocks and no checksums.
+    * If the database has checksums, the blocks that were torn
+    * by a crash are restored from the double-write buffer.
+    * @param dbname the name of the directory that holds the database
+    * @param blocksize the block size of a new database: a power of two
+    * between {@link Page#MIN_BLOCK_SIZE} and {@link Page#MAX_BLOCK_SIZE},
+    * or {@link Page#LEGACY_BLOCK_SIZE}
+    * @param checksums true if a new database has page checksums
+    */
+   public FileMgr(String dbname, int blocksize, boolean checksums) {
+      dbDirectory = directoryOf(dbname);
       isNew = !dbDirectory.exists();
+      if (isNew && !Page.isValidBlockSize(blocksize))
+         throw new IllegalArgumentException("invalid block size " + blocksize);
 
       // create the directory if the database is new
       if (isNew && !dbDirectory.mkdir())
@@ -48,6 +223,37 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
          new File(dbDirectory, filename).delete();
+
+      File header = new File(dbDirectory, HEADER_FILE);
+      if (header.exists()) {
+         Properties props = readHeader(header);
+         blocksize = Integer.parseInt(props.getProperty("block.size").trim());
+         checksums = Boolean.parseBoolean(props.getProperty("checksums", "false").trim());
+      }
+      else {
+         if (!isNew) {
+            blocksize = Page.LEGACY_BLOCK_SIZE;
+            checksums = false;
+         }
+         writeHeader(header, blocksize, checksums);
+      }
+      this.checksums = checksums;
+      Page.DISK_BLOCK_SIZE = blocksize;
+      Page.BLOCK_SIZE = checksums ? blocksize - Page.CHECKSUM_SIZE : blocksize;
+      if (checksums) {
+         doubleWrites = new DoubleWriteBuffer(this, dbDirectory);
+         doubleWrites.recover();
+      }
+   }
+
+   /**
+    * Returns the directory of the specified database,
+    * which lies in the user's home directory.
+    * @param dbname the name of the database
+    * @return the database directory
+    */
+   public static File directoryOf(String dbname) {
+      return new File(System.getProperty("user.home"), dbname);
    }
 
    /**
@@ -55,56 +261,613 @@ public class FileMgr {
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void read(Block blk, ByteBuffer bb) {
+   void read(Block blk, ByteBuffer bb) {
+      io.awaitWrite(blk);
+      try {
+         bb.clear();
+         if (mapPatterns.isEmpty() || !readMapped(blk, bb))
+            readFromChannel(blk, bb);
+         verify(blk, bb);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read block " + blk);
+      }
+   }
+
+   /**
+    * Reads the contents of a disk block into a bytebuffer,
+    * like {@link #read(Block, ByteBuffer)}, but reports a block whose
+    * checksum is wrong instead of failing.
+    * @param blk a reference to a disk block
+    * @param bb  the bytebuffer
+    * @return false if the database has checksums and the block's is wrong
+    */
+   boolean tryRead(Block blk, ByteBuffer bb) {
+      io.awaitWrite(blk);
       try {
          bb.clear();
-         FileChannel fc = getFile(blk.fileName());
-         fc.read(bb, blk.number() * BLOCK_SIZE);
+         readFromChannel(blk, bb);
+         return !checksums || isIntact(bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
+   /**
+    * Reads a disk block into a bytebuffer with a positional read,
+    * without verifying its checksum.
+    * The part of the block that lies beyond the end of the file is zeroed.
+    */
+   void readFromChannel(Block blk, ByteBuffer bb) throws IOException {
+      OpenFile f = acquire(blk.fileName());
+      try {
+         long pos = (long) blk.number() * DISK_BLOCK_SIZE;
+         // a positional read may return fewer bytes than asked for
+         while (bb.hasRemaining()) {
+            int n = f.fc.read(bb, pos + bb.position());
+            if (n < 0) {
+               while (bb.hasRemaining())
+                  bb.put((byte) 0);
+            }
+         }
+      }
+      finally {
+         f.release();
+      }
+   }
+
+   /**
+    * Reads consecutive disk blocks into the specified bytebuffers,
+    * one block per buffer, with a single scattering read.
+    * The read uses the position of the file's channel,
+    * and so locks the channel like an append does.
+    * @param start a reference to the first disk block
+    * @param dsts the bytebuffers, one per block
+    */
+   void readBlocks(Block start, ByteBuffer[] dsts) {
+      io.awaitWrites(start, dsts.length);
+      try {
+         for (ByteBuffer bb : dsts)
+            bb.clear();
+         if (!mapPatterns.isEmpty() && isMapped(start.fileName())) {
+            for (int i = 0; i < dsts.length; i++)
+               read(new Block(start.fileName(), start.number() + i), dsts[i]);
+            return;
+         }
+         OpenFile f = acquire(start.fileName());
+         try {
+            long pos = (long) start.number() * DISK_BLOCK_SIZE;
+            synchronized (f.fc) {
+               f.fc.position(pos);
+               while (dsts[dsts.length - 1].hasRemaining())
+                  if (f.fc.read(dsts) < 0)
+                     break;
+            }
+         }
+         finally {
+            f.release();
+         }
+         for (int i = 0; i < dsts.length; i++) {
+            for (ByteBuffer bb = dsts[i]; bb.hasRemaining(); )
+               bb.put((byte) 0);
+            verify(new Block(start.fileName(), start.number() + i), dsts[i]);
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + dsts.length + " blocks from " + start);
+      }
+   }
+
+   /**
+    * Writes the specified bytebuffers into consecutive disk blocks,
+    * one block per buffer, with a single gathering write.
+    * The write uses the position of the file's channel,
+    * and so locks the channel like an append does.
+    * @param start a reference to the first disk block
+    * @param srcs the bytebuffers, one per block
+    */
+   void writeBlocks(Block start, ByteBuffer[] srcs) {
+      if (isProtected(start.fileName()) && srcs.length > DoubleWriteBuffer.SLOT_BLOCKS) {
+         // each part of the run must fit in a slot of the double-write buffer
+         for (int i = 0; i < srcs.length; i += DoubleWriteBuffer.SLOT_BLOCKS) {
+            int n = Math.min(DoubleWriteBuffer.SLOT_BLOCKS, srcs.length - i);
+            writeBlocks(new Block(start.fileName(), start.number() + i),
+                        Arrays.copyOfRange(srcs, i, i + n));
+         }
+         return;
+      }
+      io.awaitWrites(start, srcs.length);
+      for (ByteBuffer bb : srcs)
+         seal(bb);
+      DoubleWriteBuffer.Entry copies = isProtected(start.fileName()) ? doubleWrites.stage(start, srcs) : null;
+      try {
+         for (ByteBuffer bb : srcs)
+            bb.rewind();
+         OpenFile f = acquire(start.fileName());
+         try {
+            long pos = (long) start.number() * DISK_BLOCK_SIZE;
+            synchronized (f.fc) {
+               boolean grown = pos + (long) srcs.length * DISK_BLOCK_SIZE > f.fc.size();
+               // recorded while the file is in use, so that it is not closed unforced
+               if (!isTemp(start.fileName()))
+                  unforced.merge(start.fileName(), grown, Boolean::logicalOr);
+               f.fc.position(pos);
+               while (srcs[srcs.length - 1].hasRemaining())
+                  f.fc.write(srcs);
+            }
+         }
+         finally {
+            f.release();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write " + srcs.length + " blocks to " + start);
+      }
+      finally {
+         // the copies are kept until the file is forced
+         if (copies != null)
+            doubleWrites.written(copies);
+      }
+   }
+
+   /**
+    * Selects the files that are read through a memory mapping.
+    * The patterns are separated by commas; a pattern is either
+    * a file name, or a prefix followed by "*" (so "*" selects
+    * every file).
+    * Temporary files are never mapped.
+    * Files that are no longer selected are unmapped.
+    * @param patterns the selected files, or the empty string for none
+    */
+   public void setMappedFiles(String patterns) {
+      List<String> list = new ArrayList<String>();
+      for (String p : patterns.split(","))
+         if (!p.trim().isEmpty())
+            list.add(p.trim());
+      mapPatterns = list;
+      mapDecisions.clear();
+      mappings.clear();
+   }
+
+   /**
+    * Returns true if the specified file is read through a memory mapping.
+    * @param filename the name of the file
+    * @return true if the file is mapped
+    */
+   public boolean isMapped(String filename) {
+      return mapDecisions.computeIfAbsent(filename, f -> {
+         if (isTemp(f))
+            return false;
+         for (String p : mapPatterns)
+            if (p.endsWith("*") ? f.startsWith(p.substring(0, p.length() - 1)) : f.equals(p))
+               return true;
+         return false;
+      });
+   }
+
+   /**
+    * Copies a block from the mapping of its file, if the file is mapped.
+    * A mapping that ends before the block is replaced by a mapping
+    * of the whole file.
+    * @return false if the block must be read from the channel instead
+    */
+   private boolean readMapped(Block blk, ByteBuffer bb) throws IOException {
+      String filename = blk.fileName();
+      if (!isMapped(filename))
+         return false;
+      long pos = (long) blk.number() * DISK_BLOCK_SIZE;
+      MappedByteBuffer m = mappings.get(filename);
+      if (m == null || pos + DISK_BLOCK_SIZE > m.capacity()) {
+         m = remap(filename, pos + DISK_BLOCK_SIZE);
+         if (m == null)
+            return false;
+      }
+      ByteBuffer src = m.duplicate();
+      src.limit((int) pos + DISK_BLOCK_SIZE);
+      src.position((int) pos);
+      bb.put(src);
+      return true;
+   }
+
+   /**
+    * Maps the whole of the specified file, so that the mapping
+    * extends at least to the specified position.
+    * Returns null if the file does not extend that far,
+    * or if the position lies beyond the largest mappable size.
+    */
+   private MappedByteBuffer remap(String filename, long end) throws IOException {
+      OpenFile f = acquire(filename);
+      try {
+         synchronized (f.fc) {
+            MappedByteBuffer m = mappings.get(filename);
+            if (m != null && end <= m.capacity())
+               return m;
+            long size = Math.min(f.fc.size(), Integer.MAX_VALUE / DISK_BLOCK_SIZE * (long) DISK_BLOCK_SIZE);
+            if (end > size)
+               return null;
+            // a mapping remains valid after its file is closed
+            m = f.fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mappings.put(filename, m);
+            return m;
+         }
+      }
+      finally {
+         f.release();
+      }
+   }
+
+   /**
+    * Reads consecutive disk blocks into the specified bytebuffers
+    * asynchronously, one block per buffer.
+    * @param start a reference to the first disk block
+    * @param dsts the bytebuffers, one per block
+    * @return a future that completes when the blocks have been read
+    */
+   CompletableFuture<Void> readBlocksAsync(Block start, ByteBuffer[] dsts) {
+      return io.readBlocks(start, dsts);
+   }
+
+   /**
+    * Writes the contents of a bytebuffer into a disk block asynchronously.
+    * The file manager takes ownership of the bytebuffer,
+    * which must therefore be a private copy of the page.
+    * Later reads and writes of the block wait for the write,
+    * and so does forcing the file.
+    * @param blk a reference to a disk block
+    * @param bb  a copy of the page
+    * @return a future that completes when the block has been written
+    */
+   CompletableFuture<Void> writeAsync(Block blk, ByteBuffer bb) {
+      return io.write(blk, bb);
+   }
+
+   /**
+    * Sets the number of threads that perform asynchronous I/O.
+    * @param numthreads the number of I/O threads
+    */
+   public void setIOThreads(int numthreads) {
+      io.setThreads(Math.max(1, numthreads));
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
     * @param blk a reference to a disk block
     * @param bb  the bytebuffer
     */
-   synchronized void write(Block blk, ByteBuffer bb) {
+   void write(Block blk, ByteBuffer bb) {
+      io.awaitWrite(blk);
+      writeNow(blk, bb);
+   }
+
+   /**
+    * Writes the contents of a bytebuffer into a disk block,
+    * without waiting for a pending asynchronous write of the block.
+    * Called by the {@link IOEngine}.
+    */
+   void writeNow(Block blk, ByteBuffer bb) {
+      seal(bb);
+      DoubleWriteBuffer.Entry copies = isProtected(blk.fileName()) ? doubleWrites.stage(blk, new ByteBuffer[] {bb}) : null;
       try {
-         bb.rewind();
-         FileChannel fc = getFile(blk.fileName());
-         fc.write(bb, blk.number() * BLOCK_SIZE);
+         writeToChannel(blk, bb);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
+      finally {
+         // the copy is kept until the file is forced
+         if (copies != null)
+            doubleWrites.written(copies);
+      }
+   }
+
+   /**
+    * Writes a bytebuffer into a disk block with a positional write,
+    * as it is.
+    */
+   void writeToChannel(Block blk, ByteBuffer bb) throws IOException {
+      bb.rewind();
+      OpenFile f = acquire(blk.fileName());
+      try {
+         // recorded while the file is in use, so that it is not closed unforced
+         if (!isTemp(blk.fileName()))
+            unforced.merge(blk.fileName(), false, Boolean::logicalOr);
+         long pos = (long) blk.number() * DISK_BLOCK_SIZE;
+         while (bb.hasRemaining())
+            f.fc.write(bb, pos + bb.position());
+      }
+      finally {
+         f.release();
+      }
+   }
+
+   /**
+    * Turns the double-write buffer on or off.
+    * Without it, a block that is torn by a crash cannot be read
+    * (its checksum is wrong) and so must be restored from a backup.
+    * The setting has no effect on a database without checksums.
+    * @param on true if blocks are copied to the double-write buffer before they are written
+    */
+   public void setDoubleWrite(boolean on) {
+      doubleWrite = on;
+   }
+
+   /**
+    * Returns true if the database has page checksums.
+    * @return true if the blocks of the database have checksums
+    */
+   public boolean hasChecksums() {
+      return checksums;
+   }
+
+   /**
+    * Exempts the specified file from the double-write buffer.
+    * The log manager exempts the log, which never writes a block
+    * again once it has been written, so a torn block of the log
+    * never holds records that were on disk.
+    * @param filename the name of the file
+    */
+   public void disableDoubleWrite(String filename) {
+      noDoubleWrite.add(filename);
+   }
+
+   /**
+    * Returns the number of times the double-write buffer has been forced.
+    * @return the number of forces, or 0 if the database has no double-write buffer
+    */
+   public long doubleWriteForces() {
+      return (doubleWrites != null) ? doubleWrites.forces() : 0;
+   }
+
+   private boolean isProtected(String filename) {
+      return doubleWrites != null && doubleWrite && !isTemp(filename)
+            && !noDoubleWrite.contains(filename);
+   }
+
+   /**
+    * Stores the checksum of a page in the last bytes of its block.
+    */
+   private void seal(ByteBuffer bb) {
+      if (checksums)
+         bb.putInt(BLOCK_SIZE, checksum(bb));
+   }
+
+   /**
+    * Throws an exception if the checksum of a block that has been read is wrong.
+    * Since a block that is read while it is being written
+    * can be inconsistent, the block is read again before giving up.
+    */
+   private void verify(Block blk, ByteBuffer bb) throws IOException {
+      if (!checksums || isIntact(bb))
+         return;
+      bb.clear();
+      readFromChannel(blk, bb);
+      if (!isIntact(bb))
+         throw new RuntimeException("checksum mismatch in block " + blk);
+   }
+
+   /**
+    * Returns true if the checksum of the specified block matches
+    * its contents, or if the block is all zeros.
+    * @param bb the contents of a block of a database with checksums
+    * @return true if the block is intact
+    */
+   static boolean isIntact(ByteBuffer bb) {
+      if (bb.getInt(BLOCK_SIZE) == checksum(bb))
+         return true;
+      for (int i = 0; i < DISK_BLOCK_SIZE; i++)
+         if (bb.get(i) != 0)
+            return false;
+      return true;
+   }
+
+   private static int checksum(ByteBuffer bb) {
+      CRC32C crc = new CRC32C();
+      ByteBuffer data = bb.duplicate();
+      data.position(0);
+      data.limit(BLOCK_SIZE);
+      crc.update(data);
+      return (int) crc.getValue();
    }
 
    /**
     * Appends the contents of a bytebuffer to the end
     * of the specified file.
+    * The next free block of the file's current extent is claimed,
+    * preallocating a new extent if there is none,
+    * and the contents are written to it.
+    * Only the claim is serialized per file, so concurrent
+    * appenders to the same file write their blocks in parallel.
+    * A file whose extents are disabled is extended by the write itself,
+    * with the appends serialized.
     * @param filename the name of the file
     * @param bb  the bytebuffer
     * @return a reference to the newly-created block.
     */
-   synchronized Block append(String filename, ByteBuffer bb) {
-      int newblknum = size(filename);
-      Block blk = new Block(filename, newblknum);
-      write(blk, bb);
-      return blk;
+   Block append(String filename, ByteBuffer bb) {
+      OpenFile f = null;
+      try {
+         f = acquire(filename);
+         if (noExtents.contains(filename)) {
+            synchronized (f.fc) {
+               Block blk = new Block(filename, size(filename));
+               if (!isTemp(filename))
+                  unforced.put(filename, true);
+               writeNow(blk, bb);
+               return blk;
+            }
+         }
+         Allocation a = allocation(filename, f.fc);
+         Block blk;
+         synchronized (a) {
+            if (a.size == a.capacity)
+               preallocate(filename, f.fc, a);
+            blk = new Block(filename, a.size++);
+         }
+         writeNow(blk, bb);
+         return blk;
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot access " + filename);
+      }
+      finally {
+         if (f != null)
+            f.release();
+      }
+   }
+
+   /**
+    * Sets the number of blocks by which files grow.
+    * A value of 1 turns preallocation off.
+    * @param blocks the number of blocks in an extent
+    */
+   public void setExtentSize(int blocks) {
+      extentBlocks = Math.max(1, blocks);
+   }
+
+   /**
+    * Makes the specified file grow one block at a time,
+    * because its end is determined from its size.
+    * The log manager calls this method for the log file.
+    * @param filename the name of the file
+    */
+   public void disableExtents(String filename) {
+      noExtents.add(filename);
+   }
+
+   private Allocation allocation(String filename, FileChannel fc) throws IOException {
+      Allocation a = allocations.get(filename);
+      if (a == null) {
+         synchronized (fc) {
+            a = allocations.get(filename);
+            if (a == null) {
+               a = new Allocation();
+               a.size = a.capacity = (int)(fc.size() / DISK_BLOCK_SIZE);
+               allocations.put(filename, a);
+            }
+         }
+      }
+      return a;
+   }
+
+   /**
+    * Writes the next extent of the file as zero-filled blocks.
+    * The extent is an eighth of the file, up to the configured extent size.
+    * An extent of one block is not written, since the append itself extends the file.
+    * Called with the file's allocation locked.
+    */
+   private void preallocate(String filename, FileChannel fc, Allocation a) throws IOException {
+      int blocks = Math.min(extentBlocks, Math.max(1, a.capacity / 8));
+      if (blocks > 1) {
+         ByteBuffer zeros = ByteBuffer.allocate(blocks * DISK_BLOCK_SIZE);
+         long pos = (long) a.capacity * DISK_BLOCK_SIZE;
+         while (zeros.hasRemaining())
+            fc.write(zeros, pos + zeros.position());
+      }
+      if (!isTemp(filename))
+         unforced.put(filename, true);
+      a.capacity += blocks;
+   }
+
+   /**
+    * Forces the writes made to the specified file to disk.
+    * Pending asynchronous writes are waited for first,
+    * and the failure of one of them is thrown.
+    * Does nothing if the file has not been written
+    * since it was last forced.
+    * The file's metadata is forced only if its size has changed.
+    * The forces of a file are serialized: a call that finds
+    * nothing to force returns only when the force in progress,
+    * which covers the writes made before it, has completed.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      io.awaitWrites(filename);
+      forceFile(filename);
+   }
+
+   /**
+    * Forces the writes made to the specified file to disk,
+    * without waiting for its pending asynchronous writes.
+    * Called by {@link #force(String)}, and by the double-write buffer
+    * to release the copies of the file's blocks.
+    * @param filename the name of the file
+    */
+   void forceFile(String filename) {
+      try {
+         OpenFile f = acquire(filename);
+         try {
+            synchronized (f) {
+               forceChannel(filename, f);
+            }
+         }
+         finally {
+            f.release();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot force " + filename);
+      }
+   }
+
+   /**
+    * Forces an open file if it has been written since it was last forced,
+    * or if the double-write buffer keeps copies of blocks written to it.
+    * The copies that were kept before the force are then released.
+    * The file must be in use by the caller, so that the entry
+    * of the file is removed while the file cannot be closed unforced.
+    */
+   private void forceChannel(String filename, OpenFile f) throws IOException {
+      int[] copies = (doubleWrites != null) ? doubleWrites.writtenEntries(filename) : null;
+      Boolean grown = unforced.remove(filename);
+      if (grown == null && copies == null)
+         return;
+      try {
+         f.fc.force(grown != null && grown);
+      }
+      catch (IOException e) {
+         unforced.merge(filename, true, Boolean::logicalOr);
+         throw e;
+      }
+      if (copies != null)
+         doubleWrites.forced(filename, copies);
+   }
+
+   /**
+    * Forces the writes made to every file to disk,
+    * with one force per file that has been written
+    * since it was last forced.
+    */
+   public void forceAll() {
+      Set<String> files = new HashSet<String>(unforced.keySet());
+      for (String filename : io.filesWithWrites())
+         files.add(filename);
+      for (String filename : files)
+         force(filename);
    }
 
    /**
     * Returns the number of blocks in the specified file.
+    * Blocks that have been preallocated but not yet
+    * appended are not counted.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
-   public synchronized int size(String filename) {
+   public int size(String filename) {
+      Allocation a = allocations.get(filename);
+      if (a != null) {
+         synchronized (a) {
+            return a.size;
+         }
+      }
       try {
-         FileChannel fc = getFile(filename);
-         return (int)(fc.size() / BLOCK_SIZE);
+         OpenFile f = acquire(filename);
+         try {
+            return (int)(f.fc.size() / DISK_BLOCK_SIZE);
+         }
+         finally {
+            f.release();
+         }
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
@@ -121,22 +884,192 @@ public class FileMgr {
    }
 
    /**
-    * Returns the file channel for the specified filename.
-    * The file channel is stored in a map keyed on the filename.
-    * If the file is not open, then it is opened and the file channel
-    * is added to the map.
+    * Returns the database directory.
+    * @return the directory that holds the database files
+    */
+   public File directory() {
+      return dbDirectory;
+   }
+
+   /**
+    * Deletes the specified temporary file, which is no longer needed.
+    * Its pending writes are waited for, and its file is closed and deleted.
+    * The buffer pool must hold no modified block of the file,
+    * since writing it would create the file again
+    * (see {@link simpledb.buffer.BufferMgr#discard(String)}).
+    * @param filename the name of a temporary file
+    */
+   public void deleteTempFile(String filename) {
+      if (!isTemp(filename))
+         throw new IllegalArgumentException(filename + " is not a temporary file");
+      try {
+         io.awaitWrites(filename);
+      }
+      catch (RuntimeException e) {
+         // the contents of the file no longer matter
+      }
+      // a thread that uses the channel holds it only for one I/O
+      for (OpenFile f = openFiles.get(filename); f != null; f = openFiles.get(filename)) {
+         if (f.claim()) {
+            f.close();
+            openFiles.remove(filename, f);
+            fileCloses.incrementAndGet();
+         }
+         else
+            Thread.yield();
+      }
+      allocations.remove(filename);
+      mapDecisions.remove(filename);
+      mappings.remove(filename);
+      new File(dbDirectory, filename).delete();
+   }
+
+   /**
+    * Sets the maximum number of files that are kept open.
+    * The bound is exceeded while every open file is in use.
+    * @param max the maximum number of open files
+    */
+   public void setMaxOpenFiles(int max) {
+      maxOpenFiles = Math.max(1, max);
+   }
+
+   /**
+    * Returns the number of files that are open.
+    * @return the number of open files
+    */
+   public int openFileCount() {
+      return openFiles.size();
+   }
+
+   /**
+    * Returns the number of times a file has been opened.
+    * A file that is opened again after being closed counts again.
+    * @return the number of opens
+    */
+   public long fileOpens() {
+      return fileOpens.get();
+   }
+
+   /**
+    * Returns the number of times a file has been closed,
+    * to keep the number of open files bounded or because it was deleted.
+    * @return the number of closes
+    */
+   public long fileCloses() {
+      return fileCloses.get();
+   }
+
+   /**
+    * Returns the open file for the specified filename,
+    * counting the caller as a user of its channel;
+    * the caller must call {@link OpenFile#release()} when done.
+    * If the file is not open, then it is opened.
+    * Looking up an open file takes no lock.
     * @param filename the specified filename
-    * @return the file channel associated with the open file.
+    * @return the open file
     * @throws IOException
     */
-   private FileChannel getFile(String filename) throws IOException {
-      FileChannel fc = openFiles.get(filename);
-      if (fc == null) {
-         File dbTable = new File(dbDirectory, filename);
-         RandomAccessFile f = new RandomAccessFile(dbTable, "rws");
-         fc = f.getChannel();
-         openFiles.put(filename, fc);
+   private OpenFile acquire(String filename) throws IOException {
+      OpenFile f = openFiles.get(filename);
+      if (f == null || !f.retain()) {
+         // the file is not open, or is being closed
+         do {
+            f = open(filename);
+         } while (!f.retain());
+      }
+      f.lastUse = System.nanoTime();
+      return f;
+   }
+
+   /**
+    * Opens the specified file, unless another thread has opened it first.
+    * A file that is being closed is replaced by a new open file.
+    * If there are then too many open files, the least recently used
+    * ones are closed, down to seven eighths of the maximum,
+    * so that the cost of choosing them is shared by several opens.
+    */
+   private OpenFile open(String filename) throws IOException {
+      synchronized (openFiles) {
+         OpenFile f = openFiles.get(filename);
+         if (f == null || f.users.get() < 0) {
+            File dbTable = new File(dbDirectory, filename);
+            f = new OpenFile(new RandomAccessFile(dbTable, "rw").getChannel());
+            f.lastUse = System.nanoTime();
+            openFiles.put(filename, f);
+            fileOpens.incrementAndGet();
+            if (openFiles.size() > maxOpenFiles)
+               closeLeastRecentlyUsed(f);
+         }
+         return f;
       }
-      return fc;
+   }
+
+   /**
+    * Closes unused open files, least recently used first.
+    * Files that have writes not yet forced are chosen last,
+    * and are forced before they are closed.
+    * A file is marked as closed before it is forced;
+    * since a write records its file as unforced while using the file,
+    * and a thread that finds the file closed must wait for the lock
+    * to open it again, no write can slip in between the force and the close.
+    * Called with the map of open files locked.
+    * @param opened the file just opened, which is kept open
+    */
+   private void closeLeastRecentlyUsed(OpenFile opened) {
+      List<Map.Entry<String,OpenFile>> candidates = new ArrayList<Map.Entry<String,OpenFile>>();
+      for (Map.Entry<String,OpenFile> e : openFiles.entrySet())
+         if (e.getValue() != opened && e.getValue().users.get() == 0)
+            candidates.add(e);
+      candidates.sort(Comparator.comparing((Map.Entry<String,OpenFile> e) -> unforced.containsKey(e.getKey()))
+                                .thenComparingLong(e -> e.getValue().lastUse));
+      int target = maxOpenFiles - maxOpenFiles / 8;
+      for (Map.Entry<String,OpenFile> e : candidates) {
+         if (openFiles.size() <= target)
+            break;
+         String filename = e.getKey();
+         OpenFile f = e.getValue();
+         if (!f.claim())
+            continue;
+         try {
+            forceChannel(filename, f);
+         }
+         catch (IOException ex) {
+            throw new RuntimeException("cannot force " + filename);
+         }
+         finally {
+            f.close();
+            openFiles.remove(filename, f);
+            fileCloses.incrementAndGet();
+         }
+      }
+   }
+
+   private static Properties readHeader(File header) {
+      Properties props = new Properties();
+      try (Reader r = new FileReader(header)) {
+         props.load(r);
+         Integer.parseInt(props.getProperty("block.size").trim());
+         return props;
+      }
+      catch (IOException | RuntimeException e) {
+         throw new RuntimeException("cannot read database header " + header);
+      }
+   }
+
+   private static void writeHeader(File header, int blocksize, boolean checksums) {
+      Properties props = new Properties();
+      props.setProperty("block.size", Integer.toString(blocksize));
+      props.setProperty("checksums", Boolean.toString(checksums));
+      try (FileOutputStream out = new FileOutputStream(header)) {
+         props.store(out, "SimpleDB database header");
+         out.getFD().sync();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot write database header " + header);
+      }
+   }
+
+   private boolean isTemp(String filename) {
+      return filename.startsWith("temp");
    }
 }
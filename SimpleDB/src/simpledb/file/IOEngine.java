@@ -0,0 +1,168 @@
+package simpledb.file;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The asynchronous I/O engine of the file manager.
+ * Block reads and writes are queued to a small pool of I/O threads,
+ * which perform them with the file manager's ordinary positional I/O,
+ * and each request returns a future that completes when the I/O is done.
+ * Any number of requests can be outstanding;
+ * the pool bounds how many are in progress at once.
+ * <p>
+ * A write is given its own copy of the page,
+ * so that the page can be reused as soon as the write is queued.
+ * Until the write is done, the block is remembered as pending:
+ * a read or synchronous write of the block first waits for it,
+ * and forcing the file waits for all its pending writes.
+ * A write that fails is reported by the next force of its file.
+ */
+class IOEngine {
+   private FileMgr fileMgr;
+   private ThreadPoolExecutor threads;
+   private Map<Block, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+   private Map<String, RuntimeException> failedWrites = new ConcurrentHashMap<>();
+
+   /**
+    * Creates an I/O engine for the specified file manager.
+    * @param fileMgr the file manager
+    * @param numthreads the number of I/O threads
+    */
+   IOEngine(FileMgr fileMgr, int numthreads) {
+      this.fileMgr = fileMgr;
+      threads = new ThreadPoolExecutor(numthreads, numthreads, 60, TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue<Runnable>(), r -> {
+         Thread t = new Thread(r, "simpledb-io");
+         t.setDaemon(true);
+         return t;
+      });
+      threads.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Changes the number of I/O threads.
+    * @param numthreads the new number of I/O threads
+    */
+   void setThreads(int numthreads) {
+      if (numthreads > threads.getMaximumPoolSize()) {
+         threads.setMaximumPoolSize(numthreads);
+         threads.setCorePoolSize(numthreads);
+      }
+      else {
+         threads.setCorePoolSize(numthreads);
+         threads.setMaximumPoolSize(numthreads);
+      }
+   }
+
+   /**
+    * Reads consecutive blocks into the specified bytebuffers asynchronously.
+    * @param start a reference to the first disk block
+    * @param dsts the bytebuffers, one per block
+    * @return a future that completes when the blocks have been read
+    */
+   CompletableFuture<Void> readBlocks(Block start, ByteBuffer[] dsts) {
+      return CompletableFuture.runAsync(() -> {
+         if (dsts.length == 1)
+            fileMgr.read(start, dsts[0]);
+         else
+            fileMgr.readBlocks(start, dsts);
+      }, threads);
+   }
+
+   /**
+    * Writes the specified bytebuffer to a disk block asynchronously.
+    * The engine takes ownership of the bytebuffer.
+    * A second write of the same block is performed after the first.
+    * @param blk a reference to a disk block
+    * @param bb a copy of the page
+    * @return a future that completes when the block has been written
+    */
+   CompletableFuture<Void> write(Block blk, ByteBuffer bb) {
+      CompletableFuture<Void> f = new CompletableFuture<>();
+      // queue the writes of a block in the order they are registered
+      synchronized (this) {
+         CompletableFuture<Void> previous = pendingWrites.put(blk, f);
+         threads.execute(() -> {
+            try {
+               if (previous != null)
+                  awaitQuietly(previous);
+               fileMgr.writeNow(blk, bb);
+               f.complete(null);
+            }
+            catch (RuntimeException e) {
+               failedWrites.put(blk.fileName(), e);
+               f.completeExceptionally(e);
+            }
+            finally {
+               pendingWrites.remove(blk, f);
+            }
+         });
+      }
+      return f;
+   }
+
+   /**
+    * Waits until no write of the specified block is pending.
+    * @param blk a reference to a disk block
+    */
+   void awaitWrite(Block blk) {
+      CompletableFuture<Void> f = pendingWrites.get(blk);
+      if (f != null)
+         awaitQuietly(f);
+   }
+
+   /**
+    * Waits until no write of the specified consecutive blocks is pending.
+    * @param start a reference to the first disk block
+    * @param count the number of blocks
+    */
+   void awaitWrites(Block start, int count) {
+      if (pendingWrites.isEmpty())
+         return;
+      for (int i = 0; i < count; i++)
+         awaitWrite(new Block(start.fileName(), start.number() + i));
+   }
+
+   /**
+    * Waits until no write to the specified file is pending,
+    * and throws the exception of a write that has failed
+    * since the file was last forced.
+    * @param filename the name of the file
+    */
+   void awaitWrites(String filename) {
+      for (Map.Entry<Block, CompletableFuture<Void>> e : pendingWrites.entrySet())
+         if (e.getKey().fileName().equals(filename))
+            awaitQuietly(e.getValue());
+      RuntimeException failure = failedWrites.remove(filename);
+      if (failure != null)
+         throw failure;
+   }
+
+   /**
+    * Returns the names of the files that have pending or failed writes.
+    * @return the files whose writes are not yet settled
+    */
+   Iterable<String> filesWithWrites() {
+      Set<String> files = new HashSet<>(failedWrites.keySet());
+      for (Block blk : pendingWrites.keySet())
+         files.add(blk.fileName());
+      return files;
+   }
+
+   private static void awaitQuietly(CompletableFuture<Void> f) {
+      try {
+         f.join();
+      }
+      catch (RuntimeException e) {
+         // the failure is reported when the file is forced
+      }
+   }
+}
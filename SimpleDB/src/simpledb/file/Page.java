@@ -3,6 +3,8 @@ package simpledb.file;
 import simpledb.server.SimpleDB;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The contents of a disk block in memory.
@@ -33,16 +35,65 @@ import java.nio.charset.Charset;
  * p3.read(blk);
  * String s = p3.getString(20);
  * </pre>
+ * <p>
+ * The methods that get and set values use absolute positions
+ * in the page's byte buffer, so they take no lock and
+ * any number of threads can read the same page at once;
+ * a caller that modifies a page must keep other threads
+ * from reading the modified values meanwhile, as buffers and
+ * transaction locks do.
+ * Strings are encoded in the default charset, which is looked up once.
+ * A string of ASCII characters is copied directly to and from
+ * the page when the charset is compatible with ASCII,
+ * and strings are read through a per-thread scratch array,
+ * so reading or writing a value allocates no more than its string.
+ * Strings can also be compared where they lie, byte by byte,
+ * without decoding them (see {@link #compareString(int, Page, int)}).
+ * The methods that read and write the page to disk are synchronized,
+ * since the file manager moves the buffer's position.
  * @author Edward Sciore
  */
 public class Page {
    /**
-    * The number of bytes in a block.
-    * This value is set unreasonably low, so that it is easier
-    * to create and test databases having a lot of blocks.
-    * A more realistic value would be 4K.
+    * The number of bytes of a block that its page can use.
+    * This is the block size, less the checksum of the block
+    * if the database has checksums.
+    * It is set by the {@link FileMgr} when the database is opened,
+    * and must not change while the database is open.
     */
-   public static final int BLOCK_SIZE = 400;
+   public static int BLOCK_SIZE = 400;
+
+   /**
+    * The number of bytes in a block on disk.
+    * The block size is chosen when a database is created,
+    * and is set by the {@link FileMgr} when the database is opened.
+    */
+   public static int DISK_BLOCK_SIZE = 400;
+
+   /**
+    * The number of bytes at the end of each block that hold its checksum,
+    * in a database that has checksums.
+    */
+   public static final int CHECKSUM_SIZE = Integer.SIZE / Byte.SIZE;
+
+   /**
+    * The block size of a new database, unless another one is configured.
+    */
+   public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+   /**
+    * The smallest and largest configurable block sizes.
+    */
+   public static final int MIN_BLOCK_SIZE = 4096, MAX_BLOCK_SIZE = 65536;
+
+   /**
+    * The block size of databases created before the block size
+    * was configurable.
+    * This value is unreasonably low, but makes it easier to
+    * create and test databases having a lot of blocks,
+    * so new databases may still use it.
+    */
+   public static final int LEGACY_BLOCK_SIZE = 400;
    
    /**
     * The size of an integer in bytes.
@@ -50,6 +101,14 @@ public class Page {
     * a good idea to encode this value as a constant. 
     */
    public static final int INT_SIZE = Integer.SIZE / Byte.SIZE;
+
+   private static final Charset CHARSET = Charset.defaultCharset();
+   private static final int BYTES_PER_CHAR = (int) CHARSET.newEncoder().maxBytesPerChar();
+   private static final boolean SINGLE_BYTE = CHARSET.equals(StandardCharsets.US_ASCII)
+         || CHARSET.equals(StandardCharsets.ISO_8859_1);
+   private static final boolean ASCII_COMPATIBLE = SINGLE_BYTE || CHARSET.equals(StandardCharsets.UTF_8);
+   private static final int UNDECIDED = Integer.MIN_VALUE;
+   private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[64]);
    
    /**
     * The maximum size, in bytes, of a string of length n.
@@ -58,15 +117,28 @@ public class Page {
     * If the JVM uses the US-ASCII encoding, then each char
     * is stored in one byte, so a string of n characters
     * has a size of 4+n bytes.
+    * The number of bytes per char is computed once.
     * @param n the size of the string
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * BYTES_PER_CHAR);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   /**
+    * Returns true if the specified size can be chosen
+    * as the block size of a new database.
+    * @param size a block size, in bytes
+    * @return true if the size is a power of two between
+    * {@link #MIN_BLOCK_SIZE} and {@link #MAX_BLOCK_SIZE}, or the legacy size
+    */
+   public static boolean isValidBlockSize(int size) {
+      if (size == LEGACY_BLOCK_SIZE)
+         return true;
+      return size >= MIN_BLOCK_SIZE && size <= MAX_BLOCK_SIZE && Integer.bitCount(size) == 1;
+   }
+
+   private ByteBuffer contents;
 
    public ByteBuffer getContents() {
       return contents;
@@ -86,7 +158,21 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      contents = ByteBuffer.allocateDirect(DISK_BLOCK_SIZE);
+   }
+   
+   /**
+    * Creates a page that is a view of the specified memory,
+    * such as a frame of the buffer pool's arena.
+    * No memory is allocated; the page reads and writes
+    * the first {@link #DISK_BLOCK_SIZE} bytes of the view,
+    * of which the first {@link #BLOCK_SIZE} hold its values.
+    * @param contents the memory of the page
+    */
+   public Page(ByteBuffer contents) {
+      this.contents = contents;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -95,6 +181,17 @@ public class Page {
    public synchronized void read(Block blk) {
       filemgr.read(blk, contents);
    }
+
+   /**
+    * Reads the contents of the specified disk block into the page,
+    * like {@link #read(Block)}, but returns false instead of failing
+    * if the block's checksum is wrong, as when a crash tore the block.
+    * @param blk a reference to a disk block
+    * @return true if the block is intact
+    */
+   public synchronized boolean tryRead(Block blk) {
+      return filemgr.tryRead(blk, contents);
+   }
    
    /**
     * Writes the contents of the page to the specified disk block.
@@ -113,6 +210,65 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Populates the specified pages with the contents of consecutive
+    * disk blocks, starting at the specified block, with a single I/O.
+    * Unlike {@link #read(Block)}, the method does not lock the pages;
+    * the caller must ensure that no other thread uses them meanwhile.
+    * @param start a reference to the disk block read into the first page
+    * @param pages the pages, one per block
+    */
+   public static void readBlocks(Block start, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i = 0; i < pages.length; i++)
+         bbs[i] = pages[i].contents;
+      pages[0].filemgr.readBlocks(start, bbs);
+   }
+
+   /**
+    * Writes the specified pages to consecutive disk blocks,
+    * starting at the specified block, with a single I/O.
+    * Unlike {@link #write(Block)}, the method does not lock the pages;
+    * the caller must ensure that no other thread modifies them meanwhile.
+    * @param start a reference to the disk block that the first page is written to
+    * @param pages the pages, one per block
+    */
+   public static void writeBlocks(Block start, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i = 0; i < pages.length; i++)
+         bbs[i] = pages[i].contents;
+      pages[0].filemgr.writeBlocks(start, bbs);
+   }
+
+   /**
+    * Populates the specified pages with the contents of consecutive
+    * disk blocks asynchronously, with a single I/O.
+    * The pages must not be used until the returned future completes.
+    * @param start a reference to the disk block read into the first page
+    * @param pages the pages, one per block
+    * @return a future that completes when the pages have been read
+    */
+   public static CompletableFuture<Void> readBlocksAsync(Block start, Page[] pages) {
+      ByteBuffer[] bbs = new ByteBuffer[pages.length];
+      for (int i = 0; i < pages.length; i++)
+         bbs[i] = pages[i].contents;
+      return pages[0].filemgr.readBlocksAsync(start, bbs);
+   }
+
+   /**
+    * Writes a copy of the page to the specified disk block asynchronously.
+    * The page can be modified or reused as soon as the method returns.
+    * @param blk a reference to a disk block
+    * @return a future that completes when the block has been written
+    */
+   public synchronized CompletableFuture<Void> writeAsync(Block blk) {
+      ByteBuffer copy = ByteBuffer.allocate(contents.capacity());
+      ByteBuffer src = contents.duplicate();
+      src.clear();
+      copy.put(src);
+      return filemgr.writeAsync(blk, copy);
+   }
+
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
@@ -120,9 +276,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the integer value at that offset
     */
-   public synchronized int getInt(int offset) {
-      contents.position(offset);
-      return contents.getInt();
+   public int getInt(int offset) {
+      return contents.getInt(offset);
    }
    
    /**
@@ -130,9 +285,8 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the integer to be written to the page
     */
-   public synchronized void setInt(int offset, int val) {
-      contents.position(offset);
-      contents.putInt(val);
+   public void setInt(int offset, int val) {
+      contents.putInt(offset, val);
    }
    
    /**
@@ -142,12 +296,15 @@ public class Page {
     * @param offset the byte offset within the page
     * @return the string value at that offset
     */
-   public synchronized String getString(int offset) {
-      contents.position(offset);
-      int len = contents.getInt();
-      byte[] byteval = new byte[len];
-      contents.get(byteval);
-      return new String(byteval);
+   public String getString(int offset) {
+      int len = contents.getInt(offset);
+      byte[] byteval = scratch.get();
+      if (byteval.length < len) {
+         byteval = new byte[Math.max(len, 2 * byteval.length)];
+         scratch.set(byteval);
+      }
+      contents.get(offset + INT_SIZE, byteval, 0, len);
+      return new String(byteval, 0, len, CHARSET);
    }
    
    /**
@@ -155,10 +312,137 @@ public class Page {
     * @param offset the byte offset within the page
     * @param val the string to be written to the page
     */
-   public synchronized void setString(int offset, String val) {
-      contents.position(offset);
-      byte[] byteval = val.getBytes();
-      contents.putInt(byteval.length);
-      contents.put(byteval);
+   public void setString(int offset, String val) {
+      int len = val.length();
+      if (ASCII_COMPATIBLE) {
+         int pos = offset + INT_SIZE;
+         int i = 0;
+         for (; i < len; i++) {
+            char c = val.charAt(i);
+            if (c >= 0x80)
+               break;
+            contents.put(pos + i, (byte) c);
+         }
+         if (i == len) {
+            contents.putInt(offset, len);
+            return;
+         }
+      }
+      byte[] byteval = val.getBytes(CHARSET);
+      contents.putInt(offset, byteval.length);
+      contents.put(offset + INT_SIZE, byteval);
+   }
+
+   /**
+    * Returns the encoding of a string, as it is stored in a page.
+    * A constant is encoded once, and then compared with the
+    * strings of many pages.
+    * @param val the string
+    * @return the bytes that represent the string in a page
+    */
+   public static byte[] encode(String val) {
+      return val.getBytes(CHARSET);
+   }
+
+   /**
+    * Returns the number of bytes taken by the string
+    * at the specified offset of the page, including its length.
+    * @param offset the byte offset of the string in the page
+    * @return the size of the stored string
+    */
+   public int stringSize(int offset) {
+      return INT_SIZE + contents.getInt(offset);
+   }
+
+   /**
+    * Copies the string at the specified offset of the page
+    * to the specified offset of another page, as it is stored,
+    * without decoding it.
+    * @param offset the byte offset of the string in this page
+    * @param dest the page to copy the string to
+    * @param destoffset the byte offset in the other page
+    * @return the number of bytes copied, as {@link #stringSize(int)}
+    */
+   public int copyString(int offset, Page dest, int destoffset) {
+      int len = contents.getInt(offset);
+      dest.contents.putInt(destoffset, len);
+      int pos = offset + INT_SIZE, destpos = destoffset + INT_SIZE;
+      for (int i = 0; i < len; i++)
+         dest.contents.put(destpos + i, contents.get(pos + i));
+      return INT_SIZE + len;
+   }
+
+   /**
+    * Compares the string at the specified offset of this page
+    * with the string at the specified offset of another page.
+    * The encoded strings are compared in place;
+    * they are decoded only if their first differing bytes
+    * do not determine the order of the strings
+    * (non-ASCII characters in UTF-8, or a charset that is not
+    * compatible with ASCII).
+    * @param offset the byte offset of the string in this page
+    * @param other the other page, which may be this page
+    * @param otheroffset the byte offset of the string in the other page
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    */
+   public int compareString(int offset, Page other, int otheroffset) {
+      int result = compareBytes(contents, offset + INT_SIZE, contents.getInt(offset),
+                                other.contents, otheroffset + INT_SIZE, other.contents.getInt(otheroffset));
+      if (result != UNDECIDED)
+         return result;
+      return getString(offset).compareTo(other.getString(otheroffset));
+   }
+
+   /**
+    * Compares the string at the specified offset of the page
+    * with an encoded string, in the manner of {@link #compareString(int, Page, int)}.
+    * @param offset the byte offset of the string in the page
+    * @param encoded a string encoded by {@link #encode(String)}
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    */
+   public int compareString(int offset, byte[] encoded) {
+      int result = compareBytes(contents, offset + INT_SIZE, contents.getInt(offset),
+                                ByteBuffer.wrap(encoded), 0, encoded.length);
+      if (result != UNDECIDED)
+         return result;
+      return getString(offset).compareTo(new String(encoded, CHARSET));
+   }
+
+   /**
+    * Returns true if the string at the specified offset of the page
+    * equals an encoded string.
+    * Since a string has a single encoding, the bytes are compared
+    * in place, and the string is never decoded.
+    * @param offset the byte offset of the string in the page
+    * @param encoded a string encoded by {@link #encode(String)}
+    * @return true if the strings are equal
+    */
+   public boolean stringEquals(int offset, byte[] encoded) {
+      if (contents.getInt(offset) != encoded.length)
+         return false;
+      int pos = offset + INT_SIZE;
+      for (int i = 0; i < encoded.length; i++)
+         if (contents.get(pos + i) != encoded[i])
+            return false;
+      return true;
+   }
+
+   /**
+    * Compares two encoded strings byte by byte.
+    * Returns {@link #UNDECIDED} if the order of the strings
+    * cannot be told from their bytes.
+    */
+   private static int compareBytes(ByteBuffer b1, int pos1, int len1, ByteBuffer b2, int pos2, int len2) {
+      int n = Math.min(len1, len2);
+      for (int i = 0; i < n; i++) {
+         int c1 = b1.get(pos1 + i) & 0xff;
+         int c2 = b2.get(pos2 + i) & 0xff;
+         if (c1 != c2)
+            return (ASCII_COMPATIBLE && (SINGLE_BYTE || (c1 < 0x80 && c2 < 0x80))) ? c1 - c2 : UNDECIDED;
+      }
+      // in an ASCII-compatible charset, a prefix of the bytes encodes a prefix of the string
+      if (len1 == len2 || ASCII_COMPATIBLE)
+         return len1 - len2;
+      return UNDECIDED;
    }
 }
@@ -0,0 +1,134 @@
+package simpledb.file;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Test file of the double-write buffer
+ *
+ * Testing scenarios
+ *
+ * 1. Write a block of one file, and do not force the file, as when a crash interrupts
+ * the write of a page before the file's next force.
+ *
+ * 2. Write and force many blocks of another file, so that every slot of the double-write
+ * buffer that the copies of these blocks can use is filled and reused.
+ *
+ * 3. Tear the unforced block on disk, by overwriting its second half, and open the database
+ * again. Recovery must restore the block from its copy, which must not have been overwritten
+ * while the slots were reused.
+ *
+ * 4. The same, but the unforced block is written with a run of blocks.
+ */
+
+public class TestDoubleWriteBuffer {
+    private static final String DBNAME = "dblwrtest";
+    private static final int BLOCKSIZE = Page.MIN_BLOCK_SIZE;
+
+    @Before
+    public void setUp() {
+        deleteDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabase();
+    }
+
+    @Test
+    public void testTornBlockAfterSlotReuse() throws Exception {
+        FileMgr fm = new FileMgr(DBNAME, BLOCKSIZE, true);
+        Block victim = new Block("victim.dat", 3);
+        byte[] expected = contents(victim, 7);
+        fm.write(victim, ByteBuffer.wrap(expected));
+
+        reuseSlots(fm);
+        tear(victim);
+
+        FileMgr recovered = new FileMgr(DBNAME, BLOCKSIZE, true);
+        ByteBuffer bb = ByteBuffer.allocate(Page.DISK_BLOCK_SIZE);
+        assertTrue("torn block was not restored", recovered.tryRead(victim, bb));
+        assertArrayEquals(expected, bb.array());
+    }
+
+    @Test
+    public void testTornRunAfterSlotReuse() throws Exception {
+        FileMgr fm = new FileMgr(DBNAME, BLOCKSIZE, true);
+        Block start = new Block("victim.dat", 0);
+        ByteBuffer[] run = new ByteBuffer[4];
+        byte[][] expected = new byte[run.length][];
+        for (int i = 0; i < run.length; i++) {
+            expected[i] = contents(new Block("victim.dat", i), i + 1);
+            run[i] = ByteBuffer.wrap(expected[i]);
+        }
+        fm.writeBlocks(start, run);
+
+        reuseSlots(fm);
+        Block torn = new Block("victim.dat", 2);
+        tear(torn);
+
+        FileMgr recovered = new FileMgr(DBNAME, BLOCKSIZE, true);
+        ByteBuffer bb = ByteBuffer.allocate(Page.DISK_BLOCK_SIZE);
+        assertTrue("torn block was not restored", recovered.tryRead(torn, bb));
+        assertArrayEquals(expected[2], bb.array());
+    }
+
+    /**
+     * Writes and forces enough blocks of another file to fill
+     * every slot of the double-write buffer twice.
+     */
+    private void reuseSlots(FileMgr fm) {
+        int writes = 2 * DoubleWriteBuffer.SLOTS * DoubleWriteBuffer.SLOT_UNITS;
+        for (int i = 0; i < writes; i++) {
+            Block blk = new Block("other.dat", i % 16);
+            fm.write(blk, ByteBuffer.wrap(contents(blk, i)));
+            fm.force("other.dat");
+        }
+    }
+
+    /**
+     * Returns the contents of a block, filled with a pattern;
+     * its last bytes are left for the checksum, which the write adds.
+     */
+    private byte[] contents(Block blk, int seed) {
+        byte[] b = new byte[Page.DISK_BLOCK_SIZE];
+        for (int i = 0; i < Page.BLOCK_SIZE; i++)
+            b[i] = (byte) (blk.number() * 31 + seed * 7 + i);
+        return b;
+    }
+
+    /**
+     * Overwrites the second half of a block on disk with garbage,
+     * as a crash in the middle of its write would.
+     */
+    private void tear(Block blk) throws Exception {
+        byte[] garbage = new byte[Page.DISK_BLOCK_SIZE / 2];
+        Arrays.fill(garbage, (byte) 0x5a);
+        File file = new File(FileMgr.directoryOf(DBNAME), blk.fileName());
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek((long) blk.number() * Page.DISK_BLOCK_SIZE + garbage.length);
+            f.write(garbage);
+        }
+    }
+
+    private void deleteDatabase() {
+        File dir = FileMgr.directoryOf(DBNAME);
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files)
+            f.delete();
+        dir.delete();
+    }
+}
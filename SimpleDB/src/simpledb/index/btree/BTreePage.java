@@ -43,11 +43,28 @@ public class BTreePage {
     */
    public int findSlotBefore(Constant searchkey) {
       int slot = 0;
-      while (slot < getNumRecs() && getDataVal(slot).compareTo(searchkey) < 0)
+      while (slot < getNumRecs() && compareDataVal(slot, searchkey) < 0)
          slot++;
       return slot-1;
    }
    
+   /**
+    * Compares the dataval of the record in the specified slot
+    * with the specified search key.
+    * The dataval is compared in place, without creating a constant.
+    * @param slot the slot of an index record
+    * @param searchkey the search key
+    * @return a negative value, zero, or a positive value if the dataval
+    * is less than, equal to, or greater than the search key
+    */
+   public int compareDataVal(int slot, Constant searchkey) {
+      int pos = fldpos(slot, "dataval");
+      if (ti.schema().type("dataval") == INTEGER)
+         return Integer.compare(tx.getInt(currentblk, pos), (Integer) searchkey.asJavaVal());
+      else
+         return tx.compareString(currentblk, pos, ((StringConstant) searchkey).encoded());
+   }
+   
    /**
     * Closes the page by unpinning its buffer.
     */
@@ -46,6 +46,8 @@ public class HashIndex implements Index {
 		int bucket = searchkey.hashCode() % NUM_BUCKETS;
 		String tblname = idxname + bucket;
 		TableInfo ti = new TableInfo(tblname, sch);
+		// a bucket is small, and a map file per bucket would cost more than it saves
+		ti.disableFreeSpaceMap();
 		ts = new TableScan(ti, tx);
 	}
 
@@ -58,7 +60,7 @@ public class HashIndex implements Index {
 	 */
 	public boolean next() {
 		while (ts.next())
-			if (ts.getVal("dataval").equals(searchkey))
+			if (ts.fieldEquals("dataval", searchkey))
 				return true;
 		return false;
 	}
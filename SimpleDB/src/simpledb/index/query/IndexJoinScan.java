@@ -115,6 +115,30 @@ public class IndexJoinScan implements Scan {
       return ts.hasField(fldname) || s.hasField(fldname);
    }
    
+   /**
+    * Compares the field of the scan that contains it
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      if (ts.hasField(fldname))
+         return ts.compareField(fldname, other, otherfld);
+      else
+         return s.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the scan that contains it
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      if (ts.hasField(fldname))
+         return ts.fieldEquals(fldname, val);
+      else
+         return s.fieldEquals(fldname, val);
+   }
+   
    private void resetIndex() {
       Constant searchkey = s.getVal(joinfield);
       idx.beforeFirst(searchkey);
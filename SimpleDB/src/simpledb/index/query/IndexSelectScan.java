@@ -95,4 +95,22 @@ public class IndexSelectScan implements Scan {
    public boolean hasField(String fldname) {
       return ts.hasField(fldname);
    }
+   
+   /**
+    * Compares the field of the current data record
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      return ts.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the current data record
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      return ts.fieldEquals(fldname, val);
+   }
 }
@@ -14,6 +14,10 @@ import static simpledb.file.Page.STR_SIZE;
  * sequentially.
  * Thus the client is responsible for knowing how many values
  * are in the log record, and what their types are.
+ * The values are read directly from the iterator's page,
+ * and the iterator reuses a single basic log record,
+ * so a record is only valid until the next call to
+ * {@link LogIterator#next()}.
  * @author Edward Sciore
  */
 public class BasicLogRecord {
@@ -23,7 +27,7 @@ public class BasicLogRecord {
    /**
     * A log record located at the specified position of the specified page.
     * This constructor is called exclusively by
-    * {@link LogIterator#next()}.
+    * {@link LogIterator}.
     * @param pg the page containing the log record
     * @param pos the position of the log record
     */
@@ -32,6 +36,17 @@ public class BasicLogRecord {
       this.pos = pos;
    }
 
+   /**
+    * Moves the log record to the specified position of the specified page.
+    * Called by {@link LogIterator#next()}.
+    * @param pg the page containing the log record
+    * @param pos the position of the log record
+    */
+   void moveTo(Page pg, int pos) {
+      this.pg = pg;
+      this.pos = pos;
+   }
+
    /**
     * Returns the next value of the current log record,
     * assuming it is an integer.
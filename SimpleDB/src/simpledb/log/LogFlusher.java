@@ -0,0 +1,128 @@
+package simpledb.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The group commit flusher of the log.
+ * A committing transaction queues the LSN of its commit record
+ * and waits for the returned future.
+ * The flusher takes the queued requests in batches, and flushes
+ * the log once per batch, to the largest LSN of the batch,
+ * so that a single force of the log file serves every
+ * transaction of the batch.
+ * The requests that arrive while the log is being forced
+ * form the next batch.
+ * If a batch is not full, the flusher may also wait a little
+ * for more requests, trading commit latency for fewer forces.
+ */
+class LogFlusher implements Runnable {
+   private static class Request {
+      final long lsn;
+      final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+      Request(long lsn) {
+         this.lsn = lsn;
+      }
+   }
+
+   private LogMgr logMgr;
+   private long maxWait;
+   private int batchSize;
+   private BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+   private volatile long batches = 0, requests = 0;
+
+   /**
+    * Creates a flusher for the specified log.
+    * @param logMgr the log
+    * @param maxWait the longest time to wait for a batch to fill,
+    * in microseconds; 0 flushes the requests that are queued at once
+    * @param batchSize the largest number of requests in a batch
+    */
+   LogFlusher(LogMgr logMgr, long maxWait, int batchSize) {
+      this.logMgr = logMgr;
+      this.maxWait = TimeUnit.MICROSECONDS.toNanos(maxWait);
+      this.batchSize = Math.max(1, batchSize);
+   }
+
+   /**
+    * Starts the flusher in a daemon thread.
+    */
+   void start() {
+      Thread t = new Thread(this, "simpledb-logflusher");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Queues a request to flush the log to the specified LSN.
+    * @param lsn the LSN of a log record
+    * @return a future that completes when the record is on disk
+    */
+   CompletableFuture<Void> request(long lsn) {
+      Request r = new Request(lsn);
+      queue.add(r);
+      return r.done;
+   }
+
+   public void run() {
+      List<Request> batch = new ArrayList<Request>(batchSize);
+      while (true) {
+         try {
+            batch.add(queue.take());
+            queue.drainTo(batch, batchSize - batch.size());
+            long deadline = System.nanoTime() + maxWait;
+            while (batch.size() < batchSize) {
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0)
+                  break;
+               Request r = queue.poll(remaining, TimeUnit.NANOSECONDS);
+               if (r == null)
+                  break;
+               batch.add(r);
+               queue.drainTo(batch, batchSize - batch.size());
+            }
+         }
+         catch (InterruptedException e) {
+            for (Request r : batch)
+               r.done.completeExceptionally(e);
+            return;
+         }
+         long lsn = -1;
+         for (Request r : batch)
+            lsn = Math.max(lsn, r.lsn);
+         try {
+            logMgr.flush(lsn);
+            for (Request r : batch)
+               r.done.complete(null);
+         }
+         catch (RuntimeException e) {
+            for (Request r : batch)
+               r.done.completeExceptionally(e);
+         }
+         batches++;
+         requests += batch.size();
+         batch.clear();
+      }
+   }
+
+   /**
+    * Returns the number of batches the flusher has flushed.
+    * @return the number of batches
+    */
+   long batches() {
+      return batches;
+   }
+
+   /**
+    * Returns the number of requests the flusher has served.
+    * @return the number of requests
+    */
+   long requests() {
+      return requests;
+   }
+}
@@ -4,12 +4,15 @@ import simpledb.file.Block;
 import simpledb.file.Page;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import static simpledb.file.Page.INT_SIZE;
 
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
+ * Blocks that a crash tore, which can only hold records
+ * that were not durable, are skipped, as are empty blocks.
  *
  * @author Edward Sciore
  */
@@ -17,6 +20,7 @@ class LogIterator implements Iterator<BasicLogRecord> {
    private Block blk;
    private Page pg = new Page();
    private int currentrec;
+   private BasicLogRecord rec = new BasicLogRecord(pg, 0);
 
    /**
     * Creates an iterator for the records in the log file,
@@ -26,8 +30,7 @@ class LogIterator implements Iterator<BasicLogRecord> {
     */
    LogIterator(Block blk) {
       this.blk = blk;
-      pg.read(blk);
-      currentrec = pg.getInt(LogMgr.LAST_POS);
+      readBlock();
    }
 
    /**
@@ -36,7 +39,9 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec > 0 || blk.number() > 0;
+      while (currentrec == 0 && blk.number() > 0)
+         moveToNextBlock();
+      return currentrec > 0;
    }
 
    /**
@@ -44,13 +49,16 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * If the current log record is the earliest in its block,
     * then the method moves to the next oldest block,
     * and returns the log record from there.
+    * The same basic log record is returned by every call,
+    * moved to the next record.
     * @return the next earliest log record
     */
    public BasicLogRecord next() {
-      if (currentrec == 0)
-         moveToNextBlock();
+      if (!hasNext())
+         throw new NoSuchElementException();
       currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec + INT_SIZE);
+      rec.moveTo(pg, currentrec + INT_SIZE);
+      return rec;
    }
 
    public void remove() {
@@ -63,7 +71,14 @@ class LogIterator implements Iterator<BasicLogRecord> {
     */
    private void moveToNextBlock() {
       blk = new Block(blk.fileName(), blk.number() - 1);
-      pg.read(blk);
-      currentrec = pg.getInt(LogMgr.LAST_POS);
+      readBlock();
+   }
+
+   /**
+    * Reads the current block, and positions the iterator
+    * after its last record, or at its start if the block is torn.
+    */
+   private void readBlock() {
+      currentrec = pg.tryRead(blk) ? pg.getInt(LogMgr.LAST_POS) : 0;
    }
 }
@@ -1,19 +1,16 @@
 package simpledb.log;
 
-import simpledb.buffer.Buffer;
-import simpledb.buffer.BufferMgr;
 import simpledb.file.Block;
 import simpledb.file.FileMgr;
+import simpledb.file.Page;
 import simpledb.server.SimpleDB;
 
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static simpledb.file.Page.*;
 
-// DUSTIN EXTRA IMPORT
-
 /**
  * The low-level log manager.
  * This log manager is responsible for writing log records
@@ -22,6 +19,43 @@ import static simpledb.file.Page.*;
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * <p>
+ * The end of the log is kept in a log buffer of several pages,
+ * separate from the buffer pool.
+ * The pages form a ring: block n of the log is held by page
+ * n mod the number of pages.
+ * Records are appended to the page of the last block;
+ * when it is full, the next page of the ring is cleared for the next block.
+ * When every page holds records that have not been written,
+ * the pages are written to the log file with a single I/O.
+ * A flush writes only the blocks that hold unwritten records,
+ * and then forces the log file.
+ * The last block is written again by the next flush if it had room
+ * left, so that frequent flushes, such as one per commit, fill
+ * the blocks of the log instead of leaving most of each one unused.
+ * The log is not protected by the double-write buffer:
+ * a crash that tears the rewrite of the last block loses the
+ * records of that block, which the block's checksum lets the
+ * log iterator detect and skip.
+ * The blocks are written while the log is locked, but the log file
+ * is forced without the lock, so that records can be appended meanwhile;
+ * a flush that waits for another thread's force often finds
+ * that force covered its records, and does not force again.
+ * <p>
+ * A record is appended either as an array of values, or as a
+ * {@link Loggable} that writes its values into the log buffer itself
+ * with the log's {@link LogWriter}.
+ * <p>
+ * Transactions commit through {@link #flushAsync(long)}.
+ * When group commit is started, a {@link LogFlusher flusher thread}
+ * serves the commits that are waiting with one flush per batch.
+ * <p>
+ * The LSN of a log record is the byte offset of its end in the log,
+ * that is, its block number times {@link Page#BLOCK_SIZE}
+ * plus the offset of its end in the block.
+ * LSNs thus increase with every record,
+ * and flushing the log to an LSN makes exactly the records
+ * up to that LSN durable.
  *
  * @author Edward Sciore
  */
@@ -33,28 +67,25 @@ public class LogMgr implements Iterable<BasicLogRecord> {
    public static final int LAST_POS = 0;
 
    private String logfile;
-   /**
-    * Got rid of the fileMgr page and added a buffer to take its place. Also, added a reference to the buffer manager
-    * to pin blocks to buffers and a logformatter for when pinNew needs calling.
-    * - private Page mypage = new Page();
-    * + private Buffer mybuf;
-    * + private LogFormatter fmtr = new LogFormatter();
-    * + private BufferMgr bufferMgr = SimpleDB.bufferMgr();
-    *
-    * @author Leonard
-    */
-   private Buffer mybuf;
-   private LogFormatter fmtr = new LogFormatter();
-   private BufferMgr bufferMgr = SimpleDB.bufferMgr();
-
-   private Block currentblk;
+   private Page[] pages;
+   private int currentblk;
    private int currentpos;
-
+   private int unwrittenblk;           // the first block whose page has unwritten records
+   private long lastLSN;               // the LSN of the most recent record
+   private volatile long writtenLSN;   // the records up to this LSN have been written
+   private volatile long flushedLSN;   // the records up to this LSN are on disk
+   private final Object forceLock = new Object();
+   private AtomicLong forces = new AtomicLong();
+   private volatile LogFlusher flusher;
+   private LogWriter writer = new LogWriter();
 
    /**
-    * Creates the manager for the specified log file.
+    * Creates the manager for the specified log file,
+    * with a log buffer of the specified number of pages.
     * If the log file does not yet exist, it is created
-    * with an empty first block.
+    * with an empty first block when the log is first flushed.
+    * Otherwise the log continues in the last block of the file,
+    * or in a new block if the last block was torn by a crash.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -64,36 +95,108 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * is called first.
     *
     * @param logfile the name of the log file
+    * @param numpages the number of pages of the log buffer
     */
-   public LogMgr(String logfile) {
+   public LogMgr(String logfile, int numpages) {
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0) {
-         appendNewBlock();
-      } else {
-         currentblk = new Block(logfile, logsize - 1);
-         /*
-          * Converted from page to buffer. Read is equivalent to pin
-          * - mypage.read(currentblk);
-          * + mybuf = bufferMgr.pin(currentblk);
-          *
-          * @author Leonard
-          */
-         mybuf = bufferMgr.pin(currentblk);
+      pages = new Page[Math.max(1, numpages)];
+      for (int i = 0; i < pages.length; i++)
+         pages[i] = new Page();
+      FileMgr fm = SimpleDB.fileMgr();
+      fm.disableExtents(logfile);
+      fm.disableDoubleWrite(logfile);
+      int logsize = fm.size(logfile);
+      if (logsize > 0 && tailPage(logsize - 1).tryRead(new Block(logfile, logsize - 1))) {
+         currentblk = logsize - 1;
          currentpos = getLastRecordPosition() + INT_SIZE;
       }
+      else {
+         currentblk = logsize;
+         clearTail();
+      }
+      unwrittenblk = currentblk;
+      lastLSN = writtenLSN = flushedLSN = currentLSN();
+   }
+
+   /**
+    * Starts group commit: from now on, the flushes requested by
+    * {@link #flushAsync(long)} are made by a flusher thread,
+    * one per batch of requests.
+    * Should be called once.
+    *
+    * @param maxWait the longest time the flusher waits for a batch to fill,
+    * in microseconds; 0 flushes the requests that are queued at once
+    * @param batchSize the largest number of requests in a batch
+    */
+   public void startGroupCommit(long maxWait, int batchSize) {
+      LogFlusher f = new LogFlusher(this, maxWait, batchSize);
+      f.start();
+      flusher = f;
    }
 
    /**
     * Ensures that the log records corresponding to the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * Does nothing if the record is already on disk;
+    * a negative LSN, which denotes an update that was not logged,
+    * is always on disk.
+    *
+    * @param lsn the LSN of a log record
+    */
+   public void flush(long lsn) {
+      if (lsn <= flushedLSN)
+         return;
+      synchronized (this) {
+         if (lastLSN > writtenLSN)
+            write();
+      }
+      force(lsn);
+   }
+
+   /**
+    * Requests that the log be flushed to the specified LSN,
+    * as when a transaction commits.
+    * With group commit, the request is queued for the flusher thread,
+    * which flushes once for a whole batch of requests;
+    * otherwise the log is flushed at once.
     *
     * @param lsn the LSN of a log record
+    * @return a future that completes when the record is on disk
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public CompletableFuture<Void> flushAsync(long lsn) {
+      LogFlusher f = flusher;
+      if (lsn > flushedLSN && f != null)
+         return f.request(lsn);
+      try {
+         flush(lsn);
+         return CompletableFuture.completedFuture(null);
+      }
+      catch (RuntimeException e) {
+         return CompletableFuture.failedFuture(e);
+      }
+   }
+
+   /**
+    * Returns the number of times the log file has been forced.
+    *
+    * @return the number of forces
+    */
+   public long forces() {
+      return forces.get();
+   }
+
+   /**
+    * Returns the average number of requests served by a flush
+    * of the group commit flusher.
+    *
+    * @return the average batch size, or 0 if there has been no batch
+    */
+   public double averageBatchSize() {
+      LogFlusher f = flusher;
+      if (f == null || f.batches() == 0)
+         return 0.0;
+      return (double) f.requests() / f.batches();
    }
 
    /**
@@ -104,68 +207,70 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public synchronized Iterator<BasicLogRecord> iterator() {
       flush();
-      return new LogIterator(currentblk);
+      return new LogIterator(new Block(logfile, currentblk));
    }
 
    /**
-    * Appends a log record to the file.
+    * Appends a log record to the log buffer.
     * The record contains an arbitrary array of strings and integers.
     * The method also writes an integer to the end of each log record whose value
     * is the offset of the corresponding integer for the previous log record.
     * These integers allow log records to be read in reverse order.
     *
     * @param rec the list of values
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
+   public synchronized long append(Object[] rec) {
+      int size = 0;
       for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE) { // the log record doesn't fit,
-         /*
-          * Removed flush because it is now handled in appendNewBlock
-          * - flush();
-          *
-          * @author Leonard
-          */
-         appendNewBlock();
-      }
+         size += size(obj);
+      startRecord(size);
       for (Object obj : rec) {
-         appendVal(obj);
+         if (obj instanceof String)
+            writer.writeString((String) obj);
+         else
+            writer.writeInt((Integer) obj);
       }
-      finalizeRecord();
-      return currentLSN();
+      return finishRecord();
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
+    * Appends a log record to the log buffer, as {@link #append(Object[])}
+    * does, but lets the record write its values directly into the page
+    * at the end of the log, so that no array of values is built.
     *
-    * @param val the integer or string to be added to the page
+    * @param rec the log record
+    * @return the LSN of the record
     */
-   private void appendVal(Object val) {
-      if (val instanceof String) {
-         /*
-          * Converted from page to buffer, notice LSN of -1 to denote this action doesn't need logging. (Avoid infinite
-          * loop)
-          * - mypage.setString(currentpos, (String) val);
-          * + mybuf.setString(currentpos, (String) val, currentLSN(), -1);
-          *
-          * @author Leonard
-          */
-         mybuf.setString(currentpos, (String) val, currentLSN(), -1);
-      } else {
-         /*
-          * Converted from page to buffer, notice LSN of -1 to denote this action doesn't need logging. (Avoid infinite
-          * loop)
-          * - mypage.setInt(currentpos, (Integer) val);
-          * + mybuf.setInt(currentpos, (Integer) val, currentLSN(), -1);
-          *
-          * @author Leonard
-          */
-         mybuf.setInt(currentpos, (Integer) val, currentLSN(), -1);
-      }
-      currentpos += size(val);
+   public synchronized long append(Loggable rec) {
+      startRecord(rec.logSize());
+      rec.writeTo(writer);
+      return finishRecord();
+   }
+
+   /**
+    * Positions the writer for a record whose values take the specified
+    * number of bytes, moving to the next block if the record does not fit.
+    *
+    * @param size the size of the values of the record
+    */
+   private void startRecord(int size) {
+      int recsize = size + INT_SIZE;  // 4 bytes for the integer that points to the previous log record
+      if (currentpos + recsize >= BLOCK_SIZE)  // the log record doesn't fit,
+         appendNewBlock();                     // so move to the next block
+      writer.moveTo(tail(), currentpos);
+   }
+
+   /**
+    * Ends the record whose values the writer has written.
+    *
+    * @return the LSN of the record
+    */
+   private long finishRecord() {
+      currentpos = writer.position();
+      finalizeRecord();
+      lastLSN = currentLSN();
+      return lastLSN;
    }
 
    /**
@@ -183,60 +288,92 @@ public class LogMgr implements Iterable<BasicLogRecord> {
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
+    * Returns the LSN that a record ending at
+    * the current position would have.
     *
-    * @return the LSN of the most recent log record
+    * @return the byte offset of the current position in the log
     */
-   private int currentLSN() {
-      return currentblk.number();
+   private long currentLSN() {
+      return (long) currentblk * BLOCK_SIZE + currentpos;
    }
 
    /**
-    * Writes the current page to the log file.
+    * Writes the blocks that hold unwritten records to the log file,
+    * and forces the log file to disk.
     */
    private void flush() {
-      /*
-       * Converted from page logic to buffer logic, flushAll accomplishes the same thing as write
-       * - mypage.write(currentblk);
-       * + bufferMgr.flushAll(currentLSN());
-       *
-       * @author Leonard
-       */
-      System.out.println("");
-      System.out.println("Before Flush:");
-      printLogPageBuffer();
-      bufferMgr.flushAll(currentLSN());
-      System.out.println("");
-      System.out.println("After Flush:");
-      printLogPageBuffer();
+      write();
+      force(lastLSN);
+   }
 
+   /**
+    * Writes the blocks that hold unwritten records to the log file.
+    * The last block stays unwritten, since the next records
+    * are appended to it, and it is written again with them.
+    * Called with the log locked.
+    */
+   private void write() {
+      writeBlocks(currentblk);
+      unwrittenblk = currentblk;
+      writtenLSN = lastLSN;
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Forces the log file to disk, unless a force made while
+    * this thread waited has already made the specified LSN durable.
+    * The records that were written before the force began
+    * are then on disk.
+    *
+    * @param lsn the LSN of a log record that has been written
+    */
+   private void force(long lsn) {
+      synchronized (forceLock) {
+         if (lsn <= flushedLSN)
+            return;
+         long written = writtenLSN;
+         SimpleDB.fileMgr().force(logfile);
+         forces.incrementAndGet();
+         flushedLSN = written;
+      }
+   }
+
+   /**
+    * Writes the pages of the blocks from the first unwritten block
+    * through the specified block to the log file, with a single I/O.
+    *
+    * @param lastblk the number of the last block to write
+    */
+   private void writeBlocks(int lastblk) {
+      Page[] run = new Page[lastblk - unwrittenblk + 1];
+      for (int i = 0; i < run.length; i++)
+         run[i] = pages[(unwrittenblk + i) % pages.length];
+      Page.writeBlocks(new Block(logfile, unwrittenblk), run);
+   }
+
+   /**
+    * Moves the end of the log to a new, empty block.
+    * If the page of the new block still holds unwritten records,
+    * the log buffer is full, and its blocks are written first.
     */
    private void appendNewBlock() {
-      /*
-       * Converted from page logic to buffer logic, pinning a new block for the file. Moved setLastRecordPosition to the
-       * last line since currentblk is undefined before that.
-       * - currentblk = mypage.append(logfile);
-       * + if (mybuf != null) {
-       * +    bufferMgr.unpin(mybuf);
-       * + }
-       * + mybuf = bufferMgr.pinNew(logfile, fmtr);
-       * + currentblk = mybuf.block();
-       *
-       * @author Leonard
-       */
-      currentpos = INT_SIZE;
-      if (mybuf != null) {
-         bufferMgr.unpin(mybuf);
+      if (currentblk + 1 - unwrittenblk == pages.length) {
+         writeBlocks(currentblk);
+         unwrittenblk = currentblk + 1;
+         writtenLSN = lastLSN;
       }
-      mybuf = bufferMgr.pinNew(logfile, fmtr);
-      currentblk = mybuf.block();
+      currentblk++;
+      clearTail();
+   }
+
+   /**
+    * Empties the page of the last block, for its first record.
+    */
+   private void clearTail() {
+      Page p = tail();
+      for (int pos = 0; pos + INT_SIZE <= BLOCK_SIZE; pos += INT_SIZE)
+         p.setInt(pos, 0);
       setLastRecordPosition(0);
+      currentpos = INT_SIZE;
    }
 
    /**
@@ -247,82 +384,24 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * is the offset of the integer for the last log record in the page.
     */
    private void finalizeRecord() {
-      /*
-       * Converted from page to buffer, notice LSN of -1 to denote this action doesn't need logging. (Avoid infinite
-       * loop)
-       * - mypage.setInt(currentpos, getLastRecordPosition());
-       * + mybuf.setInt(currentpos, getLastRecordPosition(), currentLSN(), -1);
-       *
-       * @author Leonard
-       */
-      mybuf.setInt(currentpos, getLastRecordPosition(), currentLSN(), -1);
+      tail().setInt(currentpos, getLastRecordPosition());
       setLastRecordPosition(currentpos);
       currentpos += INT_SIZE;
    }
 
-   /**
-    * A function to print the contents of the buffer associated with the log.
-    * + Added entire printLogPageBuffer function.
-    *
-    * @author Dustin
-    */
-   public void printLogPageBuffer() {
-//      Write   a   method   called   “ printLogPageBuffer() ”   and   call   it   to   output   the   log   page   on   the console.   The   output   can   be   in   the   following   format.
-//      Buffer   number   pinned   to   the   log   block:   xxx
-//      Contents   of   buffer   xxx:
-//      Verify  if  the  contents  of  the  buffer  are    as  expected  based  on  the  updates  made  using setInt()   and   setString()   methods.
-
-//      private Page contents = new Page();
-//      private Block blk = null;
-//      private int pins = 0;
-//      private int modifiedBy = -1;  // negative means not modified
-//      private int logSequenceNumber = -1; // negative means no corresponding log record
-
-
-      System.out.println("----------------------------------------------");
-      System.out.println("  Buffer number pinned to the log block: " + mybuf.block().number());
-
-
-      ByteBuffer byteBuffer = mybuf.getContents();
-      byte[] bb = new byte[byteBuffer.remaining()];
-      for(int i = 0; i < bb.length; i++){
-         bb[i] = byteBuffer.get(i);
-      }
-      String s = new String(bb, StandardCharsets.UTF_8);
-
-      System.out.println("  Contents of buffer:    " + s);
-      System.out.print("  Values of buffer ints: ");
-      for (int i = 0; i < bb.length; i++) {
-         System.out.print(bb[i]);
-      }
-
-
-      System.out.println("");
-
+   private Page tail() {
+      return tailPage(currentblk);
+   }
 
+   private Page tailPage(int blknum) {
+      return pages[blknum % pages.length];
    }
 
    private int getLastRecordPosition() {
-      /*
-       * Converted from page to buffer
-       * - return mypage.getInt(LAST_POS);
-       * + return mybuf.getInt(LAST_POS);
-       *
-       * @author Leonard
-       */
-      return mybuf.getInt(LAST_POS);
+      return tail().getInt(LAST_POS);
    }
 
    private void setLastRecordPosition(int pos) {
-      /*
-       * Converted from page to buffer, notice LSN of -1 to denote this action doesn't need logging. (Avoid infinite
-       * loop)
-       * - mypage.setInt(LAST_POS, pos);
-       * + mybuf.setInt(LAST_POS, pos, currentLSN(), -1);
-       *
-       * @author Leonard
-       */
-      mybuf.setInt(LAST_POS, pos, currentLSN(), -1);
+      tail().setInt(LAST_POS, pos);
    }
-
 }
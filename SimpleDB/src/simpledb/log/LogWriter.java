@@ -0,0 +1,68 @@
+package simpledb.log;
+
+import simpledb.file.Page;
+
+import static simpledb.file.Page.INT_SIZE;
+import static simpledb.file.Page.STR_SIZE;
+
+/**
+ * Writes the values of a log record directly into the log buffer.
+ * The log manager has a single writer, which it positions at the
+ * end of the log before passing it to {@link Loggable#writeTo(LogWriter)},
+ * so appending a record allocates nothing.
+ * The values take the same space as when a record is appended
+ * as an array of values.
+ */
+public class LogWriter {
+   private Page page;
+   private int pos;
+
+   LogWriter() {}
+
+   /**
+    * Positions the writer at the specified offset of the specified page.
+    * @param page the page at the end of the log
+    * @param pos the offset of the next value
+    */
+   void moveTo(Page page, int pos) {
+      this.page = page;
+      this.pos = pos;
+   }
+
+   /**
+    * Returns the offset after the values written so far.
+    * @return the offset of the next value
+    */
+   int position() {
+      return pos;
+   }
+
+   /**
+    * Writes an integer value of the log record.
+    * @param val the value
+    */
+   public void writeInt(int val) {
+      page.setInt(pos, val);
+      pos += INT_SIZE;
+   }
+
+   /**
+    * Writes a string value of the log record.
+    * @param val the value
+    */
+   public void writeString(String val) {
+      page.setString(pos, val);
+      pos += STR_SIZE(val.length());
+   }
+
+   /**
+    * Writes a string value of the log record by copying it,
+    * as it is stored, from the specified page.
+    * The value then takes {@link Page#stringSize(int)} bytes.
+    * @param src the page holding the string
+    * @param offset the byte offset of the string in the page
+    */
+   public void writeString(Page src, int offset) {
+      pos += src.copyString(offset, page, pos);
+   }
+}
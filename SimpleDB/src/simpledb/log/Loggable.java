@@ -0,0 +1,22 @@
+package simpledb.log;
+
+/**
+ * A log record that writes its own values into the log,
+ * instead of first building an array of them.
+ * The values are read back, in the same order, by {@link BasicLogRecord}.
+ */
+public interface Loggable {
+   /**
+    * Returns the space that the record's values take in the log,
+    * in bytes: {@link simpledb.file.Page#INT_SIZE} for an integer
+    * and {@link simpledb.file.Page#STR_SIZE(int)} of its length for a string.
+    * @return the size of the values
+    */
+   int logSize();
+
+   /**
+    * Writes the record's values with the specified writer.
+    * @param w the writer, positioned at the end of the log
+    */
+   void writeTo(LogWriter w);
+}
@@ -58,8 +58,7 @@ public class GroupByScan implements Scan {
          fn.processFirst(s);
       groupval = new GroupValue(s, groupfields);
       while(moregroups = s.next()) {
-         GroupValue gv = new GroupValue(s, groupfields);
-         if (!groupval.equals(gv))
+         if (!groupval.matches(s))
             break;
          for (AggregationFn fn : aggfns)
             fn.processNext(s);
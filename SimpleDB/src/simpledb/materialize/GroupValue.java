@@ -35,6 +35,21 @@ public class GroupValue {
       return vals.get(fldname);
    }
    
+   /**
+    * Returns true if the current record of the specified scan
+    * has the values of this group.
+    * The fields are compared in place by the scan,
+    * so no group value is created for the record.
+    * @param s a scan
+    * @return true if the record belongs to this group
+    */
+   public boolean matches(Scan s) {
+      for (Map.Entry<String,Constant> e : vals.entrySet())
+         if (!s.fieldEquals(e.getKey(), e.getValue()))
+            return false;
+      return true;
+   }
+   
    /** 
     * Two GroupValue objects are equal if they have the same values
     * for their grouping fields. 
@@ -1,6 +1,7 @@
 package simpledb.materialize;
 
 import static simpledb.file.Page.BLOCK_SIZE;
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -26,14 +27,17 @@ public class MaterializePlan implements Plan {
    /**
     * This method loops through the underlying query,
     * copying its output records into a temporary table.
-    * It then returns a table scan for that table.
+    * It then returns a table scan for that table,
+    * which deletes the table when it is closed.
+    * A large temporary table is written and read
+    * through a buffer ring.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
       Schema sch = srcplan.schema();
       TempTable temp = new TempTable(sch, tx);
       Scan src = srcplan.open();
-      UpdateScan dest = temp.open();
+      UpdateScan dest = temp.openLast(SimpleDB.bufferMgr().scanRing(blocksAccessed()));
       while (src.next()) {
          dest.insert();
          for (String fldname : sch.fields())
@@ -62,21 +62,20 @@ public class MergeJoinScan implements Scan {
     */
    public boolean next() {
       boolean hasmore2 = s2.next();
-      if (hasmore2 && s2.getVal(fldname2).equals(joinval))
+      if (hasmore2 && s2.fieldEquals(fldname2, joinval))
          return true;
       
       boolean hasmore1 = s1.next();
-      if (hasmore1 && s1.getVal(fldname1).equals(joinval)) {
+      if (hasmore1 && s1.fieldEquals(fldname1, joinval)) {
          s2.restorePosition();
          return true;
       }
       
       while (hasmore1 && hasmore2) {
-         Constant v1 = s1.getVal(fldname1);
-         Constant v2 = s2.getVal(fldname2);
-         if (v1.compareTo(v2) < 0)
+         int cmp = s1.compareField(fldname1, s2, fldname2);
+         if (cmp < 0)
             hasmore1 = s1.next();
-         else if (v1.compareTo(v2) > 0)
+         else if (cmp > 0)
             hasmore2 = s2.next();
          else {
             s2.savePosition();
@@ -134,5 +133,29 @@ public class MergeJoinScan implements Scan {
    public boolean hasField(String fldname) {
       return s1.hasField(fldname) || s2.hasField(fldname);
    }
+   
+   /**
+    * Compares the field of the underlying scan that contains it
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      if (s1.hasField(fldname))
+         return s1.compareField(fldname, other, otherfld);
+      else
+         return s2.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the underlying scan that contains it
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      if (s1.hasField(fldname))
+         return s1.fieldEquals(fldname, val);
+      else
+         return s2.fieldEquals(fldname, val);
+   }
 }
 
@@ -27,15 +27,15 @@ public class RecordComparator implements Comparator<Scan> {
     * of the comparison.
     * If the two records have the same values for all
     * sort fields, then the method returns 0.
+    * The fields are compared in place by the scans,
+    * without creating constants.
     * @param s1 the first scan
     * @param s2 the second scan
     * @return the result of comparing each scan's current record according to the field list
     */
    public int compare(Scan s1, Scan s2) {
       for (String fldname : fields) {
-         Constant val1 = s1.getVal(fldname);
-         Constant val2 = s2.getVal(fldname);
-         int result = val1.compareTo(val2);
+         int result = s1.compareField(fldname, s2, fldname);
          if (result != 0)
             return result;
       }
@@ -1,5 +1,7 @@
 package simpledb.materialize;
 
+import simpledb.server.SimpleDB;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.query.*;
@@ -15,6 +17,7 @@ public class SortPlan implements Plan {
    private Transaction tx;
    private Schema sch;
    private RecordComparator comp;
+   private int tempblocks;
    
    /**
     * Creates a sort plan for the specified query.
@@ -33,9 +36,12 @@ public class SortPlan implements Plan {
     * This method is where most of the action is.
     * Up to 2 sorted temporary tables are created,
     * and are passed into SortScan for final merging.
+    * When the sorted table is large compared to the buffer pool,
+    * the runs are written and merged through buffer rings.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      tempblocks = blocksAccessed();
       Scan src = p.open();
       List<TempTable> runs = splitIntoRuns(src);
       src.close();
@@ -93,14 +99,14 @@ public class SortPlan implements Plan {
          return temps;
       TempTable currenttemp = new TempTable(sch, tx);
       temps.add(currenttemp);
-      UpdateScan currentscan = currenttemp.open();
+      UpdateScan currentscan = currenttemp.open(tempRing());
       while (copy(src, currentscan))
          if (comp.compare(src, currentscan) < 0) {
          // start a new run
          currentscan.close();
          currenttemp = new TempTable(sch, tx);
          temps.add(currenttemp);
-         currentscan = (UpdateScan) currenttemp.open();
+         currentscan = currenttemp.open(tempRing());
       }
       currentscan.close();
       return temps;
@@ -119,10 +125,11 @@ public class SortPlan implements Plan {
    }
    
    private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
+      // the runs are deleted once they have been merged
+      Scan src1 = p1.openLast(tempRing());
+      Scan src2 = p2.openLast(tempRing());
       TempTable result = new TempTable(sch, tx);
-      UpdateScan dest = result.open();
+      UpdateScan dest = result.open(tempRing());
       
       boolean hasmore1 = src1.next();
       boolean hasmore2 = src2.next();
@@ -144,6 +151,10 @@ public class SortPlan implements Plan {
       return result;
    }
    
+   private BufferRing tempRing() {
+      return SimpleDB.bufferMgr().scanRing(tempblocks);
+   }
+   
    private boolean copy(Scan src, UpdateScan dest) {
       dest.insert();
       for (String fldname : sch.fields())
@@ -22,15 +22,16 @@ public class SortScan implements Scan {
     * Creates a sort scan, given a list of 1 or 2 runs.
     * If there is only 1 run, then s2 will be null and
     * hasmore2 will be false.
+    * The runs are deleted when the scan is closed.
     * @param runs the list of runs
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
       this.comp = comp;
-      s1 = (UpdateScan) runs.get(0).open();
+      s1 = (UpdateScan) runs.get(0).openLast(null);
       hasmore1 = s1.next();
       if (runs.size() > 1) {
-         s2 = (UpdateScan) runs.get(1).open();
+         s2 = (UpdateScan) runs.get(1).openLast(null);
          hasmore2 = s2.next();
       }
    }
@@ -83,7 +84,8 @@ public class SortScan implements Scan {
    }
    
    /**
-    * Closes the two underlying scans.
+    * Closes the two underlying scans,
+    * which deletes their runs.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
@@ -127,6 +129,24 @@ public class SortScan implements Scan {
       return currentscan.hasField(fldname);
    }
    
+   /**
+    * Compares the field of the current scan
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      return currentscan.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the current scan
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      return currentscan.fieldEquals(fldname, val);
+   }
+   
    /**
     * Saves the position of the current record,
     * so that it can be restored at a later time.
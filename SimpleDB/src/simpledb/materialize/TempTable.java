@@ -1,6 +1,8 @@
 package simpledb.materialize;
 
+import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 import simpledb.query.*;
 
@@ -9,12 +11,15 @@ import simpledb.query.*;
  * A temporary table is not registered in the catalog.
  * The class therefore has a method getTableInfo to return the 
  * table's metadata. 
+ * A temporary table is deleted when it is no longer needed,
+ * which frees its buffers and closes its file.
  * @author Edward Sciore
  */
 public class TempTable {
    private static int nextTableNum = 0;
    private TableInfo ti;
    private Transaction tx;
+   private boolean deleted = false;
    
    /**
     * Allocates a name for for a new temporary table
@@ -35,6 +40,43 @@ public class TempTable {
       return new TableScan(ti, tx);
    }
    
+   /**
+    * Opens a table scan for the temporary table,
+    * which reads and writes its blocks through the specified buffer ring.
+    * @param ring the scan's buffer ring, or null
+    */
+   public UpdateScan open(BufferRing ring) {
+      return new TableScan(ti, tx, ring);
+   }
+   
+   /**
+    * Opens the last table scan of the temporary table,
+    * which deletes the table when it is closed.
+    * @param ring the scan's buffer ring, or null
+    */
+   public UpdateScan openLast(BufferRing ring) {
+      return new TableScan(ti, tx, ring) {
+         public void close() {
+            super.close();
+            TempTable.this.delete();
+         }
+      };
+   }
+   
+   /**
+    * Deletes the temporary table, whose scans must all be closed.
+    * Its buffers are emptied without being written to disk,
+    * and its file is deleted.
+    * Deleting a table a second time has no effect.
+    */
+   public synchronized void delete() {
+      if (deleted)
+         return;
+      deleted = true;
+      SimpleDB.bufferMgr().discard(ti.fileName());
+      SimpleDB.fileMgr().deleteTempFile(ti.fileName());
+   }
+   
    /**
     * Return the table's metadata.
     * @return the table's metadata
@@ -64,7 +64,8 @@ public class IndexInfo {
    public int blocksAccessed() {
       TableInfo idxti = new TableInfo("", schema());
       int rpb = BLOCK_SIZE / idxti.recordLength();
-      int numblocks = si.recordsOutput() / rpb;
+      // with large blocks a small index may fit in a single block
+      int numblocks = Math.max(1, (si.recordsOutput() + rpb - 1) / rpb);
       // Call HashIndex.searchCost for hash indexing
       return HashIndex.searchCost(numblocks, rpb);
    }
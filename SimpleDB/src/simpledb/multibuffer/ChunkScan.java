@@ -4,6 +4,7 @@ import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
 import simpledb.record.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 
 import java.util.ArrayList;
@@ -27,14 +28,33 @@ public class ChunkScan implements Scan {
     * @param tx the current transaction
     */ 
    public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx) {
+      this(ti, startbnum, endbnum, tx, null);
+   }
+   
+   /**
+    * Creates a chunk consisting of the specified pages,
+    * which are read into the specified buffer ring.
+    * Successive chunks of a table can share a ring
+    * as large as a chunk, so that each chunk reuses
+    * the buffers of the previous one.
+    * The ring is not released when the chunk is closed.
+    * @param ti the metadata for the chunked table
+    * @param startbnum the starting block number
+    * @param endbnum  the ending block number
+    * @param tx the current transaction
+    * @param ring the buffer ring, or null
+    */ 
+   public ChunkScan(TableInfo ti, int startbnum, int endbnum, Transaction tx, BufferRing ring) {
       pages = new ArrayList<RecordPage>();
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
       this.sch = ti.schema();
       String filename = ti.fileName();
+      // read the whole chunk in the background while its pages are pinned
+      tx.prefetch(filename, startbnum, endbnum - startbnum + 1, ring);
       for (int i=startbnum; i<=endbnum; i++) {
          Block blk = new Block(filename, i);
-         pages.add(new RecordPage(blk, ti, tx));
+         pages.add(new RecordPage(blk, ti, tx, ring));
       }
       beforeFirst();
    }
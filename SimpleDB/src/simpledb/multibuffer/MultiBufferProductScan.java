@@ -1,7 +1,10 @@
 package simpledb.multibuffer;
 
+import simpledb.server.SimpleDB;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 import simpledb.record.TableInfo;
+import simpledb.materialize.TempTable;
 import simpledb.query.*;
 
 /** 
@@ -14,6 +17,8 @@ public class MultiBufferProductScan implements Scan {
    private TableInfo ti;
    private Transaction tx;
    private int chunksize, nextblknum, filesize;
+   private BufferRing ring = null;
+   private TempTable temp = null;
    
    
    /**
@@ -28,9 +33,24 @@ public class MultiBufferProductScan implements Scan {
       this.tx = tx;
       filesize = tx.size(ti.fileName());
       chunksize = BufferNeeds.bestFactor(filesize);
+      // successive chunks recycle the buffers of the previous chunk
+      if (filesize > chunksize)
+         ring = SimpleDB.bufferMgr().newRing(chunksize);
       beforeFirst();
    }
    
+   /**
+    * Creates the scan class for the product of the LHS scan
+    * and a temporary table, which is deleted when the scan is closed.
+    * @param lhsscan the LHS scan
+    * @param temp the RHS temporary table
+    * @param tx the current transaction
+    */
+   public MultiBufferProductScan(Scan lhsscan, TempTable temp, Transaction tx) {
+      this(lhsscan, temp.getTableInfo(), tx);
+      this.temp = temp;
+   }
+   
    /**
     * Positions the scan before the first record.
     * That is, the LHS scan is positioned at its first record,
@@ -58,11 +78,16 @@ public class MultiBufferProductScan implements Scan {
    }
    
    /**
-    * Closes the current scans.
+    * Closes the current scans,
+    * and deletes the temporary table of the RHS, if there is one.
     * @see simpledb.query.Scan#close()
     */
    public void close() {
       prodscan.close();
+      if (ring != null)
+         ring.release();
+      if (temp != null)
+         temp.delete();
    }
    
    /** 
@@ -104,6 +129,24 @@ public class MultiBufferProductScan implements Scan {
       return prodscan.hasField(fldname);
    }
    
+   /**
+    * Compares the field of the product scan
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      return prodscan.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the product scan
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      return prodscan.fieldEquals(fldname, val);
+   }
+   
    private boolean useNextChunk() {
       if (rhsscan != null)
          rhsscan.close();
@@ -112,7 +155,7 @@ public class MultiBufferProductScan implements Scan {
       int end = nextblknum + chunksize - 1;
       if (end >= filesize)
          end = filesize - 1;
-      rhsscan = new ChunkScan(ti, nextblknum, end, tx);
+      rhsscan = new ChunkScan(ti, nextblknum, end, tx, ring);
       lhsscan.beforeFirst();
       prodscan = new ProductScan(lhsscan, rhsscan);
       nextblknum = end + 1;
@@ -105,4 +105,28 @@ public class ProductScan implements Scan {
    public boolean hasField(String fldname) {
       return s1.hasField(fldname) || s2.hasField(fldname);
    }
+   
+   /**
+    * Compares the field of the underlying scan that contains it
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      if (s1.hasField(fldname))
+         return s1.compareField(fldname, other, otherfld);
+      else
+         return s2.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the underlying scan that contains it
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      if (s1.hasField(fldname))
+         return s1.fieldEquals(fldname, val);
+      else
+         return s2.fieldEquals(fldname, val);
+   }
 }
@@ -65,4 +65,28 @@ public class ProjectScan implements Scan {
    public boolean hasField(String fldname) {
       return fieldlist.contains(fldname);
    }
+   
+   /**
+    * Compares the field of the underlying scan, if it is in the projection list,
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      if (hasField(fldname))
+         return s.compareField(fldname, other, otherfld);
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+   }
+   
+   /**
+    * Compares the field of the underlying scan, if it is in the projection list,
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      if (hasField(fldname))
+         return s.fieldEquals(fldname, val);
+      else
+         throw new RuntimeException("field " + fldname + " not found.");
+   }
 }
@@ -54,4 +54,34 @@ public interface Scan {
     * @return true if the scan has that field
     */
    public boolean  hasField(String fldname);
+   
+   /**
+    * Compares the specified field of the current record
+    * with a field of the current record of another scan,
+    * which may be this scan.
+    * A scan that reads records from pages compares them
+    * in place, without creating constants or strings;
+    * the default compares the values of the fields.
+    * @param fldname the name of the field
+    * @param other the other scan
+    * @param otherfld the name of the field in the other scan
+    * @return a negative value, zero, or a positive value if this field
+    * is less than, equal to, or greater than the other field
+    */
+   default int compareField(String fldname, Scan other, String otherfld) {
+      return getVal(fldname).compareTo(other.getVal(otherfld));
+   }
+   
+   /**
+    * Returns true if the specified field of the current record
+    * equals the specified constant.
+    * A scan that reads records from pages compares them
+    * in place; the default compares the value of the field.
+    * @param fldname the name of the field
+    * @param val the constant
+    * @return true if the field has that value
+    */
+   default boolean fieldEquals(String fldname, Constant val) {
+      return getVal(fldname).equals(val);
+   }
 }
@@ -64,6 +64,24 @@ public class SelectScan implements UpdateScan {
       return s.hasField(fldname);
    }
    
+   /**
+    * Compares the field of the underlying scan
+    * with a field of another scan.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      return s.compareField(fldname, other, otherfld);
+   }
+   
+   /**
+    * Compares the field of the underlying scan
+    * with the constant.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      return s.fieldEquals(fldname, val);
+   }
+   
    // UpdateScan methods
    
    public void setVal(String fldname, Constant val) {
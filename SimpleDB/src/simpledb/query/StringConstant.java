@@ -1,11 +1,14 @@
 package simpledb.query;
 
+import simpledb.file.Page;
+
 /**
  * The class that wraps Java strings as database constants.
  * @author Edward Sciore
  */
 public class StringConstant implements Constant {
    private String val;
+   private byte[] encoded;
    
    /**
     * Create a constant by wrapping the specified string.
@@ -23,6 +26,19 @@ public class StringConstant implements Constant {
       return val;
    }
    
+   /**
+    * Returns the string as it is encoded in a page,
+    * for comparison with the strings of records.
+    * The encoding is computed once.
+    * @return the encoded string
+    * @see Page#encode(String)
+    */
+   public byte[] encoded() {
+      if (encoded == null)
+         encoded = Page.encode(val);
+      return encoded;
+   }
+   
    public boolean equals(Object obj) {
       StringConstant sc = (StringConstant) obj;
       return sc != null && val.equals(sc.val);
@@ -27,10 +27,13 @@ public class TablePlan implements Plan {
    
    /**
     * Creates a table scan for this query.
+    * A table that is large compared to the buffer pool
+    * is scanned through a buffer ring,
+    * so that the scan does not evict the pages of other queries.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
-      return new TableScan(ti, tx);
+      return new TableScan(ti, tx, SimpleDB.bufferMgr().scanRing(blocksAccessed()));
    }
    
    /**
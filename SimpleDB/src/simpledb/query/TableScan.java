@@ -2,6 +2,7 @@ package simpledb.query;
 
 import static java.sql.Types.INTEGER;
 import simpledb.tx.Transaction;
+import simpledb.buffer.BufferRing;
 import simpledb.record.*;
 
 /**
@@ -15,6 +16,7 @@ import simpledb.record.*;
 public class TableScan implements UpdateScan {
    private RecordFile rf;
    private Schema sch;
+   private BufferRing ring;
    
    /**
     * Creates a new table scan,
@@ -23,8 +25,21 @@ public class TableScan implements UpdateScan {
     * @param tx the calling transaction
     */
    public TableScan(TableInfo ti, Transaction tx) {
-      rf  = new RecordFile(ti, tx);
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Creates a new table scan whose blocks go through
+    * the specified buffer ring instead of the shared pool.
+    * The ring is released when the scan is closed.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @param ring the scan's buffer ring, or null
+    */
+   public TableScan(TableInfo ti, Transaction tx, BufferRing ring) {
+      rf  = new RecordFile(ti, tx, ring);
       sch = ti.schema();
+      this.ring = ring;
    }
    
    // Scan methods
@@ -39,6 +54,8 @@ public class TableScan implements UpdateScan {
    
    public void close() {
       rf.close();
+      if (ring != null)
+         ring.release();
    }
    
    /**
@@ -67,6 +84,32 @@ public class TableScan implements UpdateScan {
       return sch.hasField(fldname);
    }
    
+   /**
+    * Compares the field in place with a field of another scan.
+    * If the other scan is a table scan, the record files
+    * compare the fields; otherwise the other scan is asked
+    * to compare its field with this one, so that a scan that
+    * wraps a table scan can pass the comparison on to it.
+    * @see simpledb.query.Scan#compareField(java.lang.String, simpledb.query.Scan, java.lang.String)
+    */
+   public int compareField(String fldname, Scan other, String otherfld) {
+      if (other instanceof TableScan)
+         return rf.compareField(fldname, ((TableScan) other).rf, otherfld);
+      return -Integer.signum(other.compareField(otherfld, this, fldname));
+   }
+   
+   /**
+    * Compares the field in place with the constant.
+    * A string constant is compared through its encoding.
+    * @see simpledb.query.Scan#fieldEquals(java.lang.String, simpledb.query.Constant)
+    */
+   public boolean fieldEquals(String fldname, Constant val) {
+      if (sch.type(fldname) == INTEGER)
+         return val instanceof IntConstant && (Integer) val.asJavaVal() == rf.getInt(fldname);
+      else
+         return val instanceof StringConstant && rf.fieldEquals(fldname, ((StringConstant) val).encoded());
+   }
+   
    // UpdateScan methods
    
    /**
@@ -108,13 +108,19 @@ public class Term {
     * Returns true if both of the term's expressions
     * evaluate to the same constant,
     * with respect to the specified scan.
+    * Fields are compared in place by the scan,
+    * without creating constants for them.
     * @param s the scan
     * @return true if both expressions have the same value in the scan
     */
    public boolean isSatisfied(Scan s) {
-      Constant lhsval = lhs.evaluate(s);
-      Constant rhsval = rhs.evaluate(s);
-      return rhsval.equals(lhsval);
+      if (lhs.isFieldName() && rhs.isFieldName())
+         return s.compareField(lhs.asFieldName(), s, rhs.asFieldName()) == 0;
+      if (lhs.isFieldName())
+         return s.fieldEquals(lhs.asFieldName(), rhs.asConstant());
+      if (rhs.isFieldName())
+         return s.fieldEquals(rhs.asFieldName(), lhs.asConstant());
+      return rhs.asConstant().equals(lhs.asConstant());
    }
    
    public String toString() {
@@ -0,0 +1,198 @@
+package simpledb.record;
+
+import static simpledb.file.Page.*;
+import simpledb.file.Block;
+import simpledb.file.Page;
+import simpledb.buffer.PageFormatter;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The free-space map of a table.
+ * The map is a separate file that holds one integer per block of the table:
+ * the number of empty slots in the block plus one,
+ * or 0 if the block has not been examined yet
+ * (such as the blocks of a table created before maps existed).
+ * An insertion asks the map for a block that may have room,
+ * instead of searching the table from its first block.
+ * <p>
+ * The map is only a hint.  It is read, written and extended without
+ * locks or log records, so a crash can leave it out of date.
+ * An entry that overstates the free space of a block is corrected
+ * when an insertion finds the block full; an entry that understates it
+ * is corrected by the next deletion from the block.
+ * The entries of the blocks that a transaction inserted into are
+ * counted again from the blocks if the transaction rolls back,
+ * since the undone insertions leave free slots that the map
+ * has counted as used.
+ * <p>
+ * The first integer of the map holds the block from which searches start,
+ * so that the full blocks at the start of a large table
+ * are skipped without reading their entries again;
+ * the entry of block b follows it, at position b+1.
+ */
+class FreeSpaceMap {
+   private static final int UNKNOWN = 0;
+   private static final int START = 0;  // the position of the search start
+   private TableInfo ti;
+   private Transaction tx;
+   private String tblfile, fsmfile;
+   private int entriesPerBlock;
+   private Set<Integer> inserted = null;  // the blocks inserted into, for a rollback
+
+   /**
+    * Creates an object to manage the free-space map of the specified table.
+    * If the map file does not exist, it is created when
+    * an entry is first recorded.
+    * @param ti the table's metadata
+    * @param tx the transaction
+    */
+   FreeSpaceMap(TableInfo ti, Transaction tx) {
+      this.ti = ti;
+      this.tx = tx;
+      tblfile = ti.fileName();
+      fsmfile = ti.fsmFileName();
+      entriesPerBlock = BLOCK_SIZE / INT_SIZE;
+   }
+
+   /**
+    * Returns the number of a block of the table that may
+    * have an empty slot, or -1 if every block is known to be full.
+    * @return a block number, or -1
+    */
+   int findBlockWithRoom() {
+      int nblocks = tx.size(tblfile);
+      int mapsize = SimpleDB.fileMgr().size(fsmfile);
+      int start = get(START);
+      int b = start;
+      while (b < nblocks) {
+         int mapblknum = (b + 1) / entriesPerBlock;
+         if (mapblknum >= mapsize)
+            break;  // the block has no entry yet
+         Block mapblk = new Block(fsmfile, mapblknum);
+         tx.pin(mapblk);
+         try {
+            for (; b < nblocks && (b + 1) / entriesPerBlock == mapblknum; b++)
+               if (tx.getHint(mapblk, offset(b + 1)) != 1)
+                  break;
+         }
+         finally {
+            tx.unpin(mapblk);
+         }
+         if (b < nblocks && (b + 1) / entriesPerBlock == mapblknum)
+            break;  // found a block that is not full
+      }
+      if (b != start)
+         set(START, b);
+      return (b < nblocks) ? b : -1;
+   }
+
+   /**
+    * Records that a record has been inserted into the specified block.
+    * If the block has not been examined before, its empty slots are counted.
+    * @param blknum the number of the block
+    * @param rp the record page of the block
+    */
+   void recordInsert(int blknum, RecordPage rp) {
+      int entry = get(blknum + 1);
+      set(blknum + 1, (entry == UNKNOWN) ? rp.freeSlots() + 1 : Math.max(entry - 1, 1));
+      if (inserted == null) {
+         inserted = new HashSet<Integer>();
+         tx.onRollback(this::recount);
+      }
+      inserted.add(blknum);
+   }
+
+   /**
+    * Records that the specified block has no empty slot.
+    * @param blknum the number of the block
+    */
+   void recordFull(int blknum) {
+      set(blknum + 1, 1);
+   }
+
+   /**
+    * Records that a record has been deleted from the specified block,
+    * and makes later searches consider the block again.
+    * @param blknum the number of the block
+    */
+   void recordDelete(int blknum) {
+      int entry = get(blknum + 1);
+      if (entry != UNKNOWN)
+         set(blknum + 1, entry + 1);
+      lowerStart(blknum);
+   }
+
+   /**
+    * Counts the empty slots of the blocks that the transaction
+    * inserted into again, after its insertions have been undone.
+    */
+   private void recount() {
+      for (int blknum : inserted) {
+         RecordPage rp = new RecordPage(new Block(tblfile, blknum), ti, tx);
+         try {
+            set(blknum + 1, rp.freeSlots() + 1);
+         }
+         finally {
+            rp.close();
+         }
+         lowerStart(blknum);
+      }
+   }
+
+   private void lowerStart(int blknum) {
+      if (blknum < get(START))
+         set(START, blknum);
+   }
+
+   /**
+    * Returns the integer at the specified position of the map,
+    * or 0 if the map does not extend that far.
+    */
+   private int get(int pos) {
+      Block mapblk = new Block(fsmfile, pos / entriesPerBlock);
+      if (mapblk.number() >= SimpleDB.fileMgr().size(fsmfile))
+         return UNKNOWN;
+      tx.pin(mapblk);
+      try {
+         return tx.getHint(mapblk, offset(pos));
+      }
+      finally {
+         tx.unpin(mapblk);
+      }
+   }
+
+   /**
+    * Stores an integer at the specified position of the map,
+    * extending the map if necessary.
+    */
+   private void set(int pos, int val) {
+      Block mapblk = new Block(fsmfile, pos / entriesPerBlock);
+      while (mapblk.number() >= SimpleDB.fileMgr().size(fsmfile))
+         tx.appendHint(fsmfile, new MapFormatter());
+      tx.pin(mapblk);
+      try {
+         tx.setHint(mapblk, offset(pos), val);
+      }
+      finally {
+         tx.unpin(mapblk);
+      }
+   }
+
+   private int offset(int pos) {
+      return (pos % entriesPerBlock) * INT_SIZE;
+   }
+
+   /**
+    * Formats a new block of the map, whose entries are all unknown.
+    */
+   private static class MapFormatter implements PageFormatter {
+      public void format(Page page) {
+         for (int pos = 0; pos + INT_SIZE <= BLOCK_SIZE; pos += INT_SIZE)
+            page.setInt(pos, UNKNOWN);
+      }
+   }
+}
@@ -1,12 +1,17 @@
 package simpledb.record;
 
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * Insertions and deletions keep the table's
+ * {@link FreeSpaceMap free-space map} up to date,
+ * except for temporary tables, which are only appended to,
+ * and tables whose map is disabled (see {@link TableInfo#hasFreeSpaceMap()}).
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +20,8 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private BufferRing ring;
+   private FreeSpaceMap fsm;
    
    /**
     * Constructs an object to manage a file of records.
@@ -23,9 +30,25 @@ public class RecordFile {
     * @param tx the transaction
     */
    public RecordFile(TableInfo ti, Transaction tx) {
+      this(ti, tx, null);
+   }
+   
+   /**
+    * Constructs an object to manage a file of records,
+    * whose blocks are read and appended through the specified
+    * buffer ring.
+    * If the file does not exist, it is created.
+    * @param ti the table metadata
+    * @param tx the transaction
+    * @param ring the buffer ring of the scan, or null
+    */
+   public RecordFile(TableInfo ti, Transaction tx, BufferRing ring) {
       this.ti = ti;
       this.tx = tx;
+      this.ring = ring;
       filename = ti.fileName();
+      if (ti.hasFreeSpaceMap())
+         fsm = new FreeSpaceMap(ti, tx);
       if (tx.size(filename) == 0)
          appendBlock();
       moveTo(0);
@@ -81,6 +104,32 @@ public class RecordFile {
       return rp.getString(fldname);
    }
    
+   /**
+    * Compares the specified field of the current record
+    * with a field of the current record of another record file,
+    * which may be this file.
+    * @param fldname the name of the field
+    * @param other the other record file
+    * @param otherfld the name of the field in the other file
+    * @return a negative value, zero, or a positive value if this field
+    * is less than, equal to, or greater than the other field
+    * @see RecordPage#compareField(String, RecordPage, String)
+    */
+   public int compareField(String fldname, RecordFile other, String otherfld) {
+      return rp.compareField(fldname, other.rp, otherfld);
+   }
+   
+   /**
+    * Returns true if the specified string field of the
+    * current record equals an encoded string.
+    * @param fldname the name of the field
+    * @param encoded a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the field holds that string
+    */
+   public boolean fieldEquals(String fldname, byte[] encoded) {
+      return rp.fieldEquals(fldname, encoded);
+   }
+   
    /**
     * Sets the value of the specified field 
     * in the current record.
@@ -110,19 +159,37 @@ public class RecordFile {
     */
    public void delete() {
       rp.delete();
+      if (fsm != null)
+         fsm.recordDelete(currentblknum);
    }
    
    /**
-    * Inserts a new, blank record somewhere in the file
+    * Inserts a new, blank record somewhere in the file.
+    * The free-space map is asked for a block that has room;
+    * if no block has room, a new block is appended to the file.
+    * A table without a map has its records inserted
     * beginning at the current record.
-    * If the new record does not fit into an existing block,
-    * then a new block is appended to the file.
     */
    public void insert() {
-      while (!rp.insert()) {
-         if (atLastBlock())
-            appendBlock();
-         moveTo(currentblknum + 1);
+      if (fsm == null) {
+         while (!rp.insert()) {
+            if (atLastBlock())
+               appendBlock();
+            moveTo(currentblknum + 1);
+         }
+         return;
+      }
+      while (true) {
+         int b = fsm.findBlockWithRoom();
+         if (b < 0)
+            b = appendBlock();
+         if (b != currentblknum)
+            moveTo(b);
+         if (rp.insert()) {
+            fsm.recordInsert(b, rp);
+            return;
+         }
+         fsm.recordFull(b);
       }
    }
    
@@ -150,15 +217,15 @@ public class RecordFile {
          rp.close();
       currentblknum = b;
       Block blk = new Block(filename, currentblknum);
-      rp = new RecordPage(blk, ti, tx);
+      rp = new RecordPage(blk, ti, tx, ring);
    }
    
    private boolean atLastBlock() {
       return currentblknum == tx.size(filename) - 1;
    }
    
-   private void appendBlock() {
+   private int appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      return tx.append(filename, fmtr, ring).number();
    }
 }
\ No newline at end of file
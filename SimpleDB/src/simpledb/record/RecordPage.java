@@ -1,7 +1,9 @@
 package simpledb.record;
 
+import static java.sql.Types.INTEGER;
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
 
 /**
@@ -24,11 +26,23 @@ public class RecordPage {
      * @param tx the transaction performing the operations
      */
    public RecordPage(Block blk, TableInfo ti, Transaction tx) {
+      this(blk, ti, tx, null);
+   }
+   
+   /** Creates the record manager for the specified block,
+     * reading the block into the specified buffer ring
+     * if it is not in the pool.
+     * @param blk a reference to the disk block
+     * @param ti the table's metadata
+     * @param tx the transaction performing the operations
+     * @param ring the ring of the calling scan, or null
+     */
+   public RecordPage(Block blk, TableInfo ti, Transaction tx, BufferRing ring) {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
       slotsize = ti.recordLength() + INT_SIZE;
-      tx.pin(blk);
+      tx.pin(blk, ring);
   }
    
    /**
@@ -71,6 +85,38 @@ public class RecordPage {
       return tx.getString(blk, position);
    }
    
+   /**
+    * Compares the specified field of the current record
+    * with a field of the current record of another record page,
+    * which may be this page.
+    * String fields are compared in place, without being decoded
+    * if possible (see {@link simpledb.file.Page#compareString}).
+    * @param fldname the name of the field
+    * @param other the other record page
+    * @param otherfld the name of the field in the other page
+    * @return a negative value, zero, or a positive value if this field
+    * is less than, equal to, or greater than the other field
+    */
+   public int compareField(String fldname, RecordPage other, String otherfld) {
+      if (ti.schema().type(fldname) == INTEGER)
+         return Integer.compare(getInt(fldname), other.getInt(otherfld));
+      if (other.tx != tx)
+         return getString(fldname).compareTo(other.getString(otherfld));
+      return tx.compareString(blk, fieldpos(fldname), other.blk, other.fieldpos(otherfld));
+   }
+   
+   /**
+    * Returns true if the specified string field of the
+    * current record equals an encoded string.
+    * The string is compared in place, without being decoded.
+    * @param fldname the name of the field
+    * @param encoded a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the field holds that string
+    */
+   public boolean fieldEquals(String fldname, byte[] encoded) {
+      return tx.stringEquals(blk, fieldpos(fldname), encoded);
+   }
+   
    /**
     * Stores an integer at the specified field
     * of the current record.
@@ -119,6 +165,18 @@ public class RecordPage {
       return found;
    }
    
+   /**
+    * Returns the number of empty slots in the page.
+    * @return the number of records that can still be inserted
+    */
+   public int freeSlots() {
+      int count = 0;
+      for (int pos = 0; pos + slotsize <= BLOCK_SIZE; pos += slotsize)
+         if (tx.getInt(blk, pos) == EMPTY)
+            count++;
+      return count;
+   }
+   
    /**
     * Sets the current record to be the record having the
     * specified ID.
@@ -13,6 +13,7 @@ public class TableInfo {
    private Map<String,Integer> offsets;
    private int recordlen;
    private String tblname;
+   private boolean freeSpaceMap = true;
    
    /**
     * Creates a TableInfo object, given a table name
@@ -61,6 +62,37 @@ public class TableInfo {
       return tblname + ".tbl";
    }
    
+   /**
+    * Returns the filename of the table's free-space map,
+    * which is the table name followed by ".fsm".
+    * @return the name of the table's free-space map file
+    * @see FreeSpaceMap
+    */
+   public String fsmFileName() {
+      return tblname + ".fsm";
+   }
+   
+   /**
+    * Returns true if insertions into the table are guided
+    * by a free-space map.
+    * Temporary tables, and tables whose map has been disabled,
+    * have none.
+    * @return true if the table has a free-space map
+    */
+   public boolean hasFreeSpaceMap() {
+      return freeSpaceMap && !tblname.startsWith("temp");
+   }
+   
+   /**
+    * Gives the table no free-space map, so that an insertion
+    * looks for room from the current record onward.
+    * Used for small tables, such as the buckets of a hash index,
+    * for which a map file would cost more than it saves.
+    */
+   public void disableFreeSpaceMap() {
+      freeSpaceMap = false;
+   }
+   
    /**
     * Returns the schema of the table's records
     * @return the table's record schema
@@ -2,11 +2,18 @@ package simpledb.server;
 
 import simpledb.buffer.BufferMgr;
 import simpledb.file.FileMgr;
+import simpledb.file.Page;
 import simpledb.log.LogMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.planner.*;
 import simpledb.tx.Transaction;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
 /**
  * The class that provides system-wide static global values.
  * These values must be initialized by the method
@@ -17,12 +24,41 @@ import simpledb.tx.Transaction;
  * and {@link #initMetadataMgr(boolean, Transaction) initMetadataMgr}
  * provide limited initialization, and are useful for 
  * debugging purposes.
+ * <p>
+ * The settings below are read from system properties
+ * (such as <tt>-Dsimpledb.buffer.memory=64m</tt>).
+ * A setting that is not given as a system property is read from
+ * the configuration file, if there is one:
+ * the file named by the property <tt>simpledb.config</tt>,
+ * or else the file {@link #CONFIG_FILE} in the database directory.
  * 
  * @author Edward Sciore
  */
 public class SimpleDB {
    public static int BUFFER_SIZE = 8;
+   public static int DB_BLOCK_SIZE = (int) parseSize(System.getProperty("simpledb.block.size", "4k")); // bytes; for new databases only
+   public static boolean PAGE_CHECKSUMS = Boolean.parseBoolean(System.getProperty("simpledb.checksums", "true")); // for new databases only
+   public static boolean DOUBLE_WRITE = Boolean.parseBoolean(System.getProperty("simpledb.doublewrite", "true"));
+   public static long BUFFER_MEMORY = parseSize(System.getProperty("simpledb.buffer.memory", "0")); // bytes; 0 means BUFFER_SIZE buffers
+   public static String BUFFER_POLICY = System.getProperty("simpledb.buffer.policy", "lru2");
+   public static String MAPPED_FILES = System.getProperty("simpledb.mmap.files", ""); // e.g. "student.tbl,idx*"; "*" maps every file
+   public static int IO_THREADS = Integer.getInteger("simpledb.io.threads", 4); // threads of the asynchronous I/O engine
+   public static long EXTENT_SIZE = parseSize(System.getProperty("simpledb.extent.size", "64k")); // bytes by which files grow
+   public static int MAX_OPEN_FILES = Integer.getInteger("simpledb.max.open.files", 256);
+   public static int LOG_BUFFER_SIZE = Integer.getInteger("simpledb.log.buffer", 8); // pages of the log buffer
+   public static int GROUP_COMMIT_BATCH = Integer.getInteger("simpledb.groupcommit.batch", 64); // commits per log flush; 0 disables
+   public static int GROUP_COMMIT_WAIT = Integer.getInteger("simpledb.groupcommit.wait", 0); // us to wait for a batch to fill
+   public static String BUFFER_ARENA_FILE = System.getProperty("simpledb.buffer.arena.file"); // null means direct memory
+   public static int PAGE_WRITER_INTERVAL = Integer.getInteger("simpledb.pagewriter.interval", 100); // ms; 0 disables
+   public static int PAGE_WRITER_TARGET = Integer.getInteger("simpledb.pagewriter.target", 0); // 0 means a quarter of the pool
+   public static int PREFETCH_WINDOW = Integer.getInteger("simpledb.prefetch.window", 8); // blocks; 0 disables
+   public static int RING_THRESHOLD = Integer.getInteger("simpledb.ring.threshold", 25); // percent of the pool; 0 disables rings
+   public static int RING_SIZE = Integer.getInteger("simpledb.ring.size", 16); // blocks
+   public static boolean WARM_START = Boolean.getBoolean("simpledb.warmstart");
+   public static int WARM_START_INTERVAL = Integer.getInteger("simpledb.warmstart.interval", 300); // s; 0 dumps only at exit
+   public static String WARM_START_FILE = "simpledb.bufferdump";
    public static String LOG_FILE = "simpledb.log";
+   public static String CONFIG_FILE = "simpledb.properties";
    
    private static FileMgr     fm;
    private static BufferMgr   bm;
@@ -44,6 +80,12 @@ public class SimpleDB {
          System.out.println("recovering existing database");
          tx.recover();
       }
+      // reload the hot blocks once recovery has brought them up to date
+      if (WARM_START) {
+         int count = bm.warmStart(new File(fm.directory(), WARM_START_FILE), WARM_START_INTERVAL);
+         if (count > 0)
+            System.out.println("reloaded " + count + " blocks into the buffer pool");
+      }
       initMetadataMgr(isnew, tx);
       tx.commit();
    }
@@ -57,7 +99,12 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public static void initFileMgr(String dirname) {
-      fm = new FileMgr(dirname);
+      fm = new FileMgr(dirname, DB_BLOCK_SIZE, PAGE_CHECKSUMS);
+      fm.setMappedFiles(MAPPED_FILES);
+      fm.setDoubleWrite(DOUBLE_WRITE);
+      fm.setIOThreads(IO_THREADS);
+      fm.setExtentSize((int) Math.max(1, EXTENT_SIZE / Page.DISK_BLOCK_SIZE));
+      fm.setMaxOpenFiles(MAX_OPEN_FILES);
    }
    
    /**
@@ -66,18 +113,27 @@ public class SimpleDB {
     */
    public static void initFileAndLogMgr(String dirname) {
       initFileMgr(dirname);
-      logm = new LogMgr(LOG_FILE);
+      logm = new LogMgr(LOG_FILE, LOG_BUFFER_SIZE);
    }
    
    /**
     * Initializes the file, log, and buffer managers.
-    * BufferManager is initialized before LogManager
     * @param dirname the name of the database directory
     */
    public static void initFileLogAndBufferMgr(String dirname) {
-      fm = new FileMgr(dirname);
-      bm = new BufferMgr(BUFFER_SIZE);
-      logm = new LogMgr(LOG_FILE);
+      loadConfig(FileMgr.directoryOf(dirname));
+      initFileMgr(dirname);
+      if (BUFFER_MEMORY > 0)
+         BUFFER_SIZE = (int) Math.max(1, Math.min(Integer.MAX_VALUE, BUFFER_MEMORY / Page.DISK_BLOCK_SIZE));
+      bm = new BufferMgr(BUFFER_SIZE, BUFFER_POLICY, BUFFER_ARENA_FILE);
+      bm.setPrefetchWindow(PREFETCH_WINDOW);
+      logm = new LogMgr(LOG_FILE, LOG_BUFFER_SIZE);
+      if (GROUP_COMMIT_BATCH > 0)
+         logm.startGroupCommit(GROUP_COMMIT_WAIT, GROUP_COMMIT_BATCH);
+      if (PAGE_WRITER_INTERVAL > 0) {
+         int target = (PAGE_WRITER_TARGET > 0) ? PAGE_WRITER_TARGET : Math.max(1, BUFFER_SIZE / 4);
+         bm.startPageWriter(PAGE_WRITER_INTERVAL, target);
+      }
    }
    
    /**
@@ -90,6 +146,91 @@ public class SimpleDB {
       mdm = new MetadataMgr(isnew, tx);
    }
    
+   /**
+    * Resizes the buffer pool while the system is running,
+    * so that its pages occupy at most the specified number of bytes.
+    * Only unpinned buffers are removed when the pool shrinks.
+    * @param bytes the new memory budget of the buffer pool
+    * @return the resulting number of buffers
+    * @see BufferMgr#resize(int)
+    */
+   public static synchronized int resizeBufferPool(long bytes) {
+      BUFFER_MEMORY = bytes;
+      BUFFER_SIZE = bm.setMemoryBudget(bytes);
+      if (PAGE_WRITER_TARGET <= 0)
+         bm.setPageWriterTarget(Math.max(1, BUFFER_SIZE / 4));
+      return BUFFER_SIZE;
+   }
+   
+   /**
+    * Reads the settings that are not given as system properties
+    * from the configuration file, if there is one.
+    * @param dbDirectory the database directory
+    */
+   private static void loadConfig(File dbDirectory) {
+      String path = System.getProperty("simpledb.config");
+      File f = (path != null) ? new File(path) : new File(dbDirectory, CONFIG_FILE);
+      if (!f.exists())
+         return;
+      Properties config = new Properties();
+      try (Reader r = new FileReader(f)) {
+         config.load(r);
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read configuration file " + f);
+      }
+      for (String key : config.stringPropertyNames())
+         if (System.getProperty(key) == null)
+            setConfig(key, config.getProperty(key).trim());
+   }
+   
+   private static void setConfig(String key, String val) {
+      switch (key) {
+         case "simpledb.block.size":        DB_BLOCK_SIZE = (int) parseSize(val); break;
+         case "simpledb.checksums":         PAGE_CHECKSUMS = Boolean.parseBoolean(val); break;
+         case "simpledb.doublewrite":       DOUBLE_WRITE = Boolean.parseBoolean(val); break;
+         case "simpledb.buffer.memory":     BUFFER_MEMORY = parseSize(val); break;
+         case "simpledb.buffer.policy":     BUFFER_POLICY = val; break;
+         case "simpledb.mmap.files":        MAPPED_FILES = val; break;
+         case "simpledb.io.threads":        IO_THREADS = Integer.parseInt(val); break;
+         case "simpledb.extent.size":       EXTENT_SIZE = parseSize(val); break;
+         case "simpledb.max.open.files":    MAX_OPEN_FILES = Integer.parseInt(val); break;
+         case "simpledb.log.buffer":        LOG_BUFFER_SIZE = Integer.parseInt(val); break;
+         case "simpledb.groupcommit.batch": GROUP_COMMIT_BATCH = Integer.parseInt(val); break;
+         case "simpledb.groupcommit.wait":  GROUP_COMMIT_WAIT = Integer.parseInt(val); break;
+         case "simpledb.buffer.arena.file": BUFFER_ARENA_FILE = val; break;
+         case "simpledb.pagewriter.interval": PAGE_WRITER_INTERVAL = Integer.parseInt(val); break;
+         case "simpledb.pagewriter.target": PAGE_WRITER_TARGET = Integer.parseInt(val); break;
+         case "simpledb.prefetch.window":   PREFETCH_WINDOW = Integer.parseInt(val); break;
+         case "simpledb.ring.threshold":    RING_THRESHOLD = Integer.parseInt(val); break;
+         case "simpledb.ring.size":         RING_SIZE = Integer.parseInt(val); break;
+         case "simpledb.warmstart":         WARM_START = Boolean.parseBoolean(val); break;
+         case "simpledb.warmstart.interval": WARM_START_INTERVAL = Integer.parseInt(val); break;
+         default:
+            throw new IllegalArgumentException("unknown setting " + key + " in configuration file");
+      }
+   }
+   
+   /**
+    * Parses a number of bytes, which may end in
+    * k, m or g (for kilobytes, megabytes or gigabytes).
+    * @param val the size, such as "64m"
+    * @return the number of bytes
+    */
+   public static long parseSize(String val) {
+      String s = val.trim().toLowerCase();
+      long unit = 1;
+      if (s.endsWith("k"))
+         unit = 1L << 10;
+      else if (s.endsWith("m"))
+         unit = 1L << 20;
+      else if (s.endsWith("g"))
+         unit = 1L << 30;
+      if (unit > 1)
+         s = s.substring(0, s.length() - 1);
+      return Long.parseLong(s.trim()) * unit;
+   }
+   
    public static FileMgr     fileMgr()   { return fm; }
    public static BufferMgr   bufferMgr() { return bm; }
    public static LogMgr      logMgr()    { return logm; }
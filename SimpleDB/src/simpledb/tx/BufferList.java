@@ -30,7 +30,17 @@ class BufferList {
     * @param blk a reference to the disk block
     */
    void pin(Block blk) {
-      Buffer buff = bufferMgr.pin(blk);
+      pin(blk, null);
+   }
+
+   /**
+    * Pins the block using the specified buffer ring,
+    * and keeps track of the buffer internally.
+    * @param blk a reference to the disk block
+    * @param ring the ring of the calling scan, or null
+    */
+   void pin(Block blk, BufferRing ring) {
+      Buffer buff = bufferMgr.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
@@ -43,7 +53,19 @@ class BufferList {
     * @return a reference to the newly-created block
     */
    Block pinNew(String filename, PageFormatter fmtr) {
-      Buffer buff = bufferMgr.pinNew(filename, fmtr);
+      return pinNew(filename, fmtr, null);
+   }
+
+   /**
+    * Appends a new block to the specified file
+    * and pins it, using the specified buffer ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the ring of the calling scan, or null
+    * @return a reference to the newly-created block
+    */
+   Block pinNew(String filename, PageFormatter fmtr, BufferRing ring) {
+      Buffer buff = bufferMgr.pinNew(filename, fmtr, ring);
       Block blk = buff.block();
       buffers.put(blk, buff);
       pins.add(blk);
@@ -87,6 +87,17 @@ public class Transaction {
       myBuffers.pin(blk);
    }
    
+   /**
+    * Pins the specified block, reading it into the
+    * specified buffer ring if it is not in the pool.
+    * @param blk a reference to the disk block
+    * @param ring the ring of the calling scan, or null
+    * @see BufferRing
+    */
+   public void pin(Block blk, BufferRing ring) {
+      myBuffers.pin(blk, ring);
+   }
+   
    /**
     * Unpins the specified block.
     * The transaction looks up the buffer pinned to this block,
@@ -97,6 +108,33 @@ public class Transaction {
       myBuffers.unpin(blk);
    }
    
+   /**
+    * Tells the buffer manager that the transaction
+    * is about to read the specified blocks of a file,
+    * so that they can be read ahead.
+    * No locks are obtained; the blocks still have to be
+    * pinned and read in the usual way.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    */
+   public void prefetch(String filename, int blknum, int count) {
+      SimpleDB.bufferMgr().prefetch(filename, blknum, count);
+   }
+   
+   /**
+    * Tells the buffer manager that the transaction
+    * is about to read the specified blocks of a file
+    * through the specified buffer ring.
+    * @param filename the name of the file
+    * @param blknum the number of the first block
+    * @param count the number of blocks
+    * @param ring the ring of the calling scan, or null
+    */
+   public void prefetch(String filename, int blknum, int count, BufferRing ring) {
+      SimpleDB.bufferMgr().prefetch(filename, blknum, count, ring);
+   }
+   
    /**
     * Returns the integer value stored at the
     * specified offset of the specified block.
@@ -127,6 +165,54 @@ public class Transaction {
       return buff.getString(offset);
    }
    
+   /**
+    * Compares the strings stored at the specified offsets
+    * of two blocks, which may be the same block, without
+    * decoding them if possible.
+    * The method first obtains an SLock on both blocks.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param otherblk a reference to the other disk block
+    * @param otheroffset the byte offset within the other block
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    */
+   public int compareString(Block blk, int offset, Block otherblk, int otheroffset) {
+      concurMgr.sLock(blk);
+      concurMgr.sLock(otherblk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.compareString(offset, myBuffers.getBuffer(otherblk), otheroffset);
+   }
+   
+   /**
+    * Compares the string stored at the specified offset
+    * of the specified block with an encoded string.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param encoded a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return a value whose sign is that of {@link String#compareTo(String)}
+    */
+   public int compareString(Block blk, int offset, byte[] encoded) {
+      concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.compareString(offset, encoded);
+   }
+   
+   /**
+    * Returns true if the string stored at the specified offset
+    * of the specified block equals an encoded string.
+    * The method first obtains an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param encoded a string encoded by {@link simpledb.file.Page#encode(String)}
+    * @return true if the strings are equal
+    */
+   public boolean stringEquals(Block blk, int offset, byte[] encoded) {
+      concurMgr.sLock(blk);
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.stringEquals(offset, encoded);
+   }
+   
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
@@ -143,7 +229,7 @@ public class Transaction {
    public void setInt(Block blk, int offset, int val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
+      long lsn = recoveryMgr.setInt(buff, offset, val);
       buff.setInt(offset, val, txnum, lsn);
    }
    
@@ -163,10 +249,69 @@ public class Transaction {
    public void setString(Block blk, int offset, String val) {
       concurMgr.xLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
+      long lsn = recoveryMgr.setString(buff, offset, val);
       buff.setString(offset, val, txnum, lsn);
    }
    
+   /**
+    * Returns the integer value stored at the specified offset
+    * of the specified block, without locking the block.
+    * The block must be pinned by the transaction.
+    * This method is meant for blocks that hold only hints,
+    * such as free-space maps, which readers must be prepared
+    * to find out of date.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int getHint(Block blk, int offset) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      return buff.getInt(offset);
+   }
+   
+   /**
+    * Stores an integer at the specified offset of the specified block,
+    * without locking the block or logging the change.
+    * The block must be pinned by the transaction.
+    * The modified block is written to disk when the transaction
+    * commits, but the change is neither undone by a rollback
+    * nor redone by recovery, so it must only be a hint.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param val the value to be stored
+    */
+   public void setHint(Block blk, int offset, int val) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      buff.setInt(offset, val, txnum, -1);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file of hints,
+    * without locking the end of the file,
+    * so that transactions extending the file do not wait for each other.
+    * Two transactions may extend the file at the same time,
+    * so the file may grow by more blocks than either asked for.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @return a reference to the newly-created disk block
+    */
+   public Block appendHint(String filename, PageFormatter fmtr) {
+      Block blk = myBuffers.pinNew(filename, fmtr, null);
+      unpin(blk);
+      return blk;
+   }
+   
+   /**
+    * Registers an action to be run if the transaction rolls back,
+    * once its updates have been undone and while it still holds its locks.
+    * The action may correct hints, such as free-space map entries,
+    * that the undone updates have left out of date.
+    * @param action the action
+    */
+   public void onRollback(Runnable action) {
+      recoveryMgr.onRollback(action);
+   }
+   
    /**
     * Returns the number of blocks in the specified file.
     * This method first obtains an SLock on the 
@@ -191,9 +336,21 @@ public class Transaction {
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
+      return append(filename, fmtr, null);
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file,
+    * formatting it in a buffer of the specified ring.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @param ring the ring of the calling scan, or null
+    * @return a reference to the newly-created disk block
+    */
+   public Block append(String filename, PageFormatter fmtr, BufferRing ring) {
       Block dummyblk = new Block(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      Block blk = myBuffers.pinNew(filename, fmtr, ring);
       unpin(blk);
       return blk;
    }
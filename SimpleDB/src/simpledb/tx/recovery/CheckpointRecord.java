@@ -1,6 +1,9 @@
 package simpledb.tx.recovery;
 
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
 
 /**
  * The CHECKPOINT log record.
@@ -14,11 +17,11 @@ class CheckpointRecord implements LogRecord {
    public CheckpointRecord() {}
    
    /**
-    * Creates a log record by reading no other values 
+    * Fills the log record by reading no other values
     * from the basic log record.
     * @param rec the basic log record
     */
-   public CheckpointRecord(BasicLogRecord rec) {}
+   void read(BasicLogRecord rec) {}
    
    /** 
     * Writes a checkpoint record to the log.
@@ -26,9 +29,16 @@ class CheckpointRecord implements LogRecord {
     * and nothing else.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {CHECKPOINT};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      return INT_SIZE;
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(CHECKPOINT);
    }
    
    public int op() {
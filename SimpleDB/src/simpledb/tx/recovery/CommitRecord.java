@@ -1,6 +1,9 @@
 package simpledb.tx.recovery;
 
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
 
 /**
  * The COMMIT log record
@@ -18,10 +21,15 @@ class CommitRecord implements LogRecord {
    }
    
    /**
-    * Creates a log record by reading one other value from the log.
+    * Creates an empty log record, to be filled by {@link #read(BasicLogRecord)}.
+    */
+   CommitRecord() {}
+
+   /**
+    * Fills the log record by reading one other value from the log.
     * @param rec the basic log record
     */
-   public CommitRecord(BasicLogRecord rec) {
+   void read(BasicLogRecord rec) {
       txnum = rec.nextInt();
    }
    
@@ -31,9 +39,17 @@ class CommitRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {COMMIT, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      return 2 * INT_SIZE;
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(COMMIT);
+      w.writeInt(txnum);
    }
    
    public int op() {
@@ -1,13 +1,16 @@
 package simpledb.tx.recovery;
 
 import simpledb.log.LogMgr;
+import simpledb.log.Loggable;
 import simpledb.server.SimpleDB;
 
 /**
  * The interface implemented by each type of log record.
+ * A record writes its values into the log itself,
+ * starting with its type.
  * @author Edward Sciore
  */
-public interface LogRecord {
+public interface LogRecord extends Loggable {
    /**
     * The six different types of log record
     */
@@ -21,7 +24,7 @@ public interface LogRecord {
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -11,10 +11,19 @@ import simpledb.server.SimpleDB;
  * Unlike the similar class 
  * {@link simpledb.log.LogIterator LogIterator},  
  * this class understands the meaning of the log records.
+ * The iterator keeps one log record of each type,
+ * which it fills again whenever it returns a record of that type,
+ * so a log record is only valid until the next call to {@link #next()}.
  * @author Edward Sciore
  */
 class LogRecordIterator implements Iterator<LogRecord> {
    private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private CheckpointRecord checkpoint = new CheckpointRecord();
+   private StartRecord start = new StartRecord();
+   private CommitRecord commit = new CommitRecord();
+   private RollbackRecord rollback = new RollbackRecord();
+   private SetIntRecord setint = new SetIntRecord();
+   private SetStringRecord setstring = new SetStringRecord();
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -25,8 +34,8 @@ class LogRecordIterator implements Iterator<LogRecord> {
     * current basic log record.
     * The method first reads an integer, which denotes
     * the type of the log record.  Based on that type,
-    * the method calls the appropriate LogRecord constructor
-    * to read the remaining values.
+    * the method fills the log record of that type
+    * from the remaining values.
     * @return the next log record, or null if no more records
     */
    public LogRecord next() {
@@ -34,17 +43,23 @@ class LogRecordIterator implements Iterator<LogRecord> {
       int op = rec.nextInt();
       switch (op) {
          case CHECKPOINT:
-            return new CheckpointRecord(rec);
+            checkpoint.read(rec);
+            return checkpoint;
          case START:
-            return new StartRecord(rec);
+            start.read(rec);
+            return start;
          case COMMIT:
-            return new CommitRecord(rec);
+            commit.read(rec);
+            return commit;
          case ROLLBACK:
-            return new RollbackRecord(rec);
+            rollback.read(rec);
+            return rollback;
          case SETINT:
-            return new SetIntRecord(rec);
+            setint.read(rec);
+            return setint;
          case SETSTRING:
-            return new SetStringRecord(rec);
+            setstring.read(rec);
+            return setstring;
          default:
             return null;
       }
@@ -12,6 +12,10 @@ import java.util.*;
  */
 public class RecoveryMgr {
    private int txnum;
+   private long lastLSN = -1;  // the LSN of the transaction's last update record
+   private SetIntRecord setint = new SetIntRecord();          // reused for every update
+   private SetStringRecord setstring = new SetStringRecord();
+   private List<Runnable> rollbackActions = new ArrayList<Runnable>();
 
    /**
     * Creates a recovery manager for the specified transaction.
@@ -23,21 +27,42 @@ public class RecoveryMgr {
    }
 
    /**
-    * Writes a commit record to the log, and flushes it to disk.
+    * Forces the transaction's modified pages to disk,
+    * then writes a commit record to the log, and waits
+    * until it is flushed to disk.
+    * The log is flushed to the transaction's last update
+    * before its pages are written, and again to the commit record.
+    * With group commit, both flushes are shared with the
+    * transactions that commit at the same time.
     */
    public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.logMgr().flushAsync(lastLSN).join();
+      // the pages must be on disk before the commit record is
+      flushPages();
+      long lsn = new CommitRecord(txnum).writeToLog();
+      SimpleDB.logMgr().flushAsync(lsn).join();
+   }
+
+   /**
+    * Registers an action to be run if the transaction rolls back,
+    * once its updates have been undone and before its modified
+    * pages are written.
+    * @param action the action
+    */
+   public void onRollback(Runnable action) {
+      rollbackActions.add(action);
    }
 
    /**
-    * Writes a rollback record to the log, and flushes it to disk.
+    * Undoes the transaction's updates and runs its rollback actions,
+    * then writes a rollback record to the log, and flushes it to disk.
     */
    public void rollback() {
       doRollback();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      for (Runnable action : rollbackActions)
+         action.run();
+      flushPages();
+      long lsn = new RollbackRecord(txnum).writeToLog();
       SimpleDB.logMgr().flush(lsn);
    }
 
@@ -47,12 +72,23 @@ public class RecoveryMgr {
     */
    public void recover() {
       doRecover();
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
+      flushPages();
+      long lsn = new CheckpointRecord().writeToLog();
       SimpleDB.logMgr().flush(lsn);
 
    }
 
+   /**
+    * Writes the transaction's modified pages to disk,
+    * and forces the files that its pages were written to,
+    * including those written earlier when their buffers were replaced.
+    * Files that the transaction did not modify are not forced.
+    */
+   private void flushPages() {
+      for (String filename : SimpleDB.bufferMgr().flushAll(txnum))
+         SimpleDB.fileMgr().force(filename);
+   }
+
    /**
     * Writes a setint record to the log, and returns its lsn.
     * Updates to temporary files are not logged; instead, a
@@ -61,13 +97,14 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.getInt(offset);
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
+      setint.set(txnum, blk, offset, oldval);
+      lastLSN = setint.writeToLog();
+      return lastLSN;
    }
 
    /**
@@ -78,13 +115,14 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
-      String oldval = buff.getString(offset);
+   public long setString(Buffer buff, int offset, String newval) {
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
+      // the old value is copied from the buffer into the log record
+      setstring.set(txnum, buff, offset);
+      lastLSN = setstring.writeToLog();
+      return lastLSN;
    }
 
    /**
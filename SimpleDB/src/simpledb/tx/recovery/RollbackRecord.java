@@ -1,6 +1,9 @@
 package simpledb.tx.recovery;
 
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
 
 /**
  * The ROLLBACK log record.
@@ -18,10 +21,15 @@ class RollbackRecord implements LogRecord {
    }
    
    /**
-    * Creates a log record by reading one other value from the log.
+    * Creates an empty log record, to be filled by {@link #read(BasicLogRecord)}.
+    */
+   RollbackRecord() {}
+
+   /**
+    * Fills the log record by reading one other value from the log.
     * @param rec the basic log record
     */
-   public RollbackRecord(BasicLogRecord rec) {
+   void read(BasicLogRecord rec) {
       txnum = rec.nextInt();
    }
    
@@ -31,9 +39,17 @@ class RollbackRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {ROLLBACK, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      return 2 * INT_SIZE;
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(ROLLBACK);
+      w.writeInt(txnum);
    }
    
    public int op() {
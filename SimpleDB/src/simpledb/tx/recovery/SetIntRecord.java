@@ -4,10 +4,15 @@ import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
+import static simpledb.file.Page.STR_SIZE;
 
 class SetIntRecord implements LogRecord {
    private int txnum, offset, val;
    private Block blk;
+   private BasicLogRecord rec;  // holds the unread values, if the record was read from the log
 
    /**
     * Creates a new setint log record.
@@ -24,16 +29,38 @@ class SetIntRecord implements LogRecord {
    }
 
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates an empty log record, to be filled by {@link #read(BasicLogRecord)}.
+    */
+   SetIntRecord() {}
+
+   /**
+    * Makes the log record describe another update,
+    * so that a transaction can log its updates with a single record.
+    * @param txnum the ID of the specified transaction
+    * @param blk the block containing the value
+    * @param offset the offset of the value in the block
+    * @param val the value to restore
+    */
+   void set(int txnum, Block blk, int offset, int val) {
+      this.txnum = txnum;
+      this.blk = blk;
+      this.offset = offset;
+      this.val = val;
+      rec = null;
+   }
+
+   /**
+    * Fills the log record from the log.
+    * Only the transaction id is read at once;
+    * the other four values are read when the record is undone or printed,
+    * so a record that recovery skips costs no objects.
+    * The basic log record must therefore not have moved on by then.
     * @param rec the basic log record
     */
-   public SetIntRecord(BasicLogRecord rec) {
+   void read(BasicLogRecord rec) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
-      int blknum = rec.nextInt();
-      blk = new Block(filename, blknum);
-      offset = rec.nextInt();
-      val = rec.nextInt();
+      this.rec = rec;
+      blk = null;
    }
 
    /**
@@ -44,10 +71,21 @@ class SetIntRecord implements LogRecord {
     * integer value at that offset.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETINT, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      return 5 * INT_SIZE + STR_SIZE(blk.fileName().length());
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(SETINT);
+      w.writeInt(txnum);
+      w.writeString(blk.fileName());
+      w.writeInt(blk.number());
+      w.writeInt(offset);
+      w.writeInt(val);
    }
 
    public int op() {
@@ -59,6 +97,7 @@ class SetIntRecord implements LogRecord {
    }
 
    public String toString() {
+      readValues();
       return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
    }
 
@@ -70,9 +109,23 @@ class SetIntRecord implements LogRecord {
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
+      readValues();
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
       buff.setInt(offset, val, txnum, -1);
       buffMgr.unpin(buff);
    }
+
+   /**
+    * Reads the values that {@link #read(BasicLogRecord)} left in the log.
+    */
+   private void readValues() {
+      if (blk != null)
+         return;
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      val = rec.nextInt();
+   }
 }
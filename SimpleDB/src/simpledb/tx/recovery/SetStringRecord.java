@@ -4,11 +4,17 @@ import simpledb.server.SimpleDB;
 import simpledb.buffer.*;
 import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
+import static simpledb.file.Page.STR_SIZE;
 
 class SetStringRecord implements LogRecord {
    private int txnum, offset;
    private String val;
    private Block blk;
+   private Buffer buff;          // holds the value, if the record was set from a buffer
+   private BasicLogRecord rec;  // holds the unread values, if the record was read from the log
    
    /**
     * Creates a new setstring log record.
@@ -25,18 +31,45 @@ class SetStringRecord implements LogRecord {
    }
    
    /**
-    * Creates a log record by reading five other values from the log.
+    * Creates an empty log record, to be filled by {@link #read(BasicLogRecord)}.
+    */
+   SetStringRecord() {}
+
+   /**
+    * Makes the log record describe an update of the string
+    * at the specified offset of the specified buffer,
+    * so that a transaction can log its updates with a single record.
+    * The value to restore is the string now in the buffer;
+    * it is copied from the buffer's page into the log without being
+    * decoded, so the record must be written before the buffer is changed.
+    * @param txnum the ID of the specified transaction
+    * @param buff the buffer containing the value
+    * @param offset the offset of the value in the block
+    */
+   void set(int txnum, Buffer buff, int offset) {
+      this.txnum = txnum;
+      this.blk = buff.block();
+      this.offset = offset;
+      this.buff = buff;
+      val = null;
+      rec = null;
+   }
+
+   /**
+    * Fills the log record from the log.
+    * Only the transaction id is read at once;
+    * the other four values are read when the record is undone or printed,
+    * so a record that recovery skips costs no objects.
+    * The basic log record must therefore not have moved on by then.
     * @param rec the basic log record
     */
-   public SetStringRecord(BasicLogRecord rec) {
+   void read(BasicLogRecord rec) {
       txnum = rec.nextInt();
-      String filename = rec.nextString();
-      int blknum = rec.nextInt();
-      blk = new Block(filename, blknum);
-      offset = rec.nextInt();
-      val = rec.nextString();
+      this.rec = rec;
+      blk = null;
+      buff = null;
    }
-   
+
    /** 
     * Writes a setString record to the log.
     * This log record contains the SETSTRING operator,
@@ -45,10 +78,25 @@ class SetStringRecord implements LogRecord {
     * string value at that offset.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {SETSTRING, txnum, blk.fileName(),
-         blk.number(), offset, val};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      int valsize = (val != null) ? STR_SIZE(val.length()) : buff.stringSize(offset);
+      return 4 * INT_SIZE + STR_SIZE(blk.fileName().length()) + valsize;
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(SETSTRING);
+      w.writeInt(txnum);
+      w.writeString(blk.fileName());
+      w.writeInt(blk.number());
+      w.writeInt(offset);
+      if (val != null)
+         w.writeString(val);
+      else
+         buff.writeString(offset, w);
    }
    
    public int op() {
@@ -60,7 +108,9 @@ class SetStringRecord implements LogRecord {
    }
    
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      readValues();
+      String s = (val != null) ? val : buff.getString(offset);
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + s + ">";
    }
    
    /** 
@@ -71,9 +121,23 @@ class SetStringRecord implements LogRecord {
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(int txnum) {
+      readValues();
       BufferMgr buffMgr = SimpleDB.bufferMgr();
       Buffer buff = buffMgr.pin(blk);
       buff.setString(offset, val, txnum, -1);
       buffMgr.unpin(buff);
    }
+
+   /**
+    * Reads the values that {@link #read(BasicLogRecord)} left in the log.
+    */
+   private void readValues() {
+      if (blk != null)
+         return;
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      val = rec.nextString();
+   }
 }
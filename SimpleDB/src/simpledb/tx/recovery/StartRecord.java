@@ -1,6 +1,9 @@
 package simpledb.tx.recovery;
 
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogWriter;
+
+import static simpledb.file.Page.INT_SIZE;
 
 class StartRecord implements LogRecord {
    private int txnum;
@@ -14,10 +17,15 @@ class StartRecord implements LogRecord {
    }
    
    /**
-    * Creates a log record by reading one other value from the log.
+    * Creates an empty log record, to be filled by {@link #read(BasicLogRecord)}.
+    */
+   StartRecord() {}
+
+   /**
+    * Fills the log record by reading one other value from the log.
     * @param rec the basic log record
     */
-   public StartRecord(BasicLogRecord rec) {
+   void read(BasicLogRecord rec) {
       txnum = rec.nextInt();
    }
    
@@ -27,9 +35,17 @@ class StartRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {START, txnum};
-      return logMgr.append(rec);
+   public long writeToLog() {
+      return logMgr.append(this);
+   }
+
+   public int logSize() {
+      return 2 * INT_SIZE;
+   }
+
+   public void writeTo(LogWriter w) {
+      w.writeInt(START);
+      w.writeInt(txnum);
    }
    
    public int op() {
@@ -0,0 +1,101 @@
+package simpledb;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.query.*;
+import simpledb.record.Schema;
+import simpledb.record.TableInfo;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+import java.io.File;
+
+/**
+ * Loads the same dataset into a new database with the specified
+ * block size, and measures the loading time, the size of the table,
+ * and the time and buffer misses of full scans and of selections.
+ * The buffer pool has the same number of bytes for every block size
+ * (1MB, unless simpledb.buffer.memory is set), so that the
+ * block sizes are compared on the same amount of memory.
+ * Run it once per block size, e.g. with 4096, 8192 and 16384.
+ * <p>
+ * Usage: BlockSizeBenchmark blocksize [rows]
+ */
+public class BlockSizeBenchmark {
+   public static void main(String[] args) {
+      int blocksize = Integer.parseInt(args[0]);
+      int rows = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+      String dbname = "blockbench" + blocksize;
+      deleteDirectory(FileMgr.directoryOf(dbname));
+      SimpleDB.DB_BLOCK_SIZE = blocksize;
+      if (System.getProperty("simpledb.buffer.memory") == null)
+         SimpleDB.BUFFER_MEMORY = 1 << 20;
+      SimpleDB.init(dbname);
+      BufferMgr bm = SimpleDB.bufferMgr();
+
+      Transaction tx = new Transaction();
+      Schema sch = new Schema();
+      sch.addIntField("id");
+      sch.addIntField("grp");
+      sch.addStringField("name", 20);
+      SimpleDB.mdMgr().createTable("bench", sch, tx);
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo("bench", tx);
+      long start = System.nanoTime();
+      UpdateScan us = new TableScan(ti, tx);
+      for (int i = 0; i < rows; i++) {
+         us.insert();
+         us.setInt("id", i);
+         us.setInt("grp", i % 100);
+         us.setString("name", "name" + i);
+      }
+      us.close();
+      tx.commit();
+      long load = System.nanoTime() - start;
+      int blocks = SimpleDB.fileMgr().size(ti.fileName());
+
+      tx = new Transaction();
+      long scan = 0, misses = bm.misses();
+      for (int r = 0; r < 5; r++) {
+         start = System.nanoTime();
+         Scan s = new TablePlan("bench", tx).open();
+         while (s.next())
+            s.getInt("grp");
+         s.close();
+         scan += System.nanoTime() - start;
+      }
+      long scanMisses = bm.misses() - misses;
+
+      start = System.nanoTime();
+      misses = bm.misses();
+      Predicate pred = new Predicate(new Term(new FieldNameExpression("grp"),
+                                              new ConstantExpression(new IntConstant(42))));
+      int found = 0;
+      for (int r = 0; r < 5; r++) {
+         Scan s = new SelectPlan(new TablePlan("bench", tx), pred).open();
+         while (s.next())
+            found++;
+         s.close();
+      }
+      long select = System.nanoTime() - start;
+      long selectMisses = bm.misses() - misses;
+      tx.commit();
+
+      System.out.println("block size " + Page.BLOCK_SIZE + ", " + bm.size() + " buffers, "
+                         + rows + " rows in " + blocks + " blocks");
+      System.out.printf("load   %8.1f ms%n", load / 1e6);
+      System.out.printf("scan   %8.1f ms  %d misses (5 scans)%n", scan / 1e6, scanMisses);
+      System.out.printf("select %8.1f ms  %d misses, %d rows (5 selections)%n",
+                        select / 1e6, selectMisses, found);
+      System.exit(0);
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
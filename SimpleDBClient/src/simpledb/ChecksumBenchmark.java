@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures the cost of page checksums and of the double-write buffer
+ * on block reads and writes through the file manager.
+ * The same workload runs on three new databases: one without checksums,
+ * one with checksums but no double-write buffer, and one with both.
+ * The workload rewrites every block of a file in random order
+ * (forcing the file at the end, as a checkpoint would),
+ * once with synchronous writes and once with asynchronous writes,
+ * and then reads every block in random order.
+ * The asynchronous writes are made by the I/O threads of the file manager,
+ * whose copies to the double-write buffer share forces;
+ * the benchmark reports the forces of the double-write buffer
+ * per block written asynchronously.
+ * A first, untimed round of each run warms up the JVM.
+ * <p>
+ * Usage: ChecksumBenchmark [blocks [rounds]]
+ */
+public class ChecksumBenchmark {
+   private static final String FILENAME = "checkbench.tbl";
+
+   public static void main(String[] args) {
+      int numblocks = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+      int rounds    = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+      String[] names = {"no checksums", "checksums", "checksums + double-write"};
+      double[][] results = new double[3][];
+      CompletableFuture<?>[] pending = new CompletableFuture<?>[numblocks];
+      for (int config = 0; config < 3; config++) {
+         String dbname = "checkbench" + config;
+         deleteDirectory(FileMgr.directoryOf(dbname));
+         SimpleDB.PAGE_CHECKSUMS = config > 0;
+         SimpleDB.DOUBLE_WRITE = config > 1;
+         SimpleDB.initFileMgr(dbname);
+         results[config] = run(numblocks, rounds, pending);
+         System.out.printf("%-26s write %9.0f blocks/s   async write %9.0f blocks/s   read %9.0f blocks/s"
+                           + "   %.2f double-write forces per async block%n",
+                           names[config], results[config][0], results[config][1], results[config][2],
+                           results[config][3]);
+      }
+      for (int config = 1; config < 3; config++)
+         System.out.printf("%-26s write %+6.1f%%   async write %+6.1f%%   read %+6.1f%%%n", names[config],
+                           100 * (results[0][0] / results[config][0] - 1),
+                           100 * (results[0][1] / results[config][1] - 1),
+                           100 * (results[0][2] / results[config][2] - 1));
+   }
+
+   private static double[] run(int numblocks, int rounds, CompletableFuture<?>[] pending) {
+      FileMgr fm = SimpleDB.fileMgr();
+      Page p = new Page();
+      for (int n = 0; n < numblocks; n++) {
+         p.setInt(0, n);
+         p.append(FILENAME);
+      }
+      fm.forceAll();
+      Random rnd = new Random(42);
+      long writeTime = 0, asyncTime = 0, readTime = 0, forces = 0;
+      for (int r = -1; r < rounds; r++) {
+         if (r == 0) {
+            writeTime = asyncTime = readTime = forces = 0;
+         }
+         long start = System.nanoTime();
+         for (int i = 0; i < numblocks; i++) {
+            int n = rnd.nextInt(numblocks);
+            p.setInt(0, n);
+            p.setInt(Page.BLOCK_SIZE - Page.INT_SIZE, r);
+            p.write(new Block(FILENAME, n));
+         }
+         fm.forceAll();
+         writeTime += System.nanoTime() - start;
+
+         long before = fm.doubleWriteForces();
+         start = System.nanoTime();
+         for (int i = 0; i < numblocks; i++) {
+            int n = rnd.nextInt(numblocks);
+            p.setInt(0, n);
+            p.setInt(Page.BLOCK_SIZE - Page.INT_SIZE, r);
+            pending[i] = p.writeAsync(new Block(FILENAME, n));
+         }
+         CompletableFuture.allOf(pending).join();
+         fm.forceAll();
+         asyncTime += System.nanoTime() - start;
+         forces += fm.doubleWriteForces() - before;
+
+         start = System.nanoTime();
+         for (int i = 0; i < numblocks; i++) {
+            int n = rnd.nextInt(numblocks);
+            p.read(new Block(FILENAME, n));
+            if (p.getInt(0) != n)
+               throw new IllegalStateException("block " + n + " read incorrectly");
+         }
+         readTime += System.nanoTime() - start;
+      }
+      double blocks = (double) numblocks * rounds;
+      return new double[] {blocks / (writeTime / 1e9), blocks / (asyncTime / 1e9),
+                           blocks / (readTime / 1e9), forces / blocks};
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures commit throughput with 1, 8, 64 and 256 concurrent clients.
+ * Each client repeatedly runs a transaction that increments an integer
+ * in a block of its own and commits, so that clients never wait
+ * for each other's locks.
+ * The run uses a new database, with the group commit settings
+ * of the system properties, so comparing group commit with
+ * committing alone takes two runs, e.g. one with
+ * <tt>-Dsimpledb.groupcommit.batch=0</tt>.
+ * (The log records of a process always go to the log of the
+ * first database it opens, so one run cannot measure both.)
+ * The first second of each measurement is an untimed warm-up.
+ * The transactions' messages are not printed while they run.
+ * <p>
+ * Usage: CommitBenchmark [seconds]
+ */
+public class CommitBenchmark {
+   private static final String DBNAME = "commitbench";
+   private static final String FILENAME = "commitbench.dat";
+   private static final int[] CLIENTS = {1, 8, 64, 256};
+
+   public static void main(String[] args) throws Exception {
+      int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+      int maxclients = CLIENTS[CLIENTS.length - 1];
+      PrintStream out = System.out;
+      deleteDirectory(FileMgr.directoryOf(DBNAME));
+      SimpleDB.BUFFER_SIZE = 2 * maxclients;
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      SimpleDB.init(DBNAME);
+      Transaction tx = new Transaction();
+      for (int i = 0; i < maxclients; i++)
+         tx.append(FILENAME, p -> p.setInt(0, 0));
+      tx.commit();
+      String config = (SimpleDB.GROUP_COMMIT_BATCH > 0)
+            ? "group commit (batch " + SimpleDB.GROUP_COMMIT_BATCH + ", wait " + SimpleDB.GROUP_COMMIT_WAIT + "us)"
+            : "no group commit";
+      out.println(config);
+      LogMgr logMgr = SimpleDB.logMgr();
+      for (int clients : CLIENTS) {
+         run(clients, 1);
+         long forces = logMgr.forces();
+         long commits = run(clients, seconds);
+         forces = logMgr.forces() - forces;
+         out.printf("%3d clients: %8.0f commits/s   %5.2f log forces per commit%n",
+                    clients, commits / (double) seconds, forces / (double) Math.max(1, commits));
+      }
+      System.setOut(out);
+   }
+
+   /**
+    * Runs the clients for the specified time,
+    * and returns the number of transactions they committed.
+    */
+   private static long run(int clients, int seconds) throws InterruptedException {
+      AtomicLong commits = new AtomicLong();
+      long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+      Thread[] workers = new Thread[clients];
+      for (int i = 0; i < clients; i++) {
+         Block blk = new Block(FILENAME, i);
+         workers[i] = new Thread(() -> {
+            long count = 0;
+            while (System.nanoTime() < deadline) {
+               Transaction tx = new Transaction();
+               tx.pin(blk);
+               tx.setInt(blk, 0, tx.getInt(blk, 0) + 1);
+               tx.commit();
+               count++;
+            }
+            commits.addAndGet(count);
+         });
+         workers[i].start();
+      }
+      for (Thread t : workers)
+         t.join();
+      return commits.get();
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of random block reads through the
+ * file manager, with an increasing number of threads.
+ * The program creates a table file of the specified number
+ * of blocks (if it is not already that large), and then
+ * each thread reads random blocks of it for a fixed time,
+ * and then the whole file is read sequentially.
+ * If the last argument is "mmap", the file is read through
+ * a memory mapping, for comparison with ordinary reads.
+ * <p>
+ * Usage: FileReadBenchmark [blocks [seconds [maxthreads [mmap]]]]
+ */
+public class FileReadBenchmark {
+   private static final String FILENAME = "readbench.tbl";
+
+   public static void main(String[] args) throws Exception {
+      int numblocks = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+      int seconds   = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+      int maxthreads = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+      boolean mmap = (args.length > 3) && args[3].equals("mmap");
+
+      SimpleDB.initFileMgr("benchdb");
+      FileMgr fm = SimpleDB.fileMgr();
+      Page p = new Page();
+      for (int n = fm.size(FILENAME); n < numblocks; n++) {
+         p.setInt(0, n);
+         p.append(FILENAME);
+      }
+      if (mmap)
+         fm.setMappedFiles(FILENAME);
+      System.out.println(numblocks + " blocks of " + Page.BLOCK_SIZE + " bytes"
+                         + (mmap ? ", memory-mapped" : ""));
+
+      for (int threads = 1; threads <= maxthreads; threads *= 2) {
+         AtomicLong reads = new AtomicLong();
+         long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+         Thread[] workers = new Thread[threads];
+         for (int i = 0; i < threads; i++) {
+            long seed = i;
+            workers[i] = new Thread(() -> {
+               Random rnd = new Random(seed);
+               Page page = new Page();
+               long count = 0;
+               while (System.nanoTime() < deadline) {
+                  int n = rnd.nextInt(numblocks);
+                  page.read(new Block(FILENAME, n));
+                  if (page.getInt(0) != n)
+                     throw new IllegalStateException("block " + n + " read incorrectly");
+                  count++;
+               }
+               reads.addAndGet(count);
+            });
+            workers[i].start();
+         }
+         for (Thread t : workers)
+            t.join();
+         System.out.printf("%2d threads: %10.0f reads/s%n", threads, reads.get() / (double) seconds);
+      }
+
+      long start = System.nanoTime();
+      for (int n = 0; n < numblocks; n++)
+         p.read(new Block(FILENAME, n));
+      double secs = (System.nanoTime() - start) / 1e9;
+      System.out.printf("sequential: %10.0f reads/s%n", numblocks / secs);
+   }
+}
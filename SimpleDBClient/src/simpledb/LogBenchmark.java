@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the cost of logging updates.
+ * Transactions update integers and strings of a few blocks
+ * that stay in the buffer pool, so that each update costs little
+ * more than its log record, and then commit.
+ * The benchmark reports updates per second and the bytes
+ * allocated per update, and then the time and bytes per record
+ * of recovering the log that the updates wrote;
+ * since every transaction committed, recovery reads
+ * every record and undoes none.
+ * The first round of updates is an untimed warm-up.
+ * The transactions' messages are not printed while they run.
+ * <p>
+ * Usage: LogBenchmark [updates [updates per transaction]]
+ */
+public class LogBenchmark {
+   private static final String DBNAME = "logbench";
+   private static final String FILENAME = "logbench.dat";
+   private static final int BLOCKS = 8;
+
+   public static void main(String[] args) throws Exception {
+      int updates = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+      int pertx   = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+      PrintStream out = System.out;
+      deleteDirectory(FileMgr.directoryOf(DBNAME));
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      SimpleDB.init(DBNAME);
+      Transaction tx = new Transaction();
+      for (int i = 0; i < BLOCKS; i++)
+         tx.append(FILENAME, p -> {});
+      tx.commit();
+
+      long records = run(updates, pertx);
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      records += run(updates, pertx);
+      long elapsed = System.nanoTime() - start;
+      bytes = allocatedBytes() - bytes;
+      out.printf("updates: %10.0f updates/s   %6.1f bytes allocated per update%n",
+                 updates * 1e9 / elapsed, bytes / (double) updates);
+
+      bytes = allocatedBytes();
+      start = System.nanoTime();
+      tx = new Transaction();
+      tx.recover();
+      elapsed = System.nanoTime() - start;
+      bytes = allocatedBytes() - bytes;
+      out.printf("recovery: %9.0f records/s   %6.1f bytes allocated per record%n",
+                 records * 1e9 / elapsed, bytes / (double) records);
+      System.setOut(out);
+   }
+
+   /**
+    * Runs transactions of the specified number of updates,
+    * half of them integers and half strings,
+    * until the specified number of updates is made.
+    * Returns the number of log records written.
+    */
+   private static long run(int updates, int pertx) {
+      Block[] blks = new Block[BLOCKS];
+      for (int i = 0; i < BLOCKS; i++)
+         blks[i] = new Block(FILENAME, i);
+      String[] vals = {"update", "another update"};
+      int done = 0;
+      long records = 0;
+      while (done < updates) {
+         Transaction tx = new Transaction();
+         for (Block blk : blks)
+            tx.pin(blk);
+         for (int i = 0; i < pertx && done < updates; i += 2, done += 2) {
+            Block blk = blks[(i / 2) % BLOCKS];
+            int offset = (i / 2 / BLOCKS) % 90 * 40;
+            tx.setInt(blk, offset, i);
+            tx.setString(blk, offset + 4, vals[(i / 2) & 1]);
+         }
+         tx.commit();
+         records += 2;
+      }
+      return records + updates;
+   }
+
+   /**
+    * Returns the number of bytes this thread has allocated.
+    */
+   private static long allocatedBytes() {
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
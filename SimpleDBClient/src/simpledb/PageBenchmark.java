@@ -0,0 +1,121 @@
+package simpledb;
+
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of field reads and writes on a page,
+ * with an increasing number of threads.
+ * The page is laid out like a record page of a table with
+ * an int field and a 20-character string field.
+ * All threads read the same page, as they would a hot block
+ * of the buffer pool; each thread writes a page of its own.
+ * String comparisons compare each record's string with the previous one's,
+ * by decoding both or in place.
+ * Each measurement is preceded by an untimed warm-up of the same length.
+ * <p>
+ * Usage: PageBenchmark [seconds [maxthreads]]
+ */
+public class PageBenchmark {
+   private static final int STRLEN = 20;
+
+   public static void main(String[] args) throws Exception {
+      int seconds    = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+      int maxthreads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+      SimpleDB.initFileMgr("pagebench");
+      int recsize = Page.INT_SIZE + Page.INT_SIZE + Page.STR_SIZE(STRLEN);
+      int numrecs = Page.BLOCK_SIZE / recsize;
+      Page shared = new Page();
+      fill(shared, numrecs, recsize);
+
+      for (int threads = 1; threads <= maxthreads; threads *= 2) {
+         double ints = run(threads, seconds, page -> {
+            long sum = 0;
+            for (int r = 0; r < numrecs; r++)
+               sum += page.getInt(r * recsize + Page.INT_SIZE);
+            return sum;
+         }, shared, numrecs);
+         double strs = run(threads, seconds, page -> {
+            long sum = 0;
+            for (int r = 0; r < numrecs; r++)
+               sum += page.getString(r * recsize + 2 * Page.INT_SIZE).length();
+            return sum;
+         }, shared, numrecs);
+         double writes = run(threads, seconds, page -> {
+            for (int r = 0; r < numrecs; r++) {
+               page.setInt(r * recsize + Page.INT_SIZE, r);
+               page.setString(r * recsize + 2 * Page.INT_SIZE, "student" + r);
+            }
+            return numrecs;
+         }, null, numrecs);
+         double decoded = run(threads, seconds, page -> {
+            long sum = 0;
+            for (int r = 1; r < numrecs; r++)
+               sum += page.getString(r * recsize + 2 * Page.INT_SIZE)
+                          .compareTo(page.getString((r - 1) * recsize + 2 * Page.INT_SIZE));
+            return sum;
+         }, shared, numrecs - 1);
+         double inplace = run(threads, seconds, page -> {
+            long sum = 0;
+            for (int r = 1; r < numrecs; r++)
+               sum += page.compareString(r * recsize + 2 * Page.INT_SIZE,
+                                         page, (r - 1) * recsize + 2 * Page.INT_SIZE);
+            return sum;
+         }, shared, numrecs - 1);
+         System.out.printf("%2d threads: getInt %8.1f M/s   getString %8.1f M/s   setInt+setString %8.1f M/s%n",
+                           threads, ints / 1e6, strs / 1e6, writes / 1e6);
+         System.out.printf("            compare decoded %8.1f M/s   compare in place %8.1f M/s%n",
+                           decoded / 1e6, inplace / 1e6);
+      }
+   }
+
+   private interface PageTask {
+      long apply(Page page);
+   }
+
+   private static void fill(Page page, int numrecs, int recsize) {
+      for (int r = 0; r < numrecs; r++) {
+         page.setInt(r * recsize, 1);
+         page.setInt(r * recsize + Page.INT_SIZE, r);
+         page.setString(r * recsize + 2 * Page.INT_SIZE, "student" + r);
+      }
+   }
+
+   /**
+    * Runs the task repeatedly in each thread, on the shared page
+    * or, if it is null, on a page per thread,
+    * and returns the number of fields visited per second.
+    */
+   private static double run(int threads, int seconds, PageTask task, Page shared, int numrecs)
+         throws InterruptedException {
+      AtomicLong sink = new AtomicLong();
+      long visits = 0;
+      for (int round = 0; round < 2; round++) {
+         AtomicLong passes = new AtomicLong();
+         long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+         Thread[] workers = new Thread[threads];
+         for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+               Page page = (shared != null) ? shared : new Page();
+               long count = 0, sum = 0;
+               while (System.nanoTime() < deadline) {
+                  sum += task.apply(page);
+                  count++;
+               }
+               passes.addAndGet(count);
+               sink.addAndGet(sum);
+            });
+            workers[i].start();
+         }
+         for (Thread t : workers)
+            t.join();
+         visits = passes.get() * numrecs;
+      }
+      if (sink.get() == 42)
+         System.out.println();  // keeps the results from being optimized away
+      return visits / (double) seconds;
+   }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import simpledb.buffer.Buffer;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the cost of pinning blocks that are already in the buffer pool.
+ * Threads pin and unpin the blocks of a small hot set,
+ * which fits in the pool, so that every pin is a hit
+ * and the cost measured is that of the buffer manager itself.
+ * The benchmark runs with 1, 2, 4, ... threads up to the maximum,
+ * and reports pins per second for each.
+ * Each run is preceded by an untimed warm-up.
+ * <p>
+ * Usage: PinBenchmark [seconds [maxthreads [blocks]]]
+ */
+public class PinBenchmark {
+   private static final String DBNAME = "pinbench";
+   private static final String FILENAME = "pinbench.dat";
+
+   public static void main(String[] args) throws Exception {
+      double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2;
+      int maxthreads = (args.length > 1) ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+      int blocks     = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+      PrintStream out = System.out;
+      deleteDirectory(FileMgr.directoryOf(DBNAME));
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      SimpleDB.BUFFER_SIZE = 2 * blocks;
+      SimpleDB.init(DBNAME);
+      Transaction tx = new Transaction();
+      for (int i = 0; i < blocks; i++)
+         tx.append(FILENAME, p -> {});
+      tx.commit();
+
+      Block[] blks = new Block[blocks];
+      for (int i = 0; i < blocks; i++)
+         blks[i] = new Block(FILENAME, i);
+      BufferMgr bm = SimpleDB.bufferMgr();
+      for (int n = 1; n <= maxthreads; n *= 2) {
+         run(bm, blks, n, seconds / 4);
+         long pins = run(bm, blks, n, seconds);
+         out.printf("%3d threads: %12.0f pins/s%n", n, pins / seconds);
+         if (n < maxthreads && 2 * n > maxthreads)
+            n = maxthreads / 2;
+      }
+      System.setOut(out);
+   }
+
+   /**
+    * Runs the specified number of threads for the specified time,
+    * each pinning and unpinning the blocks in its own order.
+    * Returns the total number of pins.
+    */
+   private static long run(BufferMgr bm, Block[] blks, int nthreads, double seconds)
+         throws InterruptedException {
+      AtomicBoolean done = new AtomicBoolean(false);
+      LongAdder pins = new LongAdder();
+      Thread[] threads = new Thread[nthreads];
+      for (int t = 0; t < nthreads; t++) {
+         int stride = 2 * t + 1;
+         threads[t] = new Thread(() -> {
+            long count = 0;
+            int i = 0;
+            while (!done.get()) {
+               for (int j = 0; j < 1000; j++) {
+                  Buffer buff = bm.pin(blks[i]);
+                  bm.unpin(buff);
+                  i = (i + stride) % blks.length;
+               }
+               count += 1000;
+            }
+            pins.add(count);
+         });
+      }
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep((long) (seconds * 1000));
+      done.set(true);
+      for (Thread t : threads)
+         t.join();
+      return pins.sum();
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
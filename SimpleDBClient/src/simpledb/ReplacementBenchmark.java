@@ -0,0 +1,111 @@
+package simpledb;
+
+import simpledb.buffer.Buffer;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.Block;
+import simpledb.file.FileMgr;
+import simpledb.server.SimpleDB;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Measures the cost of replacing a buffer, for pools of
+ * different sizes and for each replacement policy.
+ * The pool is first filled with hot blocks, each pinned twice.
+ * Each step then pins a hot block, which is a hit,
+ * and the next block of a scan over blocks that are never reused,
+ * which is a miss that replaces a buffer.
+ * The blocks lie beyond the end of their file, so a miss
+ * reads no data and the time measured is that of the
+ * buffer manager and its policy.
+ * Each run is preceded by an untimed warm-up.
+ * With a policy whose victim choice is O(1) or O(log n),
+ * the cost per miss hardly grows with the size of the pool.
+ * <p>
+ * Usage: ReplacementBenchmark [seconds [policy [poolsize ...]]]
+ * <br>The policy is "all" by default; the pool sizes are 1000, 10000 and 100000.
+ */
+public class ReplacementBenchmark {
+   private static final String DBNAME = "replbench";
+   private static final String FILENAME = "replbench.dat";
+   private static final String[] POLICIES = {"lru2", "2q", "arc", "clock"};
+
+   public static void main(String[] args) throws Exception {
+      double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 2;
+      String[] policies = (args.length > 1 && !args[1].equals("all")) ? new String[] {args[1]} : POLICIES;
+      int[] sizes = {1000, 10000, 100000};
+      if (args.length > 2) {
+         sizes = new int[args.length - 2];
+         for (int i = 0; i < sizes.length; i++)
+            sizes[i] = Integer.parseInt(args[i + 2]);
+      }
+      PrintStream out = System.out;
+      deleteDirectory(FileMgr.directoryOf(DBNAME));
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      SimpleDB.initFileAndLogMgr(DBNAME);
+
+      for (String policy : policies) {
+         for (int size : sizes) {
+            BufferMgr bm = new BufferMgr(size, policy);
+            fill(bm, size);
+            run(bm, size, seconds / 2);
+            long misses = bm.misses();
+            long start = System.nanoTime();
+            long steps = run(bm, size, seconds);
+            long elapsed = System.nanoTime() - start;
+            misses = bm.misses() - misses;
+            out.printf("%-5s %7d buffers: %9.0f misses/s %7.0f ns/miss   hit ratio %.2f%n",
+                       policy, size, misses * 1e9 / elapsed, (double) elapsed / misses,
+                       1 - (double) misses / (2 * steps));
+            // let the pages of this pool be freed before the next one is allocated
+            System.gc();
+         }
+      }
+      System.setOut(out);
+   }
+
+   /**
+    * Reads the hot blocks into the pool, referencing each of them twice.
+    */
+   private static void fill(BufferMgr bm, int size) {
+      for (int k = 0; k < 2; k++)
+         for (int i = 0; i < size - 1; i++)
+            bm.unpin(bm.pin(new Block(FILENAME, i)));
+   }
+
+   /**
+    * Alternates pins of hot blocks with pins of cold blocks
+    * for the specified time, and returns the number of steps.
+    * The hot blocks are all but one of the pool,
+    * so that each cold block replaces the previous one.
+    */
+   private static long run(BufferMgr bm, int size, double seconds) {
+      long deadline = System.nanoTime() + (long) (seconds * 1e9);
+      long steps = 0;
+      int hot = 0;
+      int cold = size;
+      while (System.nanoTime() < deadline) {
+         for (int j = 0; j < 1000; j++) {
+            Buffer buff = bm.pin(new Block(FILENAME, hot));
+            bm.unpin(buff);
+            buff = bm.pin(new Block(FILENAME, cold));
+            bm.unpin(buff);
+            hot = (hot + 1) % (size - 1);
+            cold++;
+         }
+         steps += 1000;
+      }
+      return steps;
+   }
+
+   private static void deleteDirectory(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null)
+         return;
+      for (File f : files)
+         f.delete();
+      dir.delete();
+   }
+}
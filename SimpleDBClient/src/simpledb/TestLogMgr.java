@@ -1,31 +1,33 @@
 package simpledb;
 
-import simpledb.buffer.Buffer;
-import simpledb.buffer.BufferMgr;
-import simpledb.file.Block;
+import simpledb.log.BasicLogRecord;
 import simpledb.log.LogMgr;
 import simpledb.server.SimpleDB;
 
-import java.io.File;
-import java.io.PrintStream;
+import java.util.Iterator;
 
 public class TestLogMgr {
     public static void main(String[] args) {
         try {
-            // analogous to the driver
-            SimpleDB.init("simpleDB");
+            // only the file and log managers: the records are not
+            // recovery records, so they must not go to a database's log
+            SimpleDB.initFileAndLogMgr("logtest");
             LogMgr logMgr = SimpleDB.logMgr();
-            File file = new File("filename.txt");
-            PrintStream out = new PrintStream(file);
-            Block blk = new Block("filename.txt", 1);
-            BufferMgr bufferMgr = SimpleDB.bufferMgr();
 
-            Buffer buf = bufferMgr.pin(blk);
-            buf.setInt(1, 1, 1, 57);
-            bufferMgr.unpin(buf);
-            bufferMgr.flushAll(1);
+            int count = 5;
+            long lsn = -1;
+            for (int i = 0; i < count; i++) {
+                lsn = logMgr.append(new Object[] {"record", i});
+                System.out.println("Appended record " + i + " with LSN " + lsn);
+            }
+            logMgr.flush(lsn);
 
-            file.delete();
+            // the records just appended are the most recent ones
+            Iterator<BasicLogRecord> iter = logMgr.iterator();
+            for (int i = 0; i < count && iter.hasNext(); i++) {
+                BasicLogRecord rec = iter.next();
+                System.out.println("Read back: " + rec.nextString() + " " + rec.nextInt());
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }